@@ -0,0 +1,141 @@
+package hr.fer.zemris.java.fractals;
+
+import hr.fer.zemris.math.ComplexRootedPolynomial;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A {@link NewtonKernel} which colors several points at once using the SIMD
+ * instructions of the processor, through the incubating Vector API of JDK 16 and
+ * newer. Each lane of a vector holds one point.
+ *
+ * The lanes are iterated together, and a lane whose point has stopped iterating is
+ * masked out of the updates. Since neighbouring points can need very different numbers
+ * of iterations, a lane is refilled with the next point of the block as soon as its
+ * point has stopped, instead of waiting for the slowest lane. The points which never
+ * converge therefore share the vectors with the others until the block runs out. The
+ * operations are the same as the ones of the scalar kernel, so the colors are the same
+ * as well.
+ *
+ * This class is compiled only on JDK 16 and newer, and used only if the
+ * "jdk.incubator.vector" module is added when running the program.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class VectorNewtonKernel extends NewtonKernel {
+
+    /**
+     * The vector shape preferred by the processor.
+     */
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    /**
+     * Constructs a {@link VectorNewtonKernel} for the given rooted polynomial.
+     *
+     * @param rootedPolynomial the rooted polynomial
+     * @param maxIterations the maximum number of Newton-Raphson iterations
+     * @throws NullPointerException if the given polynomial is {@code null}
+     */
+    public VectorNewtonKernel(ComplexRootedPolynomial rootedPolynomial, int maxIterations) {
+        super(rootedPolynomial, maxIterations);
+    }
+
+    @Override
+    public void colorRows(double[] re, double[] im, short[] data, int offset, int stride) {
+        int lanes = SPECIES.length();
+        if (re.length * im.length < lanes) {
+            super.colorRows(re, im, data, offset, stride);
+            return;
+        }
+
+        // the state of each lane while its vectors are spilled
+        double[] laneRe = new double[lanes];
+        double[] laneIm = new double[lanes];
+        double[] laneIterations = new double[lanes];
+        int[] laneIndexes = new int[lanes];
+
+        // the coordinates of the next point to load into a lane
+        int nextX = 0;
+        int nextY = 0;
+
+        for (int lane = 0; lane < lanes; lane++) {
+            laneRe[lane] = re[nextX];
+            laneIm[lane] = im[nextY];
+            laneIndexes[lane] = offset + nextY * stride + nextX;
+
+            if (++nextX == re.length) {
+                nextX = 0;
+                nextY++;
+            }
+        }
+        long liveLanes = SPECIES.maskAll(true).toLong();
+
+        while (liveLanes != 0) {
+            VectorMask<Double> live = VectorMask.fromLong(SPECIES, liveLanes);
+            DoubleVector zRe = DoubleVector.fromArray(SPECIES, laneRe, 0);
+            DoubleVector zIm = DoubleVector.fromArray(SPECIES, laneIm, 0);
+            DoubleVector iterations = DoubleVector.fromArray(SPECIES, laneIterations, 0);
+            VectorMask<Double> stopped;
+
+            do {
+                DoubleVector fRe = DoubleVector.broadcast(SPECIES, factorsRe[factorsRe.length - 1]);
+                DoubleVector fIm = DoubleVector.broadcast(SPECIES, factorsIm[factorsIm.length - 1]);
+                for (int i = factorsRe.length - 2; i >= 0; i--) {
+                    DoubleVector temp = fRe.mul(zRe).sub(fIm.mul(zIm)).add(factorsRe[i]);
+                    fIm = fRe.mul(zIm).add(fIm.mul(zRe)).add(factorsIm[i]);
+                    fRe = temp;
+                }
+
+                DoubleVector dRe = DoubleVector.broadcast(SPECIES, derivedRe[derivedRe.length - 1]);
+                DoubleVector dIm = DoubleVector.broadcast(SPECIES, derivedIm[derivedIm.length - 1]);
+                for (int i = derivedRe.length - 2; i >= 0; i--) {
+                    DoubleVector temp = dRe.mul(zRe).sub(dIm.mul(zIm)).add(derivedRe[i]);
+                    dIm = dRe.mul(zIm).add(dIm.mul(zRe)).add(derivedIm[i]);
+                    dRe = temp;
+                }
+
+                DoubleVector denominator = dRe.mul(dRe).add(dIm.mul(dIm));
+                DoubleVector stepRe = fRe.mul(dRe).add(fIm.mul(dIm)).div(denominator);
+                DoubleVector stepIm = fIm.mul(dRe).sub(fRe.mul(dIm)).div(denominator);
+
+                zRe = zRe.sub(stepRe, live);
+                zIm = zIm.sub(stepIm, live);
+                iterations = iterations.add(1.0, live);
+
+                // NaN distances don't compare as greater, so they stop the lane like in
+                // the scalar kernel
+                DoubleVector distance = stepRe.mul(stepRe).add(stepIm.mul(stepIm));
+                stopped = distance.compare(VectorOperators.GT, CONVERGENCE_THRESHOLD_SQUARED).not()
+                        .or(iterations.compare(VectorOperators.GE, maxIterations))
+                        .and(live);
+
+            } while (!stopped.anyTrue());
+
+            zRe.intoArray(laneRe, 0);
+            zIm.intoArray(laneIm, 0);
+            iterations.intoArray(laneIterations, 0);
+
+            for (long bits = stopped.toLong(); bits != 0; bits &= bits - 1) {
+                int lane = Long.numberOfTrailingZeros(bits);
+                data[laneIndexes[lane]] = closestRoot(laneRe[lane], laneIm[lane]);
+
+                if (nextY < im.length) {
+                    laneRe[lane] = re[nextX];
+                    laneIm[lane] = im[nextY];
+                    laneIterations[lane] = 0;
+                    laneIndexes[lane] = offset + nextY * stride + nextX;
+
+                    if (++nextX == re.length) {
+                        nextX = 0;
+                        nextY++;
+                    }
+                } else {
+                    liveLanes &= ~(1L << lane);
+                }
+            }
+        }
+    }
+}
@@ -70,7 +70,7 @@ public class Newton {
      * @param rootString the root string to parse
      * @return the {@link Complex} object parsed from the root string
      */
-    private static Complex parseRoot(String rootString) {
+    static Complex parseRoot(String rootString) {
         String normalized = rootString.replaceAll("\\s+", "").replaceAll("i$", "i1");
 
         try {
@@ -0,0 +1,345 @@
+package hr.fer.zemris.java.fractals;
+
+import hr.fer.zemris.math.Complex;
+import hr.fer.zemris.math.ComplexRootedPolynomial;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This program renders Newton fractals to image files without the fractal viewer, at
+ * sizes which would not fit into memory as a whole, such as 32768x32768 points.
+ *
+ * The jobs are read from a job file, one per line, with the fields separated by
+ * semicolons:
+ *
+ * <pre>
+ * output; width; height; reMin; reMax; imMin; imMax; root1; root2; ...
+ * </pre>
+ *
+ * The roots are written like in the {@link Newton} program, for example "1", "-1 + i0"
+ * or "i". The output path is relative to the directory of the job file, and its
+ * extension chooses the format - ".png" for an indexed-color PNG, or ".raw" for the
+ * root indexes as unsigned bytes, row after row. Empty lines and lines starting with
+ * '#' are ignored.
+ *
+ * An image is calculated a band of rows at a time by {@link NewtonJob}s in a fork-join
+ * pool shared by all jobs, and each band is written as the next one is calculated, so
+ * only two bands of each image are kept in memory. Several jobs are run in parallel.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class NewtonBatch {
+
+    /**
+     * The maximum number of Newton-Raphson iterations, as in the fractal viewer.
+     */
+    private static final int MAX_ITERATIONS = 16 * 16 * 16;
+
+    /**
+     * The maximum number of points of a band of rows.
+     */
+    private static final int BAND_POINTS = 1 << 21;
+
+    /**
+     * The main method. Reads the jobs from the job file and runs them.
+     *
+     * @param args the command-line arguments - 1 or 2 expected (a path to the job file
+     *             and optionally the number of jobs run in parallel)
+     */
+    public static void main(String[] args) {
+        if (args.length != 1 && args.length != 2) {
+            System.out.println("Expected a job file and optionally the number of parallel jobs!");
+            System.exit(1);
+        }
+
+        int parallelJobs = Runtime.getRuntime().availableProcessors();
+        if (args.length == 2) {
+            try {
+                parallelJobs = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                parallelJobs = 0;
+            }
+
+            if (parallelJobs < 1) {
+                System.out.println("The number of parallel jobs must be a positive integer!");
+                System.exit(1);
+            }
+        }
+
+        List<Job> jobs;
+        try {
+            jobs = readJobs(Paths.get(args[0]));
+
+        } catch (IOException e) {
+            System.out.println("Can't read the job file: " + e.getMessage());
+            System.exit(1);
+            return;
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(parallelJobs);
+
+        List<Future<Void>> results = new ArrayList<>();
+        for (Job job : jobs) {
+            results.add(executor.submit(() -> {
+                long start = System.nanoTime();
+                render(job, pool);
+                System.out.printf("Rendered %s (%dx%d) in %.1f s.%n", job.output,
+                        job.width, job.height, (System.nanoTime() - start) / 1e9);
+                return null;
+            }));
+        }
+
+        int failed = 0;
+        for (int i = 0; i < jobs.size(); i++) {
+            try {
+                results.get(i).get();
+
+            } catch (ExecutionException e) {
+                System.out.println("Job " + jobs.get(i).output + " failed: " + e.getCause());
+                failed++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed++;
+            }
+        }
+
+        executor.shutdown();
+        pool.shutdown();
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    /**
+     * Renders the image of the given job.
+     *
+     * @param job the job
+     * @param pool the pool running the {@link NewtonJob}s
+     * @throws IOException if the image can't be written
+     */
+    private static void render(Job job, ForkJoinPool pool) throws IOException {
+        NewtonKernel kernel = NewtonKernel.create(job.polynomial, MAX_ITERATIONS,
+                System.getProperty(NewtonProducer.BACKEND_PROPERTY, NewtonKernel.SCALAR_BACKEND));
+
+        int bandRows = Math.max(1, Math.min(job.height, BAND_POINTS / job.width));
+        short[] current = new short[job.width * bandRows];
+        short[] next = new short[job.width * bandRows];
+        ForkJoinTask<Void> band = pool.submit(band(job, kernel, 0, bandRows, current));
+
+        try (OutputStream os = Files.newOutputStream(job.output);
+             RowWriter writer = job.createWriter(os, kernel.order() + 1)) {
+
+            for (int y = 0; y < job.height; y += bandRows) {
+                band.join();
+
+                int rows = Math.min(bandRows, job.height - y);
+                int nextY = y + bandRows;
+                if (nextY < job.height) {
+                    int nextRows = Math.min(bandRows, job.height - nextY);
+                    band = pool.submit(band(job, kernel, nextY, nextRows, next));
+                }
+
+                for (int row = 0; row < rows; row++) {
+                    writer.writeRow(current, row * job.width);
+                }
+
+                short[] temp = current;
+                current = next;
+                next = temp;
+            }
+
+        } finally {
+            band.cancel(false);
+        }
+    }
+
+    /**
+     * Creates the task calculating a band of rows of the image of the given job.
+     *
+     * @param job the job
+     * @param kernel the kernel calculating the color of each point
+     * @param y the y-coordinate of the first row of the band
+     * @param rows the number of rows of the band
+     * @param data the array to store the colors of the band to
+     * @return the task
+     */
+    private static NewtonJob band(Job job, NewtonKernel kernel, int y, int rows, short[] data) {
+        return new NewtonJob(
+                job.reMin, job.reMax, job.imMin, job.imMax, job.width, job.height,
+                0, job.width, y, y + rows, 1, data, y, null, kernel, new AtomicBoolean()
+        );
+    }
+
+    /**
+     * Reads the jobs from the given job file.
+     *
+     * @param file the job file
+     * @return the jobs
+     * @throws IOException if the file can't be read
+     * @throws IllegalArgumentException if a job is invalid
+     */
+    private static List<Job> readJobs(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        List<String> lines = Files.readAllLines(file);
+        List<Job> jobs = new ArrayList<>();
+
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            try {
+                jobs.add(Job.parse(line, directory));
+
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid job in line " + (i + 1) + ": " + e.getMessage());
+            }
+        }
+
+        return jobs;
+    }
+
+    /**
+     * Returns the palette of the given number of root indexes. Index 0, for the points
+     * which did not converge to a root, is black, and the roots get evenly spaced hues.
+     *
+     * @param colors the number of root indexes
+     * @return the RGB colors of the root indexes
+     */
+    private static int[] palette(int colors) {
+        int[] palette = new int[colors];
+
+        for (int i = 1; i < colors; i++) {
+            palette[i] = Color.HSBtoRGB((i - 1) / (float) (colors - 1), 0.8f, 0.9f) & 0xFFFFFF;
+        }
+
+        return palette;
+    }
+
+    /**
+     * A job of rendering an image of a Newton fractal.
+     */
+    private static class Job {
+
+        /**
+         * The path of the image file.
+         */
+        private Path output;
+
+        /**
+         * The width of the image.
+         */
+        private int width;
+        /**
+         * The height of the image.
+         */
+        private int height;
+
+        /**
+         * The minimum real value of the complex plane.
+         */
+        private double reMin;
+        /**
+         * The maximum real value of the complex plane.
+         */
+        private double reMax;
+        /**
+         * The minimum imaginary value of the complex plane.
+         */
+        private double imMin;
+        /**
+         * The maximum imaginary value of the complex plane.
+         */
+        private double imMax;
+
+        /**
+         * The rooted polynomial of the fractal.
+         */
+        private ComplexRootedPolynomial polynomial;
+
+        /**
+         * Parses a job from the given line of the job file.
+         *
+         * @param line the line
+         * @param directory the directory of the job file
+         * @return the job
+         * @throws IllegalArgumentException if the line is not a valid job
+         */
+        private static Job parse(String line, Path directory) {
+            String[] fields = line.split(";");
+            if (fields.length < 8) {
+                throw new IllegalArgumentException("Expected an output, a size, a region and at least one root!");
+            }
+
+            Job job = new Job();
+            job.output = directory.resolve(fields[0].trim());
+
+            String name = job.output.getFileName().toString();
+            if (!name.endsWith(".png") && !name.endsWith(".raw")) {
+                throw new IllegalArgumentException("The output must be a .png or a .raw file!");
+            }
+
+            try {
+                job.width = Integer.parseInt(fields[1].trim());
+                job.height = Integer.parseInt(fields[2].trim());
+                job.reMin = Double.parseDouble(fields[3].trim());
+                job.reMax = Double.parseDouble(fields[4].trim());
+                job.imMin = Double.parseDouble(fields[5].trim());
+                job.imMax = Double.parseDouble(fields[6].trim());
+
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid size or region!");
+            }
+
+            if (job.width < 2 || job.height < 2) {
+                throw new IllegalArgumentException("The image must be at least 2x2!");
+            }
+            if (fields.length - 7 > 255) {
+                throw new IllegalArgumentException("At most 255 roots are supported!");
+            }
+
+            Complex[] roots = new Complex[fields.length - 7];
+            for (int i = 0; i < roots.length; i++) {
+                roots[i] = Newton.parseRoot(fields[7 + i]);
+            }
+            job.polynomial = new ComplexRootedPolynomial(Complex.ONE, roots);
+
+            return job;
+        }
+
+        /**
+         * Creates the writer of the image, chosen by the extension of the output.
+         *
+         * @param os the stream to write the image to
+         * @param colors the number of root indexes
+         * @return the writer
+         * @throws IOException if the writer can't be created
+         */
+        private RowWriter createWriter(OutputStream os, int colors) throws IOException {
+            if (output.getFileName().toString().endsWith(".raw")) {
+                return new RawRowWriter(os, width);
+            }
+
+            return new PngRowWriter(os, width, height, palette(colors));
+        }
+    }
+}
@@ -1,35 +1,64 @@
 package hr.fer.zemris.java.fractals;
 
-import hr.fer.zemris.math.Complex;
-import hr.fer.zemris.math.ComplexPolynomial;
-import hr.fer.zemris.math.ComplexRootedPolynomial;
-
-import java.util.concurrent.Callable;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * This class represents a task to be called in the {@link NewtonProducer} class for
- * drawing a Newton fractal on a specified complex plane.
+ * drawing a tile of a Newton fractal on a specified complex plane.
  *
  * It generates the Newton-Raphson iterations for a complex polynomial f(z) using the
  * formula z_n+1 = z_n - f(z_n) / f'(z_n) until conditions are satisfied.
  *
  * Once stopped, it finds the closest root for the final point z_n and colors the point
- * based on the index of that root.
+ * based on the index of that root. The iterations of each point are calculated by a
+ * {@link NewtonKernel}, so no objects are allocated per point.
+ *
+ * Since some parts of the plane need far more iterations than others, a tile is split
+ * in halves which are run as separate fork-join tasks, so idle threads can steal them.
+ * Large tiles are always split, while medium ones are split only if the other threads
+ * are running out of work.
+ *
+ * A job can also draw a coarse preview of its tile, calculating only every step-th
+ * point in both directions and filling the whole step by step square with its color.
+ *
+ * The points whose colors were found in a {@link NewtonTileCache} are already stored
+ * in the array of colors, and the tiles and blocks of rows without other points are
+ * skipped.
+ *
+ * The array of colors can hold only a band of rows of the complex plane, so very large
+ * images can be calculated a band at a time.
  *
  * @author Bruna Dujmović
  *
  */
-public class NewtonJob implements Callable<Void> {
+public class NewtonJob extends RecursiveAction {
 
     /**
-     * The convergence threshold for the Newton-Raphson iterations.
+     * The version number of this serializable class.
      */
-    private static final double CONVERGENCE_THRESHOLD = 0.001;
+    private static final long serialVersionUID = 1L;
+
     /**
-     * The root threshold for finding the index of the closest root for final point z_n.
+     * The number of rows colored by a single call of the kernel. The cancel flag is
+     * checked between the blocks.
      */
-    private static final double ROOT_THRESHOLD = 0.002;
+    private static final int BLOCK_ROWS = 16;
+
+    /**
+     * The size in calculated points above which a side of a tile is always split.
+     */
+    private static final int MAX_TILE = 128;
+    /**
+     * The size in calculated points below which a side of a tile is never split.
+     */
+    private static final int MIN_TILE = 32;
+    /**
+     * The number of queued tasks of the current thread above which medium tiles are no
+     * longer split, since the other threads have enough work to steal.
+     */
+    private static final int MAX_SURPLUS = 2;
 
     /**
      * The minimum real value of the complex plane.
@@ -59,18 +88,27 @@ public class NewtonJob implements Callable<Void> {
     private int height;
 
     /**
-     * The initial y-coordinate for the currently observed section of the complex plane.
+     * The initial x-coordinate of the tile.
+     */
+    private int xMin;
+    /**
+     * The x-coordinate after the last column of the tile.
+     */
+    private int xMax;
+
+    /**
+     * The initial y-coordinate of the tile.
      */
     private int yMin;
     /**
-     * The final y-coordinate for the currently observed section of the complex plane.
+     * The y-coordinate after the last row of the tile.
      */
     private int yMax;
 
     /**
-     * The maximum number of Newton-Raphson iterations.
+     * The distance between the calculated points, 1 for calculating all of them.
      */
-    private int maxIterations;
+    private int step;
 
     /**
      * An array to store the root indexes, each representing the color of a given point.
@@ -78,13 +116,20 @@ public class NewtonJob implements Callable<Void> {
     private short[] data;
 
     /**
-     * The {@link ComplexRootedPolynomial} form of the given polynomial.
+     * The y-coordinate of the row whose colors are stored at the start of the array.
+     */
+    private int firstRow;
+
+    /**
+     * The cached colors of the points of the complex plane, or {@code null} if there
+     * are none.
      */
-    private ComplexRootedPolynomial rootedPolynomial;
+    private NewtonTileCache.Coverage coverage;
+
     /**
-     * The {@link ComplexPolynomial} form of the given polynomial.
+     * The kernel calculating the color of each point.
      */
-    private ComplexPolynomial polynomial;
+    private NewtonKernel kernel;
 
     /**
      * A flag that signals that the task should be terminated if set to {@code true}.
@@ -100,18 +145,22 @@ public class NewtonJob implements Callable<Void> {
      * @param imMax the maximum imaginary value of the complex plane
      * @param width the width of the complex plane
      * @param height the height of the complex plane
-     * @param yMin the initial y-coordinate for the currently observed section of the complex plane
-     * @param yMax the final y-coordinate for the currently observed section of the complex plane
-     * @param maxIterations the maximum number of Newton-Raphson iterations
+     * @param xMin the initial x-coordinate of the tile, a multiple of the step
+     * @param xMax the x-coordinate after the last column of the tile
+     * @param yMin the initial y-coordinate of the tile, a multiple of the step
+     * @param yMax the y-coordinate after the last row of the tile
+     * @param step the distance between the calculated points, 1 for calculating all of them
      * @param data an array to store the root indexes, each representing the color of a given point
-     * @param polynomial the {@link ComplexPolynomial} form of the given polynomial
-     * @param rootedPolynomial the {@link ComplexRootedPolynomial} form of the given polynomial
+     * @param firstRow the y-coordinate of the row whose colors are stored at the start of the array
+     * @param coverage the cached colors of the points of the complex plane, already stored in the array,
+     *                 or {@code null} if there are none
+     * @param kernel the kernel calculating the color of each point
      * @param cancel a flag that signals that the task should be terminated if set to {@code true}
      */
     public NewtonJob(double reMin, double reMax, double imMin, double imMax,
-                     int width, int height, int yMin, int yMax, int maxIterations,
-                     short[] data, ComplexPolynomial polynomial,
-                     ComplexRootedPolynomial rootedPolynomial, AtomicBoolean cancel) {
+                     int width, int height, int xMin, int xMax, int yMin, int yMax,
+                     int step, short[] data, int firstRow, NewtonTileCache.Coverage coverage,
+                     NewtonKernel kernel, AtomicBoolean cancel) {
 
         this.reMin = reMin;
         this.reMax = reMax;
@@ -119,56 +168,182 @@ public class NewtonJob implements Callable<Void> {
         this.imMax = imMax;
         this.width = width;
         this.height = height;
+        this.xMin = xMin;
+        this.xMax = xMax;
         this.yMin = yMin;
         this.yMax = yMax;
-        this.maxIterations = maxIterations;
+        this.step = step;
         this.data = data;
-        this.rootedPolynomial = rootedPolynomial;
-        this.polynomial = polynomial;
+        this.firstRow = firstRow;
+        this.coverage = coverage;
+        this.kernel = kernel;
         this.cancel = cancel;
     }
 
+    /**
+     * Constructs a {@link NewtonJob} for a part of the tile of the given job.
+     *
+     * @param parent the job whose tile is split
+     * @param xMin the initial x-coordinate of the part
+     * @param xMax the x-coordinate after the last column of the part
+     * @param yMin the initial y-coordinate of the part
+     * @param yMax the y-coordinate after the last row of the part
+     */
+    private NewtonJob(NewtonJob parent, int xMin, int xMax, int yMin, int yMax) {
+        this(parent.reMin, parent.reMax, parent.imMin, parent.imMax,
+                parent.width, parent.height, xMin, xMax, yMin, yMax,
+                parent.step, parent.data, parent.firstRow, parent.coverage, parent.kernel, parent.cancel);
+    }
+
     @Override
-    public Void call() {
-        for (int y = yMin; y <= yMax & !cancel.get(); y++) {
-            for (int x = 0; x < width; x++) {
-                Complex zn = mapToComplexPlane(x, y);
-                ComplexPolynomial derived = polynomial.derive();
+    protected void compute() {
+        if (cancel.get() || countUnknown(xMin, xMax, yMin, yMax) == 0) {
+            return;
+        }
+
+        int columns = (xMax - xMin + step - 1) / step;
+        int rows = (yMax - yMin + step - 1) / step;
+        int longer = Math.max(columns, rows);
+
+        if (longer > MAX_TILE || (longer > MIN_TILE && getSurplusQueuedTaskCount() <= MAX_SURPLUS)) {
+            if (columns >= rows) {
+                int middle = xMin + columns / 2 * step;
+                invokeAll(new NewtonJob(this, xMin, middle, yMin, yMax),
+                        new NewtonJob(this, middle, xMax, yMin, yMax));
+            } else {
+                int middle = yMin + rows / 2 * step;
+                invokeAll(new NewtonJob(this, xMin, xMax, yMin, middle),
+                        new NewtonJob(this, xMin, xMax, middle, yMax));
+            }
+            return;
+        }
 
-                double module;
-                int iteration = 0;
+        color(columns, rows);
+    }
 
-                do {
-                    Complex numerator = polynomial.apply(zn);
-                    Complex denominator = derived.apply(zn);
+    /**
+     * Returns the number of points of the given rectangle whose colors are not known.
+     *
+     * @param xMin the initial x-coordinate of the rectangle
+     * @param xMax the x-coordinate after the last column of the rectangle
+     * @param yMin the initial y-coordinate of the rectangle
+     * @param yMax the y-coordinate after the last row of the rectangle
+     * @return the number of points whose colors are not known
+     */
+    private int countUnknown(int xMin, int xMax, int yMin, int yMax) {
+        if (coverage == null) {
+            return (xMax - xMin) * (yMax - yMin);
+        }
 
-                    Complex znOld = zn;
-                    zn = zn.sub(numerator.divide(denominator));
+        return coverage.countUnknown(xMin, xMax, yMin, yMax);
+    }
 
-                    module = znOld.sub(zn).module();
-                    iteration++;
+    /**
+     * Colors the tile, a block of rows at a time.
+     *
+     * @param columns the number of calculated points in a row of the tile
+     * @param rows the number of calculated rows of the tile
+     */
+    private void color(int columns, int rows) {
+        double[] re = new double[columns];
+        for (int i = 0; i < columns; i++) {
+            int x = xMin + i * step;
+            re[i] = x * (reMax - reMin) / (width - 1) + reMin;
+        }
+
+        short[] samples = (step == 1) ? null : new short[columns * BLOCK_ROWS];
+
+        for (int j = 0; j < rows & !cancel.get(); j += BLOCK_ROWS) {
+            int y = yMin + j * step;
+            int blockRows = Math.min(BLOCK_ROWS, rows - j);
+            int unknown = countUnknown(xMin, xMax, y, Math.min(y + blockRows * step, yMax));
+            if (unknown == 0) {
+                continue;
+            }
 
-                } while (module > CONVERGENCE_THRESHOLD && iteration < maxIterations);
+            double[] im = new double[blockRows];
+            for (int row = 0; row < im.length; row++) {
+                int py = y + row * step;
+                im[row] = (height - 1 - py) * (imMax - imMin) / (height - 1) + imMin;
+            }
 
-                int index = rootedPolynomial.indexOfClosestRootFor(zn, ROOT_THRESHOLD);
-                data[x + y * width] = (index == -1) ? 0 : (short) (index + 1);
+            if (samples == null && unknown == columns * blockRows) {
+                kernel.colorRows(re, im, data, (y - firstRow) * width + xMin, width);
+            } else if (samples == null) {
+                colorUnknown(re, im, y);
+            } else {
+                kernel.colorRows(re, im, samples, 0, columns);
+                fill(samples, columns, im.length, y);
             }
         }
+    }
+
+    /**
+     * Colors the points of a block of rows whose colors are not known yet. The unknown
+     * points of each row are gathered, so the kernel still colors them at once.
+     *
+     * @param re the real parts of the points of each row
+     * @param im the imaginary parts of the rows
+     * @param y the y-coordinate of the first row
+     */
+    private void colorUnknown(double[] re, double[] im, int y) {
+        double[] unknownRe = new double[re.length];
+        short[] colors = new short[re.length];
+
+        for (int row = 0; row < im.length; row++) {
+            int offset = (y + row - firstRow) * width + xMin;
+            int unknown = countUnknown(xMin, xMax, y + row, y + row + 1);
+
+            if (unknown == re.length) {
+                kernel.colorRows(re, new double[] {im[row]}, data, offset, width);
+            } else if (unknown > 0) {
+                int count = 0;
+                for (int i = 0; i < re.length; i++) {
+                    if (data[offset + i] < 0) {
+                        unknownRe[count++] = re[i];
+                    }
+                }
 
-        return null;
+                kernel.colorRows(Arrays.copyOf(unknownRe, count), new double[] {im[row]},
+                        colors, 0, count);
+
+                count = 0;
+                for (int i = 0; i < re.length; i++) {
+                    if (data[offset + i] < 0) {
+                        data[offset + i] = colors[count++];
+                    }
+                }
+            }
+        }
     }
 
     /**
-     * Maps a given x- and y-coordinate to the complex plane.
+     * Fills the squares around the calculated points of a block of rows with their
+     * colors, except for the points whose colors are already known.
      *
-     * @param x the x-coordinate to map
-     * @param y the y-coordinate to map
-     * @return a {@link Complex} object representing the mapped point on the plane
+     * @param samples the colors of the calculated points, row after row
+     * @param columns the number of calculated points in a row
+     * @param rows the number of calculated rows
+     * @param y the y-coordinate of the first calculated row
      */
-    private Complex mapToComplexPlane(int x, int y) {
-        double re = x * (reMax - reMin) / (width - 1) + reMin;
-        double im = (height - 1 - y) * (imMax - imMin) / (height - 1) + imMin;
+    private void fill(short[] samples, int columns, int rows, int y) {
+        for (int row = 0; row < rows; row++) {
+            int yEnd = Math.min(y + (row + 1) * step, yMax);
+
+            for (int py = y + row * step; py < yEnd; py++) {
+                int offset = (py - firstRow) * width;
 
-        return new Complex(re, im);
+                for (int i = 0; i < columns; i++) {
+                    short color = samples[row * columns + i];
+                    int xEnd = Math.min(xMin + (i + 1) * step, xMax);
+
+                    for (int px = xMin + i * step; px < xEnd; px++) {
+                        if (coverage == null || data[offset + px] < 0) {
+                            data[offset + px] = color;
+                        }
+                    }
+                }
+            }
+        }
     }
 }
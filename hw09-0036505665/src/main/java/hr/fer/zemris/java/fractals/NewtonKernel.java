@@ -0,0 +1,263 @@
+package hr.fer.zemris.java.fractals;
+
+import hr.fer.zemris.math.Complex;
+import hr.fer.zemris.math.ComplexRootedPolynomial;
+
+import java.util.Objects;
+
+/**
+ * This class calculates the colors of the points of a Newton fractal using only
+ * primitive arithmetic, so no objects are allocated per point.
+ *
+ * The factors of the polynomial, its derivative and its roots are converted once to
+ * arrays of real and imaginary parts. Both polynomials are evaluated by Horner's rule
+ * on local variables, and distances are compared as squares, so no square roots are
+ * calculated.
+ *
+ * Points are colored a block of rows at a time, so subclasses can color several points
+ * at once. The {@link #create(ComplexRootedPolynomial, int, String)} method chooses
+ * between this scalar kernel and the SIMD kernel which uses the Vector API.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class NewtonKernel {
+
+    /**
+     * The convergence threshold for the Newton-Raphson iterations.
+     */
+    public static final double CONVERGENCE_THRESHOLD = 0.001;
+    /**
+     * The root threshold for finding the index of the closest root for final point z_n.
+     */
+    public static final double ROOT_THRESHOLD = 0.002;
+
+    /**
+     * The name of the scalar backend.
+     */
+    public static final String SCALAR_BACKEND = "scalar";
+    /**
+     * The name of the SIMD backend, which requires JDK 16 or newer and the
+     * "jdk.incubator.vector" module.
+     */
+    public static final String VECTOR_BACKEND = "vector";
+
+    /**
+     * The name of the class of the SIMD kernel, which is compiled only on JDK 16 and
+     * newer, so it is loaded reflectively.
+     */
+    private static final String VECTOR_KERNEL_CLASS = "hr.fer.zemris.java.fractals.VectorNewtonKernel";
+
+    /**
+     * The square of the {@link #CONVERGENCE_THRESHOLD}.
+     */
+    protected static final double CONVERGENCE_THRESHOLD_SQUARED =
+            CONVERGENCE_THRESHOLD * CONVERGENCE_THRESHOLD;
+    /**
+     * The square of the {@link #ROOT_THRESHOLD}.
+     */
+    protected static final double ROOT_THRESHOLD_SQUARED = ROOT_THRESHOLD * ROOT_THRESHOLD;
+
+    /**
+     * The real parts of the polynomial factors, from z0 to zn.
+     */
+    protected double[] factorsRe;
+    /**
+     * The imaginary parts of the polynomial factors, from z0 to zn.
+     */
+    protected double[] factorsIm;
+
+    /**
+     * The real parts of the derivative factors, from z0 to zn-1.
+     */
+    protected double[] derivedRe;
+    /**
+     * The imaginary parts of the derivative factors, from z0 to zn-1.
+     */
+    protected double[] derivedIm;
+
+    /**
+     * The real parts of the polynomial roots.
+     */
+    protected double[] rootsRe;
+    /**
+     * The imaginary parts of the polynomial roots.
+     */
+    protected double[] rootsIm;
+
+    /**
+     * The maximum number of Newton-Raphson iterations.
+     */
+    protected int maxIterations;
+
+    /**
+     * Constructs a {@link NewtonKernel} for the given rooted polynomial.
+     *
+     * @param rootedPolynomial the rooted polynomial
+     * @param maxIterations the maximum number of Newton-Raphson iterations
+     * @throws NullPointerException if the given polynomial is {@code null}
+     */
+    public NewtonKernel(ComplexRootedPolynomial rootedPolynomial, int maxIterations) {
+        Objects.requireNonNull(rootedPolynomial);
+        this.maxIterations = maxIterations;
+
+        Complex[] factors = rootedPolynomial.toComplexPolynom().getFactors();
+        factorsRe = new double[factors.length];
+        factorsIm = new double[factors.length];
+        for (int i = 0; i < factors.length; i++) {
+            factorsRe[i] = factors[i].getReal();
+            factorsIm[i] = factors[i].getImaginary();
+        }
+
+        int derivedLength = Math.max(1, factors.length - 1);
+        derivedRe = new double[derivedLength];
+        derivedIm = new double[derivedLength];
+        for (int i = 1; i < factors.length; i++) {
+            derivedRe[i - 1] = i * factorsRe[i];
+            derivedIm[i - 1] = i * factorsIm[i];
+        }
+
+        Complex[] roots = rootedPolynomial.getRoots();
+        rootsRe = new double[roots.length];
+        rootsIm = new double[roots.length];
+        for (int i = 0; i < roots.length; i++) {
+            rootsRe[i] = roots[i].getReal();
+            rootsIm[i] = roots[i].getImaginary();
+        }
+    }
+
+    /**
+     * Creates a kernel of the given backend for the given rooted polynomial. If the
+     * SIMD backend is not available in the running JVM, a scalar kernel is returned
+     * instead.
+     *
+     * @param rootedPolynomial the rooted polynomial
+     * @param maxIterations the maximum number of Newton-Raphson iterations
+     * @param backend the name of the backend, {@link #SCALAR_BACKEND} or
+     *                {@link #VECTOR_BACKEND}
+     * @return the kernel
+     * @throws NullPointerException if the given polynomial is {@code null}
+     * @throws IllegalArgumentException if the backend is unknown
+     */
+    public static NewtonKernel create(ComplexRootedPolynomial rootedPolynomial,
+                                      int maxIterations, String backend) {
+        Objects.requireNonNull(rootedPolynomial);
+
+        if (VECTOR_BACKEND.equals(backend)) {
+            try {
+                return (NewtonKernel) Class.forName(VECTOR_KERNEL_CLASS)
+                        .getConstructor(ComplexRootedPolynomial.class, int.class)
+                        .newInstance(rootedPolynomial, maxIterations);
+
+            } catch (ReflectiveOperationException | LinkageError e) {
+                System.out.println("The Vector API is not available, using the scalar kernel!");
+            }
+        } else if (!SCALAR_BACKEND.equals(backend)) {
+            throw new IllegalArgumentException("Unknown backend: " + backend);
+        }
+
+        return new NewtonKernel(rootedPolynomial, maxIterations);
+    }
+
+    /**
+     * Returns the order of the polynomial.
+     *
+     * @return the order of the polynomial
+     */
+    public short order() {
+        return (short) (factorsRe.length - 1);
+    }
+
+    /**
+     * Colors the points of consecutive rows. All rows have the same real parts, and
+     * the points of a row share their imaginary part. The color of the point in row y
+     * and column x is stored to {@code data[offset + y * stride + x]}, so the rows can
+     * be a part of a wider image.
+     *
+     * @param re the real parts of the points of each row
+     * @param im the imaginary parts of the rows
+     * @param data the array to store the colors to, row after row
+     * @param offset the index in the array of the color of the first point
+     * @param stride the distance in the array between the colors of consecutive rows
+     */
+    public void colorRows(double[] re, double[] im, short[] data, int offset, int stride) {
+        for (int y = 0; y < im.length; y++) {
+            for (int x = 0; x < re.length; x++) {
+                data[offset + y * stride + x] = colorOf(re[x], im[y]);
+            }
+        }
+    }
+
+    /**
+     * Runs the Newton-Raphson iterations starting from the given point and returns
+     * the color of the point, which is the index of the closest root to the final
+     * point increased by one, or 0 if no root is within the {@link #ROOT_THRESHOLD}.
+     *
+     * @param re the real part of the point
+     * @param im the imaginary part of the point
+     * @return the color of the point
+     */
+    public short colorOf(double re, double im) {
+        double zRe = re;
+        double zIm = im;
+        double distance;
+        int iteration = 0;
+
+        do {
+            double fRe = factorsRe[factorsRe.length - 1];
+            double fIm = factorsIm[factorsIm.length - 1];
+            for (int i = factorsRe.length - 2; i >= 0; i--) {
+                double temp = fRe * zRe - fIm * zIm + factorsRe[i];
+                fIm = fRe * zIm + fIm * zRe + factorsIm[i];
+                fRe = temp;
+            }
+
+            double dRe = derivedRe[derivedRe.length - 1];
+            double dIm = derivedIm[derivedIm.length - 1];
+            for (int i = derivedRe.length - 2; i >= 0; i--) {
+                double temp = dRe * zRe - dIm * zIm + derivedRe[i];
+                dIm = dRe * zIm + dIm * zRe + derivedIm[i];
+                dRe = temp;
+            }
+
+            double denominator = dRe * dRe + dIm * dIm;
+            double stepRe = (fRe * dRe + fIm * dIm) / denominator;
+            double stepIm = (fIm * dRe - fRe * dIm) / denominator;
+
+            zRe -= stepRe;
+            zIm -= stepIm;
+
+            distance = stepRe * stepRe + stepIm * stepIm;
+            iteration++;
+
+        } while (distance > CONVERGENCE_THRESHOLD_SQUARED && iteration < maxIterations);
+
+        return closestRoot(zRe, zIm);
+    }
+
+    /**
+     * Returns the color of a point whose iterations have stopped, which is the index of
+     * the closest root increased by one, or 0 if no root is within the
+     * {@link #ROOT_THRESHOLD}.
+     *
+     * @param zRe the real part of the final point
+     * @param zIm the imaginary part of the final point
+     * @return the color of the point
+     */
+    protected short closestRoot(double zRe, double zIm) {
+        int index = -1;
+        double minDistance = ROOT_THRESHOLD_SQUARED;
+        for (int i = 0; i < rootsRe.length; i++) {
+            double deltaRe = zRe - rootsRe[i];
+            double deltaIm = zIm - rootsIm[i];
+            double rootDistance = deltaRe * deltaRe + deltaIm * deltaIm;
+
+            if (rootDistance < minDistance) {
+                minDistance = rootDistance;
+                index = i;
+            }
+        }
+
+        return (short) (index + 1);
+    }
+}
@@ -2,21 +2,31 @@ package hr.fer.zemris.java.fractals;
 
 import hr.fer.zemris.java.fractals.viewer.IFractalProducer;
 import hr.fer.zemris.java.fractals.viewer.IFractalResultObserver;
-import hr.fer.zemris.math.ComplexPolynomial;
 import hr.fer.zemris.math.ComplexRootedPolynomial;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class implements the {@link IFractalProducer} and can be used to generate the
  * data for fractal visualisation on a specified complex plane.
  *
+ * The points are colored by the {@link NewtonKernel} backend named by the
+ * "newton.backend" system property, which is "scalar" by default. The "vector" backend
+ * uses SIMD instructions and requires running on JDK 16 or newer with
+ * {@code --add-modules jdk.incubator.vector}, otherwise the scalar one is used.
+ *
+ * The image is calculated by {@link NewtonJob}s in a fork-join pool, which split it
+ * into tiles whose number adapts to how long the parts of the image take. The
+ * observer first receives a coarse preview of the image, and then the whole image.
+ * Starting a new calculation cancels the previous one if it is still running, and no
+ * results of a cancelled calculation are sent to the observer.
+ *
+ * The calculated colors are kept in a {@link NewtonTileCache}, so after panning or
+ * zooming by a power of two only the points which were not calculated before are
+ * calculated. If all points are cached, the whole image is sent right away.
+ *
  * @author Bruna Dujmović
  *
  */
@@ -28,32 +38,58 @@ public class NewtonProducer implements IFractalProducer {
     private static final int MAX_ITERATIONS = 16 * 16 * 16;
 
     /**
-     * The thread pool used for running {@link NewtonJob}s.
+     * The system property naming the {@link NewtonKernel} backend.
+     */
+    public static final String BACKEND_PROPERTY = "newton.backend";
+
+    /**
+     * The distance between the calculated points of the preview.
      */
-    private ExecutorService pool;
+    private static final int PREVIEW_STEP = 4;
 
     /**
-     * The {@link ComplexPolynomial} form of the given polynomial.
+     * The fork-join pool used for running {@link NewtonJob}s.
      */
-    private ComplexPolynomial polynomial;
+    private ForkJoinPool pool;
+
+    /**
+     * The cancel flag of the calculation which is currently running, if any.
+     */
+    private AtomicReference<AtomicBoolean> running = new AtomicReference<>();
+
     /**
-     * The {@link ComplexRootedPolynomial} form of the given polynomial.
+     * The kernel calculating the color of each point, shared by all jobs.
      */
-    private ComplexRootedPolynomial rootedPolynomial;
+    private NewtonKernel kernel;
 
     /**
-     * Constructs a {@link NewtonProducer} for the given rooted polynomial.
+     * The cache of the calculated colors.
+     */
+    private NewtonTileCache cache;
+
+    /**
+     * Constructs a {@link NewtonProducer} for the given rooted polynomial, which caches
+     * up to {@link NewtonTileCache#DEFAULT_MAX_TILES} tiles.
      *
      * @param rootedPolynomial the rooted polynomial
      */
     public NewtonProducer(ComplexRootedPolynomial rootedPolynomial) {
-        this.polynomial = rootedPolynomial.toComplexPolynom();
-        this.rootedPolynomial = rootedPolynomial;
+        this(rootedPolynomial, NewtonTileCache.DEFAULT_MAX_TILES);
+    }
 
-        this.pool = Executors.newFixedThreadPool(
-                Runtime.getRuntime().availableProcessors(),
-                new DaemonicThreadFactory()
-        );
+    /**
+     * Constructs a {@link NewtonProducer} for the given rooted polynomial, which caches
+     * up to the given number of tiles.
+     *
+     * @param rootedPolynomial the rooted polynomial
+     * @param maxCachedTiles the maximum number of cached tiles, 0 for no caching
+     */
+    public NewtonProducer(ComplexRootedPolynomial rootedPolynomial, int maxCachedTiles) {
+        this.cache = new NewtonTileCache(maxCachedTiles);
+        this.kernel = NewtonKernel.create(rootedPolynomial, MAX_ITERATIONS,
+                System.getProperty(BACKEND_PROPERTY, NewtonKernel.SCALAR_BACKEND));
+
+        this.pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
     }
 
     @Override
@@ -61,34 +97,42 @@ public class NewtonProducer implements IFractalProducer {
                         int width, int height, long requestNo,
                         IFractalResultObserver observer, AtomicBoolean cancel) {
         System.out.println("Zapocinjem izracun...");
-        short[] data = new short[width * height];
-        int ySections = 8 * Runtime.getRuntime().availableProcessors();
-        int yPerSection = height / ySections;
 
-        List<Future<Void>> results = new ArrayList<>();
+        AtomicBoolean previous = running.getAndSet(cancel);
+        if (previous != null) {
+            previous.set(true);
+        }
+
+        try {
+            NewtonTileCache.Coverage coverage = cache.lookup(reMin, reMax, imMin, imMax, width, height);
+            short[] data = coverage.getColors();
 
-        for (int i = 0; i < ySections; i++) {
-            int yMin = i * yPerSection;
+            if (!coverage.isComplete()) {
+                short[] preview = coverage.getColors();
+                pool.invoke(new NewtonJob(
+                        reMin, reMax, imMin, imMax, width, height, 0, width, 0, height,
+                        PREVIEW_STEP, preview, 0, coverage, kernel, cancel
+                ));
+                if (cancel.get()) {
+                    return;
+                }
+                observer.acceptResult(preview, (short) (kernel.order() + 1), requestNo);
 
-            int yMax = (i + 1) * yPerSection - 1;
-            if (i == ySections - 1) {
-                yMax = height - 1;
+                pool.invoke(new NewtonJob(
+                        reMin, reMax, imMin, imMax, width, height, 0, width, 0, height,
+                        1, data, 0, coverage, kernel, cancel
+                ));
+                if (cancel.get()) {
+                    return;
+                }
+                cache.store(coverage, data);
             }
 
-            NewtonJob job = new NewtonJob(
-                    reMin, reMax, imMin, imMax, width, height, yMin, yMax,
-                    MAX_ITERATIONS, data, polynomial, rootedPolynomial, cancel
-            );
-            results.add(pool.submit(job));
-        }
+            System.out.println("Racunanje gotovo. Idem obavijestiti promatraca tj. GUI!");
+            observer.acceptResult(data, (short) (kernel.order() + 1), requestNo);
 
-        for (Future<Void> posao : results) {
-            try {
-                posao.get();
-            } catch (InterruptedException | ExecutionException e) {}
+        } finally {
+            running.compareAndSet(cancel, null);
         }
-
-        System.out.println("Racunanje gotovo. Idem obavijestiti promatraca tj. GUI!");
-        observer.acceptResult(data, (short) (polynomial.order() + 1), requestNo);
     }
 }
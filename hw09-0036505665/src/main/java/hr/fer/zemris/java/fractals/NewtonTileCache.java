@@ -0,0 +1,579 @@
+package hr.fer.zemris.java.fractals;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * This class caches the colors of the points of Newton fractals calculated for
+ * previous viewports, so panning or returning to a viewport only requires calculating
+ * the points which were not visible before.
+ *
+ * The points are stored on lattices, one for each zoom level. A lattice has the
+ * distances between the points of a viewport and the position of its first viewport,
+ * and a viewport which is shifted by a whole number of points uses the same lattice.
+ * Each lattice is split into square tiles whose colors are stored in arrays, with -1
+ * for the points which were not calculated yet. The number of tiles is bounded, and
+ * the least recently used tiles are evicted first.
+ *
+ * A viewport zoomed in or out by a power of two from a cached one shares a part of its
+ * points with the lattice of the cached one, so those points are taken from it as well.
+ *
+ * The colors of the cached points were calculated from coordinates which may differ
+ * in the last bits from the ones of the new viewport, so a few points on the borders
+ * of the basins of the roots can get different colors than if they were calculated
+ * again.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class NewtonTileCache {
+
+    /**
+     * The width and height of a tile in points.
+     */
+    public static final int TILE_SIZE = 32;
+
+    /**
+     * The default maximum number of cached tiles, which take 2 kB each.
+     */
+    public static final int DEFAULT_MAX_TILES = 8192;
+
+    /**
+     * The maximum number of cached lattices. The tiles of the least recently used
+     * lattice are removed along with it.
+     */
+    private static final int MAX_LATTICES = 16;
+
+    /**
+     * The maximum number of zoom steps by a factor of two between a viewport and the
+     * lattice whose points it shares.
+     */
+    private static final int MAX_ZOOM_STEPS = 3;
+
+    /**
+     * The maximum distance in points of a viewport by which its points can be off the
+     * points of a lattice, over its whole width or height.
+     */
+    private static final double TOLERANCE = 0.01;
+
+    /**
+     * The maximum number of cached tiles.
+     */
+    private int maxTiles;
+
+    /**
+     * The number of created lattices, used as the identifier of the next one.
+     */
+    private int latticeCount;
+
+    /**
+     * The cached lattices, the most recently used first.
+     */
+    private List<Lattice> lattices = new LinkedList<>();
+
+    /**
+     * The cached tiles in the order of their use.
+     */
+    private Map<TileKey, short[]> tiles;
+
+    /**
+     * Constructs a {@link NewtonTileCache} with the {@link #DEFAULT_MAX_TILES}.
+     */
+    public NewtonTileCache() {
+        this(DEFAULT_MAX_TILES);
+    }
+
+    /**
+     * Constructs a {@link NewtonTileCache} with the given maximum number of tiles. If it
+     * is zero, nothing is cached.
+     *
+     * @param maxTiles the maximum number of cached tiles
+     * @throws IllegalArgumentException if the maximum number of tiles is negative
+     */
+    public NewtonTileCache(int maxTiles) {
+        if (maxTiles < 0) {
+            throw new IllegalArgumentException("The maximum number of tiles can't be negative!");
+        }
+
+        this.maxTiles = maxTiles;
+        this.tiles = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<TileKey, short[]> eldest) {
+                return size() > NewtonTileCache.this.maxTiles;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached colors of the points of the given viewport.
+     *
+     * @param reMin the minimum real value of the complex plane
+     * @param reMax the maximum real value of the complex plane
+     * @param imMin the minimum imaginary value of the complex plane
+     * @param imMax the maximum imaginary value of the complex plane
+     * @param width the width of the complex plane
+     * @param height the height of the complex plane
+     * @return the cached colors
+     */
+    public synchronized Coverage lookup(double reMin, double reMax, double imMin, double imMax,
+                                        int width, int height) {
+        double dx = (reMax - reMin) / (width - 1);
+        double dy = (imMax - imMin) / (height - 1);
+
+        Lattice own = null;
+        for (Iterator<Lattice> it = lattices.iterator(); it.hasNext(); ) {
+            Lattice lattice = it.next();
+            Mapping x = Mapping.of(reMin - lattice.originRe, dx, lattice.dx, width);
+            Mapping y = Mapping.of(lattice.originIm - imMax, dy, lattice.dy, height);
+
+            if (x != null && y != null && x.isIdentity() && y.isIdentity()) {
+                own = lattice;
+                it.remove();
+                break;
+            }
+        }
+        if (own == null) {
+            own = new Lattice(latticeCount++, dx, dy, reMin, imMax);
+            if (lattices.size() == MAX_LATTICES) {
+                int id = lattices.remove(MAX_LATTICES - 1).id;
+                tiles.keySet().removeIf(key -> key.lattice == id);
+            }
+        }
+        lattices.add(0, own);
+
+        short[] data = new short[width * height];
+        Arrays.fill(data, (short) -1);
+
+        int known = 0;
+        for (Lattice lattice : lattices) {
+            Mapping mx = Mapping.of(reMin - lattice.originRe, dx, lattice.dx, width);
+            Mapping my = Mapping.of(lattice.originIm - imMax, dy, lattice.dy, height);
+            if (mx == null || my == null) {
+                continue;
+            }
+
+            int firstX = mx.first();
+            for (int y = my.first(); y < height; y += my.denominator) {
+                long j = my.index(y);
+                long tileRow = Math.floorDiv(j, TILE_SIZE);
+                int rowOffset = Math.floorMod(j, TILE_SIZE) * TILE_SIZE;
+
+                // the coinciding columns are copied a tile at a time
+                long i = mx.index(firstX);
+                for (int x = firstX; x < width; ) {
+                    long tileColumn = Math.floorDiv(i, TILE_SIZE);
+                    int column = Math.floorMod(i, TILE_SIZE);
+                    int count = Math.min(
+                            (TILE_SIZE - column + mx.numerator - 1) / mx.numerator,
+                            (width - x + mx.denominator - 1) / mx.denominator
+                    );
+
+                    short[] tile = tiles.get(new TileKey(lattice.id, tileColumn, tileRow));
+                    if (tile != null) {
+                        for (int k = 0; k < count; k++) {
+                            int index = y * width + x + k * mx.denominator;
+                            short color = tile[rowOffset + column + k * mx.numerator];
+
+                            if (data[index] < 0 && color >= 0) {
+                                data[index] = color;
+                                known++;
+                            }
+                        }
+                    }
+
+                    x += count * mx.denominator;
+                    i += count * mx.numerator;
+                }
+            }
+        }
+
+        Mapping x = Mapping.of(reMin - own.originRe, dx, own.dx, width);
+        Mapping y = Mapping.of(own.originIm - imMax, dy, own.dy, height);
+        return new Coverage(own, x.index(0), y.index(0), width, height, data, known);
+    }
+
+    /**
+     * Stores the colors of all points of the viewport whose cached colors were returned
+     * by {@link #lookup(double, double, double, double, int, int)}.
+     *
+     * @param coverage the cached colors of the viewport
+     * @param data the colors of all points of the viewport
+     * @throws NullPointerException if any of the arguments is {@code null}
+     */
+    public synchronized void store(Coverage coverage, short[] data) {
+        Objects.requireNonNull(coverage);
+        Objects.requireNonNull(data);
+        if (maxTiles == 0 || !lattices.contains(coverage.lattice)) {
+            return;
+        }
+
+        int width = coverage.width;
+        int height = coverage.height;
+        long firstColumn = Math.floorDiv(coverage.i0, TILE_SIZE);
+        long lastColumn = Math.floorDiv(coverage.i0 + width - 1, TILE_SIZE);
+        long firstRow = Math.floorDiv(coverage.j0, TILE_SIZE);
+        long lastRow = Math.floorDiv(coverage.j0 + height - 1, TILE_SIZE);
+
+        for (long tileRow = firstRow; tileRow <= lastRow; tileRow++) {
+            for (long tileColumn = firstColumn; tileColumn <= lastColumn; tileColumn++) {
+                TileKey key = new TileKey(coverage.lattice.id, tileColumn, tileRow);
+
+                // the cached tiles are never modified, since lookups read them
+                short[] tile = tiles.get(key);
+                if (tile == null) {
+                    tile = new short[TILE_SIZE * TILE_SIZE];
+                    Arrays.fill(tile, (short) -1);
+                } else {
+                    tile = tile.clone();
+                }
+
+                int xMin = (int) Math.max(0, tileColumn * TILE_SIZE - coverage.i0);
+                int xMax = (int) Math.min(width, (tileColumn + 1) * TILE_SIZE - coverage.i0);
+                int yMin = (int) Math.max(0, tileRow * TILE_SIZE - coverage.j0);
+                int yMax = (int) Math.min(height, (tileRow + 1) * TILE_SIZE - coverage.j0);
+
+                for (int y = yMin; y < yMax; y++) {
+                    int tileOffset = (int) (coverage.j0 + y - tileRow * TILE_SIZE) * TILE_SIZE
+                            + (int) (coverage.i0 + xMin - tileColumn * TILE_SIZE);
+                    System.arraycopy(data, y * width + xMin, tile, tileOffset, xMax - xMin);
+                }
+
+                tiles.put(key, tile);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of cached tiles.
+     *
+     * @return the number of cached tiles
+     */
+    public synchronized int size() {
+        return tiles.size();
+    }
+
+    /**
+     * The cached colors of the points of a viewport, with -1 for the points which are
+     * not cached. The number of points which are not cached can be counted for any
+     * rectangle of the viewport in constant time.
+     */
+    public static class Coverage {
+
+        /**
+         * The lattice of the viewport.
+         */
+        private Lattice lattice;
+
+        /**
+         * The index on the lattice of the first column of the viewport.
+         */
+        private long i0;
+        /**
+         * The index on the lattice of the first row of the viewport.
+         */
+        private long j0;
+
+        /**
+         * The width of the viewport.
+         */
+        private int width;
+        /**
+         * The height of the viewport.
+         */
+        private int height;
+
+        /**
+         * The cached colors, with -1 for the points which are not cached.
+         */
+        private short[] data;
+
+        /**
+         * The number of points which are not cached above and to the left of each
+         * point, with an additional row and column, or {@code null} if no point is
+         * cached.
+         */
+        private int[] unknownCounts;
+
+        /**
+         * Constructs a {@link Coverage} of the given cached colors.
+         *
+         * @param lattice the lattice of the viewport
+         * @param i0 the index on the lattice of the first column of the viewport
+         * @param j0 the index on the lattice of the first row of the viewport
+         * @param width the width of the viewport
+         * @param height the height of the viewport
+         * @param data the cached colors, with -1 for the points which are not cached
+         * @param known the number of cached points
+         */
+        private Coverage(Lattice lattice, long i0, long j0, int width, int height,
+                         short[] data, int known) {
+            this.lattice = lattice;
+            this.i0 = i0;
+            this.j0 = j0;
+            this.width = width;
+            this.height = height;
+            this.data = data;
+
+            if (known > 0) {
+                unknownCounts = new int[(width + 1) * (height + 1)];
+                for (int y = 0; y < height; y++) {
+                    int rowCount = 0;
+                    for (int x = 0; x < width; x++) {
+                        if (data[y * width + x] < 0) {
+                            rowCount++;
+                        }
+                        unknownCounts[(y + 1) * (width + 1) + x + 1] =
+                                unknownCounts[y * (width + 1) + x + 1] + rowCount;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns a copy of the cached colors, with -1 for the points which are not
+         * cached.
+         *
+         * @return the cached colors
+         */
+        public short[] getColors() {
+            return data.clone();
+        }
+
+        /**
+         * Returns the number of points of the given rectangle which are not cached.
+         *
+         * @param xMin the initial x-coordinate of the rectangle
+         * @param xMax the x-coordinate after the last column of the rectangle
+         * @param yMin the initial y-coordinate of the rectangle
+         * @param yMax the y-coordinate after the last row of the rectangle
+         * @return the number of points which are not cached
+         */
+        public int countUnknown(int xMin, int xMax, int yMin, int yMax) {
+            if (unknownCounts == null) {
+                return (xMax - xMin) * (yMax - yMin);
+            }
+
+            int stride = width + 1;
+            return unknownCounts[yMax * stride + xMax] - unknownCounts[yMin * stride + xMax]
+                    - unknownCounts[yMax * stride + xMin] + unknownCounts[yMin * stride + xMin];
+        }
+
+        /**
+         * Checks whether all points of the viewport are cached.
+         *
+         * @return {@code true} if all points are cached, {@code false} otherwise
+         */
+        public boolean isComplete() {
+            return countUnknown(0, width, 0, height) == 0;
+        }
+    }
+
+    /**
+     * A lattice of points with the given distances, whose point (i, j) is
+     * (originRe + i * dx) + (originIm - j * dy)i.
+     */
+    private static class Lattice {
+
+        /**
+         * The identifier of the lattice.
+         */
+        private int id;
+
+        /**
+         * The distance between the columns.
+         */
+        private double dx;
+        /**
+         * The distance between the rows.
+         */
+        private double dy;
+
+        /**
+         * The real part of the point (0, 0).
+         */
+        private double originRe;
+        /**
+         * The imaginary part of the point (0, 0).
+         */
+        private double originIm;
+
+        /**
+         * Constructs a {@link Lattice} with the given parameters.
+         *
+         * @param id the identifier of the lattice
+         * @param dx the distance between the columns
+         * @param dy the distance between the rows
+         * @param originRe the real part of the point (0, 0)
+         * @param originIm the imaginary part of the point (0, 0)
+         */
+        private Lattice(int id, double dx, double dy, double originRe, double originIm) {
+            this.id = id;
+            this.dx = dx;
+            this.dy = dy;
+            this.originRe = originRe;
+            this.originIm = originIm;
+        }
+    }
+
+    /**
+     * A mapping of the columns or rows of a viewport to the indexes on a lattice whose
+     * distance is a power of two times the one of the viewport. The coordinate c of the
+     * viewport lies on the lattice if offset + c * numerator is divisible by the
+     * denominator, and the index is then their quotient.
+     */
+    private static class Mapping {
+
+        /**
+         * The position of the first coordinate, in fractions of the lattice distance.
+         */
+        private long offset;
+        /**
+         * The lattice distances per viewport distance, if not less than 1.
+         */
+        private int numerator;
+        /**
+         * The viewport distances per lattice distance, if greater than 1.
+         */
+        private int denominator;
+
+        /**
+         * Constructs a {@link Mapping} with the given parameters.
+         *
+         * @param offset the position of the first coordinate
+         * @param numerator the lattice distances per viewport distance
+         * @param denominator the viewport distances per lattice distance
+         */
+        private Mapping(long offset, int numerator, int denominator) {
+            this.offset = offset;
+            this.numerator = numerator;
+            this.denominator = denominator;
+        }
+
+        /**
+         * Returns the mapping of a viewport to a lattice, or {@code null} if its points
+         * don't lie on the lattice.
+         *
+         * @param distance the distance of the first coordinate from the lattice origin
+         * @param step the distance between the coordinates of the viewport
+         * @param latticeStep the distance between the coordinates of the lattice
+         * @param size the number of coordinates of the viewport
+         * @return the mapping, or {@code null} if there is none
+         */
+        private static Mapping of(double distance, double step, double latticeStep, int size) {
+            double ratio = step / latticeStep;
+            int exponent = (int) Math.round(Math.log(ratio) / Math.log(2));
+            if (Math.abs(exponent) > MAX_ZOOM_STEPS
+                    || Math.abs(ratio / Math.scalb(1.0, exponent) - 1) * size > TOLERANCE) {
+                return null;
+            }
+
+            int numerator = exponent >= 0 ? 1 << exponent : 1;
+            int denominator = exponent < 0 ? 1 << -exponent : 1;
+
+            double position = distance / latticeStep * denominator;
+            long offset = Math.round(position);
+            if (Math.abs(position - offset) / numerator > TOLERANCE) {
+                return null;
+            }
+
+            return new Mapping(offset, numerator, denominator);
+        }
+
+        /**
+         * Returns the first coordinate of the viewport which lies on the lattice.
+         *
+         * @return the first coordinate which lies on the lattice
+         */
+        private int first() {
+            int coordinate = 0;
+            while (!coincides(coordinate)) {
+                coordinate++;
+            }
+
+            return coordinate;
+        }
+
+        /**
+         * Checks whether the mapping is one to one.
+         *
+         * @return {@code true} if the distances are the same, {@code false} otherwise
+         */
+        private boolean isIdentity() {
+            return numerator == 1 && denominator == 1;
+        }
+
+        /**
+         * Checks whether the given coordinate of the viewport lies on the lattice.
+         *
+         * @param coordinate the coordinate
+         * @return {@code true} if it lies on the lattice, {@code false} otherwise
+         */
+        private boolean coincides(int coordinate) {
+            return Math.floorMod(offset + coordinate * numerator, denominator) == 0;
+        }
+
+        /**
+         * Returns the index on the lattice of the given coordinate, which lies on it.
+         *
+         * @param coordinate the coordinate
+         * @return the index on the lattice
+         */
+        private long index(int coordinate) {
+            return Math.floorDiv(offset + coordinate * numerator, denominator);
+        }
+    }
+
+    /**
+     * The key of a cached tile.
+     */
+    private static class TileKey {
+
+        /**
+         * The identifier of the lattice of the tile.
+         */
+        private int lattice;
+        /**
+         * The column of the tile.
+         */
+        private long column;
+        /**
+         * The row of the tile.
+         */
+        private long row;
+
+        /**
+         * Constructs a {@link TileKey} with the given parameters.
+         *
+         * @param lattice the identifier of the lattice of the tile
+         * @param column the column of the tile
+         * @param row the row of the tile
+         */
+        private TileKey(int lattice, long column, long row) {
+            this.lattice = lattice;
+            this.column = column;
+            this.row = row;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            TileKey that = (TileKey) o;
+            return lattice == that.lattice &&
+                    column == that.column &&
+                    row == that.row;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(lattice, column, row);
+        }
+    }
+}
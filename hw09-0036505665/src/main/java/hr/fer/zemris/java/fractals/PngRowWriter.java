@@ -0,0 +1,228 @@
+package hr.fer.zemris.java.fractals;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A {@link RowWriter} which writes the image as an indexed-color PNG, whose palette
+ * maps each root index to a color.
+ *
+ * The rows are compressed as they arrive and written in IDAT chunks of a bounded size,
+ * so only a single row and a single chunk are kept in memory regardless of the size of
+ * the image.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class PngRowWriter implements RowWriter {
+
+    /**
+     * The signature at the start of each PNG file.
+     */
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    /**
+     * The maximum size of the data of an IDAT chunk.
+     */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    /**
+     * The indexed-color type of the image.
+     */
+    private static final int COLOR_TYPE_INDEXED = 3;
+
+    /**
+     * The stream the image is written to.
+     */
+    private DataOutputStream out;
+
+    /**
+     * The compressor of the image data.
+     */
+    private Deflater deflater;
+
+    /**
+     * The stream compressing the image data into IDAT chunks.
+     */
+    private DeflaterOutputStream idat;
+
+    /**
+     * The bytes of the current row, starting with the filter type.
+     */
+    private byte[] row;
+
+    /**
+     * The height of the image.
+     */
+    private int height;
+
+    /**
+     * The number of written rows.
+     */
+    private int rows;
+
+    /**
+     * Constructs a {@link PngRowWriter} and writes the header and the palette of the
+     * image.
+     *
+     * @param out the stream to write the image to, which is closed with the writer
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param palette the RGB colors of the root indexes, at most 256 of them
+     * @throws NullPointerException if the given stream or palette is {@code null}
+     * @throws IllegalArgumentException if the palette is empty or too large
+     * @throws IOException if the header can't be written
+     */
+    public PngRowWriter(OutputStream out, int width, int height, int[] palette) throws IOException {
+        Objects.requireNonNull(out);
+        if (palette.length == 0 || palette.length > 256) {
+            throw new IllegalArgumentException("The palette must have 1 to 256 colors!");
+        }
+
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.height = height;
+        this.row = new byte[width + 1];
+        this.out.write(SIGNATURE);
+
+        byte[] header = new byte[13];
+        writeInt(header, 0, width);
+        writeInt(header, 4, height);
+        header[8] = 8;
+        header[9] = COLOR_TYPE_INDEXED;
+        writeChunk("IHDR", header, header.length);
+
+        byte[] colors = new byte[palette.length * 3];
+        for (int i = 0; i < palette.length; i++) {
+            colors[3 * i] = (byte) (palette[i] >> 16);
+            colors[3 * i + 1] = (byte) (palette[i] >> 8);
+            colors[3 * i + 2] = (byte) palette[i];
+        }
+        writeChunk("PLTE", colors, colors.length);
+
+        deflater = new Deflater();
+        idat = new DeflaterOutputStream(new ChunkOutputStream(), deflater, CHUNK_SIZE);
+    }
+
+    @Override
+    public void writeRow(short[] colors, int offset) throws IOException {
+        if (rows == height) {
+            throw new IOException("All rows of the image are already written!");
+        }
+
+        // the filter type of each row is none, as recommended for indexed colors
+        row[0] = 0;
+        for (int x = 1; x < row.length; x++) {
+            row[x] = (byte) colors[offset + x - 1];
+        }
+
+        idat.write(row);
+        rows++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            idat.close();
+            writeChunk("IEND", new byte[0], 0);
+            out.close();
+
+        } finally {
+            deflater.end();
+        }
+
+        if (rows != height) {
+            throw new IOException("Only " + rows + " of " + height + " rows were written!");
+        }
+    }
+
+    /**
+     * Writes a chunk of the given type.
+     *
+     * @param type the type of the chunk
+     * @param data the array holding the data of the chunk
+     * @param length the length of the data
+     * @throws IOException if the chunk can't be written
+     */
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Writes the given value to the array in big-endian order.
+     *
+     * @param array the array
+     * @param offset the index of the first byte
+     * @param value the value
+     */
+    private static void writeInt(byte[] array, int offset, int value) {
+        array[offset] = (byte) (value >>> 24);
+        array[offset + 1] = (byte) (value >>> 16);
+        array[offset + 2] = (byte) (value >>> 8);
+        array[offset + 3] = (byte) value;
+    }
+
+    /**
+     * A stream which collects the compressed image data and writes it in IDAT chunks.
+     */
+    private class ChunkOutputStream extends OutputStream {
+
+        /**
+         * The data of the current chunk.
+         */
+        private byte[] chunk = new byte[CHUNK_SIZE];
+
+        /**
+         * The length of the data of the current chunk.
+         */
+        private int length;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int count = Math.min(len, CHUNK_SIZE - length);
+                System.arraycopy(b, off, chunk, length, count);
+                length += count;
+                off += count;
+                len -= count;
+
+                if (length == CHUNK_SIZE) {
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (length > 0) {
+                writeChunk("IDAT", chunk, length);
+                length = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
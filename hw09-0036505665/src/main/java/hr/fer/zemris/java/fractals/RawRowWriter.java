@@ -0,0 +1,53 @@
+package hr.fer.zemris.java.fractals;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+
+/**
+ * A {@link RowWriter} which writes the root indexes of the points as unsigned bytes,
+ * row after row and without any header, so the width and height of the image must be
+ * known to the reader.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class RawRowWriter implements RowWriter {
+
+    /**
+     * The stream the image is written to.
+     */
+    private OutputStream out;
+
+    /**
+     * The bytes of the current row.
+     */
+    private byte[] row;
+
+    /**
+     * Constructs a {@link RawRowWriter} of an image of the given width.
+     *
+     * @param out the stream to write the image to, which is closed with the writer
+     * @param width the width of the image
+     * @throws NullPointerException if the given stream is {@code null}
+     */
+    public RawRowWriter(OutputStream out, int width) {
+        this.out = new BufferedOutputStream(Objects.requireNonNull(out));
+        this.row = new byte[width];
+    }
+
+    @Override
+    public void writeRow(short[] colors, int offset) throws IOException {
+        for (int x = 0; x < row.length; x++) {
+            row[x] = (byte) colors[offset + x];
+        }
+
+        out.write(row);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,24 @@
+package hr.fer.zemris.java.fractals;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * This interface represents a writer of an image of root indexes, which receives the
+ * rows of the image from the top one to the bottom one, so the whole image never has
+ * to be kept in memory.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public interface RowWriter extends Closeable {
+
+    /**
+     * Writes the next row of the image.
+     *
+     * @param colors the array holding the root indexes of the row
+     * @param offset the index in the array of the first point of the row
+     * @throws IOException if the row can't be written
+     */
+    void writeRow(short[] colors, int offset) throws IOException;
+}
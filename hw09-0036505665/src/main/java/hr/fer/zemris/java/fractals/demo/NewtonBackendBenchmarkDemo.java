@@ -0,0 +1,127 @@
+package hr.fer.zemris.java.fractals.demo;
+
+import hr.fer.zemris.java.fractals.NewtonKernel;
+import hr.fer.zemris.math.Complex;
+import hr.fer.zemris.math.ComplexRootedPolynomial;
+
+/**
+ * Measures the speed of the scalar and the SIMD {@link NewtonKernel} backends. The SIMD
+ * backend is available only if the demo is run on JDK 16 or newer with
+ * {@code --add-modules jdk.incubator.vector}, otherwise both measurements are of the
+ * scalar backend.
+ *
+ * For each backend, frames of the fractals of polynomials of increasing order are
+ * calculated on a single thread, in blocks of rows like in the fractal jobs. The number
+ * of points whose colors differ between the backends is printed as well, which should
+ * be zero.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class NewtonBackendBenchmarkDemo {
+
+    /**
+     * The width and height of a frame.
+     */
+    private static final int SIZE = 512;
+
+    /**
+     * The number of rows colored by a single call of a kernel, as in the fractal jobs.
+     */
+    private static final int BLOCK_ROWS = 16;
+
+    /**
+     * The maximum number of Newton-Raphson iterations, as in the fractal viewer.
+     */
+    private static final int MAX_ITERATIONS = 16 * 16 * 16;
+
+    /**
+     * The number of measured rounds for each polynomial.
+     */
+    private static final int ROUNDS = 3;
+
+    /**
+     * The main method. Calculates frames with both backends and prints the time of each
+     * round.
+     *
+     * @param args the command-line arguments, not used
+     */
+    public static void main(String[] args) {
+        ComplexRootedPolynomial[] polynomials = {
+                new ComplexRootedPolynomial(Complex.ONE, Complex.ONE, Complex.ONE_NEG),
+                new ComplexRootedPolynomial(
+                        Complex.ONE, Complex.ONE, Complex.ONE_NEG, Complex.IM, Complex.IM_NEG
+                ),
+                new ComplexRootedPolynomial(
+                        Complex.ONE, Complex.ONE, Complex.ONE_NEG, Complex.IM, Complex.IM_NEG,
+                        new Complex(0.5, 0.5), new Complex(-0.5, 0.5),
+                        new Complex(-0.5, -0.5), new Complex(0.5, -0.5)
+                )
+        };
+
+        double[] re = new double[SIZE];
+        for (int x = 0; x < SIZE; x++) {
+            re[x] = map(x);
+        }
+
+        for (ComplexRootedPolynomial polynomial : polynomials) {
+            NewtonKernel scalar = NewtonKernel.create(polynomial, MAX_ITERATIONS, NewtonKernel.SCALAR_BACKEND);
+            NewtonKernel vector = NewtonKernel.create(polynomial, MAX_ITERATIONS, NewtonKernel.VECTOR_BACKEND);
+            System.out.println("order " + scalar.order() + ", vector kernel: " + vector.getClass().getSimpleName());
+
+            short[] scalarData = new short[SIZE * SIZE];
+            short[] vectorData = new short[SIZE * SIZE];
+
+            for (int round = 0; round < ROUNDS; round++) {
+                long scalarTime = render(scalar, re, scalarData);
+                long vectorTime = render(vector, re, vectorData);
+
+                int different = 0;
+                for (int i = 0; i < scalarData.length; i++) {
+                    if (scalarData[i] != vectorData[i]) {
+                        different++;
+                    }
+                }
+
+                System.out.printf("round %d  scalar: %8.1f ms/frame  vector: %8.1f ms/frame"
+                                + "  speedup: %5.2fx  different points: %d%n",
+                        round + 1, scalarTime / 1e6, vectorTime / 1e6,
+                        (double) scalarTime / vectorTime, different
+                );
+            }
+        }
+    }
+
+    /**
+     * Calculates a frame with the given kernel.
+     *
+     * @param kernel the kernel
+     * @param re the real parts of the points of each row
+     * @param data the array to store the colors to
+     * @return the time it took in nanoseconds
+     */
+    private static long render(NewtonKernel kernel, double[] re, short[] data) {
+        long start = System.nanoTime();
+
+        for (int y = 0; y < SIZE; y += BLOCK_ROWS) {
+            double[] im = new double[BLOCK_ROWS];
+            for (int row = 0; row < BLOCK_ROWS; row++) {
+                im[row] = map(SIZE - 1 - (y + row));
+            }
+
+            kernel.colorRows(re, im, data, y * SIZE, SIZE);
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Maps a coordinate of the frame to the interval [-2, 2].
+     *
+     * @param coordinate the coordinate
+     * @return the mapped value
+     */
+    private static double map(int coordinate) {
+        return coordinate * 4.0 / (SIZE - 1) - 2.0;
+    }
+}
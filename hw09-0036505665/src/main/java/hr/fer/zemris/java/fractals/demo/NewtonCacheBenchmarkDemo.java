@@ -0,0 +1,154 @@
+package hr.fer.zemris.java.fractals.demo;
+
+import hr.fer.zemris.java.fractals.NewtonProducer;
+import hr.fer.zemris.math.Complex;
+import hr.fer.zemris.math.ComplexRootedPolynomial;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures how much the cache of {@link NewtonProducer} speeds up an interactive
+ * session of panning and zooming.
+ *
+ * The same sequence of viewports is calculated by a producer without a cache and by one
+ * with a cache. For each viewport, the times until the whole image of both producers
+ * are printed, as well as the number of points whose colors differ between them, which
+ * can be nonzero only on the borders of the basins of the roots.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class NewtonCacheBenchmarkDemo {
+
+    /**
+     * The width of a frame.
+     */
+    private static final int WIDTH = 1024;
+    /**
+     * The height of a frame.
+     */
+    private static final int HEIGHT = 768;
+
+    /**
+     * The number of rounds of calculations before the measured ones.
+     */
+    private static final int WARMUP_ROUNDS = 3;
+
+    /**
+     * The main method. Calculates the sequence of viewports with both producers and
+     * prints the times.
+     *
+     * @param args the command-line arguments, not used
+     */
+    public static void main(String[] args) {
+        ComplexRootedPolynomial polynomial = new ComplexRootedPolynomial(
+                Complex.ONE, Complex.ONE, Complex.ONE_NEG, Complex.IM, Complex.IM_NEG
+        );
+        double[] viewport = {-1, 1, -0.75, 0.75};
+
+        // warm up with producers whose caches are thrown away
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            NewtonProducer producer = new NewtonProducer(polynomial);
+            render(producer, viewport);
+            render(producer, zoom(viewport, 2));
+            render(producer, zoom(viewport, 0.5));
+        }
+
+        NewtonProducer uncached = new NewtonProducer(polynomial, 0);
+        NewtonProducer cached = new NewtonProducer(polynomial);
+        step("initial", viewport, uncached, cached);
+
+        step("pan right by 64 points", pan(viewport, 64, 0), uncached, cached);
+        step("pan down by 32 points", pan(pan(viewport, 64, 0), 0, 32), uncached, cached);
+        step("back to initial", viewport, uncached, cached);
+
+        double[] zoomedOut = zoom(viewport, 2);
+        step("zoom out by 2", zoomedOut, uncached, cached);
+        step("zoom in by 2", zoom(zoomedOut, 0.5), uncached, cached);
+
+        double[] zoomedIn = zoom(viewport, 0.5);
+        step("zoom in by 2 again", zoomedIn, uncached, cached);
+        step("pan left by 200 points", pan(zoomedIn, -200, 0), uncached, cached);
+    }
+
+    /**
+     * Calculates a viewport with both producers and prints the times.
+     *
+     * @param name the name of the step
+     * @param viewport the viewport, given as reMin, reMax, imMin and imMax
+     * @param uncached the producer without a cache
+     * @param cached the producer with a cache
+     */
+    private static void step(String name, double[] viewport, NewtonProducer uncached,
+                             NewtonProducer cached) {
+        long start = System.nanoTime();
+        short[] expected = render(uncached, viewport);
+        long uncachedTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        short[] actual = render(cached, viewport);
+        long cachedTime = System.nanoTime() - start;
+
+        int different = 0;
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] != actual[i]) {
+                different++;
+            }
+        }
+
+        System.out.printf("%-24s uncached: %7.1f ms  cached: %7.1f ms  different points: %d%n",
+                name, uncachedTime / 1e6, cachedTime / 1e6, different);
+    }
+
+    /**
+     * Calculates a viewport with the given producer.
+     *
+     * @param producer the producer
+     * @param viewport the viewport, given as reMin, reMax, imMin and imMax
+     * @return the colors of the whole image
+     */
+    private static short[] render(NewtonProducer producer, double[] viewport) {
+        short[][] result = new short[1][];
+        producer.produce(viewport[0], viewport[1], viewport[2], viewport[3], WIDTH, HEIGHT,
+                0, (data, max, requestNo) -> result[0] = data, new AtomicBoolean());
+
+        return result[0];
+    }
+
+    /**
+     * Moves a viewport by the given number of points, like dragging it in the viewer.
+     *
+     * @param viewport the viewport, given as reMin, reMax, imMin and imMax
+     * @param dx the number of points to move to the right
+     * @param dy the number of points to move down
+     * @return the moved viewport
+     */
+    private static double[] pan(double[] viewport, int dx, int dy) {
+        double re = dx * (viewport[1] - viewport[0]) / (WIDTH - 1);
+        double im = dy * (viewport[3] - viewport[2]) / (HEIGHT - 1);
+
+        return new double[] {viewport[0] + re, viewport[1] + re, viewport[2] - im, viewport[3] - im};
+    }
+
+    /**
+     * Scales a viewport around its central point, like zooming with the mouse over it
+     * in the viewer.
+     *
+     * @param viewport the viewport, given as reMin, reMax, imMin and imMax
+     * @param factor the factor by which the size of the viewport is multiplied
+     * @return the scaled viewport
+     */
+    private static double[] zoom(double[] viewport, double factor) {
+        double dx = (viewport[1] - viewport[0]) / (WIDTH - 1);
+        double dy = (viewport[3] - viewport[2]) / (HEIGHT - 1);
+        double re = viewport[0] + WIDTH / 2 * dx;
+        double im = viewport[3] - HEIGHT / 2 * dy;
+
+        double reMin = re - WIDTH / 2 * dx * factor;
+        double imMax = im + HEIGHT / 2 * dy * factor;
+        return new double[] {
+                reMin, reMin + (WIDTH - 1) * dx * factor,
+                imMax - (HEIGHT - 1) * dy * factor, imMax
+        };
+    }
+}
@@ -0,0 +1,130 @@
+package hr.fer.zemris.java.fractals.demo;
+
+import hr.fer.zemris.java.fractals.NewtonKernel;
+import hr.fer.zemris.math.Complex;
+import hr.fer.zemris.math.ComplexPolynomial;
+import hr.fer.zemris.math.ComplexRootedPolynomial;
+
+/**
+ * Measures the speed of {@link NewtonKernel} and compares it with the previous approach
+ * of {@link hr.fer.zemris.java.fractals.NewtonJob}, which evaluated the polynomial and
+ * its derivative with {@link Complex} objects, allocating several of them in each
+ * iteration.
+ *
+ * For each approach, a frame of the fractal of the polynomial (z-1)(z+1)(z-i)(z+i) is
+ * calculated on a single thread. The number of points whose colors differ between the
+ * approaches is printed as well, since the kernel evaluates the polynomials by Horner's
+ * rule instead of by powers in polar form, which rounds differently.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class NewtonKernelBenchmarkDemo {
+
+    /**
+     * The width and height of a frame.
+     */
+    private static final int SIZE = 400;
+
+    /**
+     * The maximum number of Newton-Raphson iterations, as in the fractal viewer.
+     */
+    private static final int MAX_ITERATIONS = 16 * 16 * 16;
+
+    /**
+     * The number of measured rounds.
+     */
+    private static final int ROUNDS = 5;
+
+    /**
+     * The main method. Calculates a frame repeatedly with both approaches and prints
+     * the time of each round.
+     *
+     * @param args the command-line arguments, not used
+     */
+    public static void main(String[] args) {
+        ComplexRootedPolynomial rootedPolynomial = new ComplexRootedPolynomial(
+                Complex.ONE, Complex.ONE, Complex.ONE_NEG, Complex.IM, Complex.IM_NEG
+        );
+        ComplexPolynomial polynomial = rootedPolynomial.toComplexPolynom();
+        NewtonKernel kernel = new NewtonKernel(rootedPolynomial, MAX_ITERATIONS);
+
+        short[] legacyData = new short[SIZE * SIZE];
+        short[] kernelData = new short[SIZE * SIZE];
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int y = 0; y < SIZE; y++) {
+                for (int x = 0; x < SIZE; x++) {
+                    legacyData[x + y * SIZE] = colorLegacy(
+                            map(x), map(SIZE - 1 - y), polynomial, rootedPolynomial
+                    );
+                }
+            }
+            long legacyTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int y = 0; y < SIZE; y++) {
+                for (int x = 0; x < SIZE; x++) {
+                    kernelData[x + y * SIZE] = kernel.colorOf(map(x), map(SIZE - 1 - y));
+                }
+            }
+            long kernelTime = System.nanoTime() - start;
+
+            int different = 0;
+            for (int i = 0; i < legacyData.length; i++) {
+                if (legacyData[i] != kernelData[i]) {
+                    different++;
+                }
+            }
+
+            System.out.printf("round %d  legacy: %8.1f ms/frame  kernel: %8.1f ms/frame  different points: %d%n",
+                    round + 1, legacyTime / 1e6, kernelTime / 1e6, different
+            );
+        }
+    }
+
+    /**
+     * Maps a coordinate of the frame to the interval [-2, 2].
+     *
+     * @param coordinate the coordinate
+     * @return the mapped value
+     */
+    private static double map(int coordinate) {
+        return coordinate * 4.0 / (SIZE - 1) - 2.0;
+    }
+
+    /**
+     * Calculates the color of a point the way {@link hr.fer.zemris.java.fractals.NewtonJob}
+     * did before {@link NewtonKernel}.
+     *
+     * @param re the real part of the point
+     * @param im the imaginary part of the point
+     * @param polynomial the polynomial
+     * @param rootedPolynomial the rooted form of the polynomial
+     * @return the color of the point
+     */
+    private static short colorLegacy(double re, double im, ComplexPolynomial polynomial,
+                                     ComplexRootedPolynomial rootedPolynomial) {
+        Complex zn = new Complex(re, im);
+        ComplexPolynomial derived = polynomial.derive();
+
+        double module;
+        int iteration = 0;
+
+        do {
+            Complex numerator = polynomial.apply(zn);
+            Complex denominator = derived.apply(zn);
+
+            Complex znOld = zn;
+            zn = zn.sub(numerator.divide(denominator));
+
+            module = znOld.sub(zn).module();
+            iteration++;
+
+        } while (module > NewtonKernel.CONVERGENCE_THRESHOLD && iteration < MAX_ITERATIONS);
+
+        int index = rootedPolynomial.indexOfClosestRootFor(zn, NewtonKernel.ROOT_THRESHOLD);
+        return (index == -1) ? 0 : (short) (index + 1);
+    }
+}
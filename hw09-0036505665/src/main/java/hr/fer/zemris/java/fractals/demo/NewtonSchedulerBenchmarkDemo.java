@@ -0,0 +1,186 @@
+package hr.fer.zemris.java.fractals.demo;
+
+import hr.fer.zemris.java.fractals.NewtonKernel;
+import hr.fer.zemris.java.fractals.NewtonProducer;
+import hr.fer.zemris.java.fractals.viewer.IFractalResultObserver;
+import hr.fer.zemris.math.Complex;
+import hr.fer.zemris.math.ComplexRootedPolynomial;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how fast {@link NewtonProducer} delivers its results without a cache and
+ * compares it with the previous approach, which split the image into 8 horizontal
+ * stripes per processor on a fixed thread pool and sent a single result once all
+ * stripes were done.
+ *
+ * For each viewport, the time until the preview and until the whole image are printed,
+ * as well as the number of points whose colors differ between the approaches, which
+ * should be zero. Finally, a calculation is superseded by a new one right after it is
+ * started, and the number of results sent for the superseded one after the new one
+ * was started is printed, which should be zero as well.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class NewtonSchedulerBenchmarkDemo {
+
+    /**
+     * The width of a frame.
+     */
+    private static final int WIDTH = 1024;
+    /**
+     * The height of a frame.
+     */
+    private static final int HEIGHT = 768;
+
+    /**
+     * The maximum number of Newton-Raphson iterations, as in the fractal viewer.
+     */
+    private static final int MAX_ITERATIONS = 16 * 16 * 16;
+
+    /**
+     * The number of measured rounds for each viewport.
+     */
+    private static final int ROUNDS = 3;
+
+    /**
+     * The viewports, each given as reMin, reMax, imMin and imMax.
+     */
+    private static final double[][] VIEWPORTS = {
+            {-2, 2, -1.5, 1.5},
+            {-0.6, 0.2, -0.3, 0.3},
+            {0.3, 0.4, 0.3, 0.375}
+    };
+
+    /**
+     * The main method. Calculates frames of the viewports with both approaches and
+     * prints the times of each round.
+     *
+     * @param args the command-line arguments, not used
+     * @throws Exception if a calculation fails
+     */
+    public static void main(String[] args) throws Exception {
+        ComplexRootedPolynomial polynomial = new ComplexRootedPolynomial(
+                Complex.ONE, Complex.ONE, Complex.ONE_NEG, Complex.IM, Complex.IM_NEG
+        );
+        NewtonKernel kernel = new NewtonKernel(polynomial, MAX_ITERATIONS);
+        NewtonProducer producer = new NewtonProducer(polynomial, 0);
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+        long requestNo = 0;
+        for (double[] viewport : VIEWPORTS) {
+            System.out.printf("viewport re [%s, %s], im [%s, %s]%n",
+                    viewport[0], viewport[1], viewport[2], viewport[3]);
+
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                short[] stripesData = stripes(pool, kernel, viewport);
+                long stripesTime = System.nanoTime() - start;
+
+                List<Long> times = new ArrayList<>();
+                List<short[]> results = new ArrayList<>();
+                IFractalResultObserver observer = (data, max, no) -> {
+                    times.add(System.nanoTime());
+                    results.add(data);
+                };
+
+                start = System.nanoTime();
+                producer.produce(viewport[0], viewport[1], viewport[2], viewport[3],
+                        WIDTH, HEIGHT, ++requestNo, observer, new AtomicBoolean());
+
+                short[] tilesData = results.get(results.size() - 1);
+                int different = 0;
+                for (int i = 0; i < tilesData.length; i++) {
+                    if (stripesData[i] != tilesData[i]) {
+                        different++;
+                    }
+                }
+
+                System.out.printf("round %d  stripes: %7.1f ms  tiles: preview %6.1f ms, image %7.1f ms"
+                                + "  different points: %d%n",
+                        round + 1, stripesTime / 1e6, (times.get(0) - start) / 1e6,
+                        (times.get(times.size() - 1) - start) / 1e6, different
+                );
+            }
+        }
+
+        AtomicLong supersededAt = new AtomicLong(Long.MAX_VALUE);
+        AtomicInteger superseded = new AtomicInteger();
+        AtomicInteger current = new AtomicInteger();
+        long supersededNo = ++requestNo;
+        double[] viewport = VIEWPORTS[0];
+
+        Future<?> first = pool.submit(() -> producer.produce(
+                viewport[0], viewport[1], viewport[2], viewport[3], WIDTH, HEIGHT, supersededNo,
+                (data, max, no) -> {
+                    if (System.nanoTime() >= supersededAt.get()) {
+                        superseded.incrementAndGet();
+                    }
+                },
+                new AtomicBoolean()
+        ));
+        Thread.sleep(5);
+
+        long start = System.nanoTime();
+        supersededAt.set(start);
+        producer.produce(viewport[0], viewport[1], viewport[2], viewport[3], WIDTH, HEIGHT,
+                ++requestNo, (data, max, no) -> current.incrementAndGet(), new AtomicBoolean());
+        long time = System.nanoTime() - start;
+        first.get();
+
+        System.out.printf("superseded request: %d results after superseding, new request: %d results in %.1f ms%n",
+                superseded.get(), current.get(), time / 1e6);
+
+        pool.shutdown();
+    }
+
+    /**
+     * Calculates a frame the way {@link NewtonProducer} did before the tiles, in
+     * horizontal stripes on a fixed thread pool.
+     *
+     * @param pool the thread pool
+     * @param kernel the kernel
+     * @param viewport the viewport, given as reMin, reMax, imMin and imMax
+     * @return the colors of the frame
+     * @throws Exception if the calculation fails
+     */
+    private static short[] stripes(ExecutorService pool, NewtonKernel kernel, double[] viewport)
+            throws Exception {
+        short[] data = new short[WIDTH * HEIGHT];
+        int ySections = 8 * Runtime.getRuntime().availableProcessors();
+        int yPerSection = HEIGHT / ySections;
+
+        double[] re = new double[WIDTH];
+        for (int x = 0; x < WIDTH; x++) {
+            re[x] = x * (viewport[1] - viewport[0]) / (WIDTH - 1) + viewport[0];
+        }
+
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < ySections; i++) {
+            int yMin = i * yPerSection;
+            int yMax = (i == ySections - 1) ? HEIGHT : (i + 1) * yPerSection;
+
+            results.add(pool.submit(() -> {
+                double[] im = new double[1];
+                for (int y = yMin; y < yMax; y++) {
+                    im[0] = (HEIGHT - 1 - y) * (viewport[3] - viewport[2]) / (HEIGHT - 1) + viewport[2];
+                    kernel.colorRows(re, im, data, y * WIDTH, WIDTH);
+                }
+            }));
+        }
+
+        for (Future<?> result : results) {
+            result.get();
+        }
+
+        return data;
+    }
+}
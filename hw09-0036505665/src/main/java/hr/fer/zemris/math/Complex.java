@@ -66,6 +66,24 @@ public class Complex {
         this.im = im;
     }
 
+    /**
+     * Returns the real part of this complex number.
+     *
+     * @return the real part of this complex number
+     */
+    public double getReal() {
+        return re;
+    }
+
+    /**
+     * Returns the imaginary part of this complex number.
+     *
+     * @return the imaginary part of this complex number
+     */
+    public double getImaginary() {
+        return im;
+    }
+
     /**
      * Returns the module (absolute value) of this complex number.
      *
@@ -1,5 +1,6 @@
 package hr.fer.zemris.math;
 
+import java.util.Arrays;
 import java.util.Objects;
 
 /**
@@ -41,6 +42,15 @@ public class ComplexPolynomial {
         return (short) (factors.length - 1);
     }
 
+    /**
+     * Returns the factors of this polynomial, from z0 to zn.
+     *
+     * @return a copy of the factors of this polynomial
+     */
+    public Complex[] getFactors() {
+        return Arrays.copyOf(factors, factors.length);
+    }
+
     /**
      * Multiplies this polynomial with the given polynomial and returns the result in
      * a new {@link ComplexPolynomial} object.
@@ -1,5 +1,6 @@
 package hr.fer.zemris.math;
 
+import java.util.Arrays;
 import java.util.Objects;
 
 /**
@@ -36,6 +37,15 @@ public class ComplexRootedPolynomial {
         this.roots = Objects.requireNonNull(roots);
     }
 
+    /**
+     * Returns the roots of this polynomial, from z1 to zn.
+     *
+     * @return a copy of the roots of this polynomial
+     */
+    public Complex[] getRoots() {
+        return Arrays.copyOf(roots, roots.length);
+    }
+
     /**
      * Returns the value of this polynomial at a given complex point.
      *
@@ -0,0 +1,125 @@
+package hr.fer.zemris.java.custom.scripting.demo;
+
+import hr.fer.zemris.java.custom.scripting.exec.CompiledScript;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares the {@link SmartScriptEngine} interpreter with {@link CompiledScript} on the
+ * demo scripts. For each script it checks that both produce the same output and
+ * prints the average execution time of each.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class CompiledScriptDemo {
+
+    /**
+     * The demo scripts.
+     */
+    private static final String[] SCRIPTS = {
+            "webroot/scripts/osnovni.smscr",
+            "webroot/scripts/zbrajanje.smscr",
+            "webroot/scripts/brojPoziva.smscr",
+            "webroot/scripts/fibonacci.smscr",
+            "webroot/scripts/fibonaccih.smscr"
+    };
+
+    /**
+     * The number of executions used for measuring.
+     */
+    private static final int ITERATIONS = 20_000;
+
+    /**
+     * The main method. Executes the demo scripts with both engines.
+     *
+     * @param args the command-line arguments, not used
+     * @throws IOException if a script cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        for (String script : SCRIPTS) {
+            DocumentNode document = new SmartScriptParser(
+                    Files.readString(Paths.get(script))
+            ).getDocumentNode();
+            CompiledScript compiled = CompiledScript.compile(document);
+
+            String interpreted = interpret(document);
+            String compiledOutput = execute(compiled);
+
+            long interpreterTime = 0;
+            long compiledTime = 0;
+            for (int round = 0; round < 2; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    interpret(document);
+                }
+                interpreterTime = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    execute(compiled);
+                }
+                compiledTime = System.nanoTime() - start;
+            }
+
+            System.out.printf("%-35s same output: %-5b interpreted: %7.2f us  compiled: %7.2f us%n",
+                    script, interpreted.equals(compiledOutput),
+                    interpreterTime / 1000.0 / ITERATIONS, compiledTime / 1000.0 / ITERATIONS
+            );
+        }
+    }
+
+    /**
+     * Executes a given document using the {@link SmartScriptEngine} and returns the
+     * output.
+     *
+     * @param document the document to execute
+     * @return the output of the document
+     */
+    private static String interpret(DocumentNode document) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        new SmartScriptEngine(document, createContext(os)).execute();
+
+        return os.toString();
+    }
+
+    /**
+     * Executes a given compiled document and returns the output.
+     *
+     * @param compiled the document to execute
+     * @return the output of the document
+     * @throws IOException if there was an issue with writing the output
+     */
+    private static String execute(CompiledScript compiled) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        compiled.execute(createContext(os));
+
+        return os.toString();
+    }
+
+    /**
+     * Creates a request context which writes to the given stream.
+     *
+     * @param os the stream to write to
+     * @return the created context
+     */
+    private static RequestContext createContext(ByteArrayOutputStream os) {
+        Map<String,String> parameters = new HashMap<>();
+        Map<String,String> persistentParameters = new HashMap<>();
+        parameters.put("a", "4");
+        parameters.put("b", "2");
+        persistentParameters.put("brojPoziva", "3");
+
+        return new RequestContext(os, parameters, persistentParameters, new ArrayList<>());
+    }
+}
@@ -0,0 +1,97 @@
+package hr.fer.zemris.java.custom.scripting.demo;
+
+import hr.fer.zemris.java.custom.scripting.exec.CompiledScript;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Measures the execution time of loop-heavy smart scripts, which spend most of their
+ * time in {@link hr.fer.zemris.java.custom.scripting.exec.ValueWrapper} arithmetic,
+ * using both the interpreter and the compiled execution mode.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class LoopBenchmarkDemo {
+
+    /**
+     * The measured scripts.
+     */
+    private static final String[] SCRIPTS = {
+            "{$ FOR i 1 10000 1 $}{$= i i * 3 + 2 / $}{$END$}",
+            "{$ FOR x 0 100 0.01 $}{$= x 2.5 * 1 - $}{$END$}",
+            "{$ FOR i 1 100 1 $}{$ FOR j 1 100 1 $}{$= i j + $}{$END$}{$END$}"
+    };
+
+    /**
+     * The number of measured executions of each script.
+     */
+    private static final int ITERATIONS = 200;
+
+    /**
+     * The number of executions of each script before measuring.
+     */
+    private static final int WARMUP = 100;
+
+    /**
+     * A stream which discards everything written to it.
+     */
+    private static final OutputStream NULL_STREAM = new OutputStream() {
+        @Override
+        public void write(int b) {}
+
+        @Override
+        public void write(byte[] b, int off, int len) {}
+    };
+
+    /**
+     * The main method. Executes the measured scripts and prints the average execution
+     * time for each execution mode.
+     *
+     * @param args the command-line arguments, not used
+     * @throws IOException if there was an issue with writing the output
+     */
+    public static void main(String[] args) throws IOException {
+        for (String script : SCRIPTS) {
+            DocumentNode document = new SmartScriptParser(script).getDocumentNode();
+            CompiledScript compiled = CompiledScript.compile(document);
+
+            for (int i = 0; i < WARMUP; i++) {
+                new SmartScriptEngine(document, createContext()).execute();
+                compiled.execute(createContext());
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                new SmartScriptEngine(document, createContext()).execute();
+            }
+            long interpreterTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                compiled.execute(createContext());
+            }
+            long compiledTime = System.nanoTime() - start;
+
+            System.out.printf("%-70s interpreted: %8.3f ms  compiled: %8.3f ms%n", script,
+                    interpreterTime / 1e6 / ITERATIONS, compiledTime / 1e6 / ITERATIONS
+            );
+        }
+    }
+
+    /**
+     * Creates a request context which discards its output.
+     *
+     * @return the created context
+     */
+    private static RequestContext createContext() {
+        return new RequestContext(NULL_STREAM, new HashMap<>(), new HashMap<>(), new ArrayList<>());
+    }
+}
@@ -0,0 +1,582 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import hr.fer.zemris.java.custom.scripting.elems.*;
+import hr.fer.zemris.java.custom.scripting.nodes.*;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.EmptyStackException;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * This class represents a smart script document compiled to a flat array of
+ * instructions. All the constants, variable names, operators and functions of the
+ * document are resolved once during compilation, so executing a compiled script does
+ * not walk the node tree or look up functions by name.
+ *
+ * A compiled script is immutable and can be executed by multiple threads at once.
+ * Its output is the same as the output of {@link SmartScriptEngine}, which remains
+ * the reference implementation.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class CompiledScript {
+
+    /**
+     * The instructions of this script.
+     */
+    private Instruction[] instructions;
+
+    /**
+     * The largest number of elements of an echo node, used as the operand stack size.
+     */
+    private int stackSize;
+
+    /**
+     * Constructs a {@link CompiledScript} of the given instructions.
+     *
+     * @param instructions the instructions of the script
+     * @param stackSize the operand stack size
+     */
+    private CompiledScript(Instruction[] instructions, int stackSize) {
+        this.instructions = instructions;
+        this.stackSize = stackSize;
+    }
+
+    /**
+     * Compiles the smart script document whose root node is given.
+     *
+     * @param documentNode the root node of the document to compile
+     * @return the compiled document
+     * @throws NullPointerException if the given node is {@code null}
+     * @throws IllegalArgumentException if the document contains an unknown operator
+     *         or function
+     */
+    public static CompiledScript compile(DocumentNode documentNode) {
+        Compiler compiler = new Compiler();
+        Objects.requireNonNull(documentNode).accept(compiler);
+
+        return new CompiledScript(
+                compiler.instructions.toArray(new Instruction[0]), compiler.stackSize
+        );
+    }
+
+    /**
+     * Executes this script using the given {@link RequestContext} for creating the
+     * document's header and output.
+     *
+     * @param requestContext the context of the request
+     * @throws IOException if there was an issue with writing the output
+     */
+    public void execute(RequestContext requestContext) throws IOException {
+        Frame frame = new Frame(requestContext, stackSize);
+
+        int pc = 0;
+        while (pc < instructions.length) {
+            pc = instructions[pc].execute(frame, pc);
+        }
+    }
+
+    /**
+     * The state of a single execution of a compiled script.
+     */
+    private static class Frame {
+
+        /**
+         * The context of the request.
+         */
+        RequestContext context;
+
+        /**
+         * The variables of the document.
+         */
+        ObjectMultistack multistack = new ObjectMultistack();
+
+        /**
+         * The operand stack of echo nodes.
+         */
+        ValueWrapper[] stack;
+
+        /**
+         * The number of elements on the operand stack.
+         */
+        int size;
+
+        /**
+         * Constructs a new {@link Frame}.
+         *
+         * @param context the context of the request
+         * @param stackSize the operand stack size
+         */
+        Frame(RequestContext context, int stackSize) {
+            this.context = context;
+            this.stack = new ValueWrapper[stackSize];
+        }
+
+        /**
+         * Pushes a given value to the operand stack.
+         *
+         * @param value the value to push
+         */
+        void push(ValueWrapper value) {
+            stack[size++] = value;
+        }
+
+        /**
+         * Pops a value from the operand stack.
+         *
+         * @return the popped value
+         * @throws EmptyStackException if the operand stack is empty
+         */
+        ValueWrapper pop() {
+            if (size == 0) {
+                throw new EmptyStackException();
+            }
+
+            ValueWrapper value = stack[--size];
+            stack[size] = null;
+            return value;
+        }
+    }
+
+    /**
+     * A single instruction of a compiled script.
+     */
+    private interface Instruction {
+
+        /**
+         * Executes this instruction and returns the index of the next instruction.
+         *
+         * @param frame the state of the execution
+         * @param pc the index of this instruction
+         * @return the index of the next instruction
+         * @throws IOException if there was an issue with writing the output
+         */
+        int execute(Frame frame, int pc) throws IOException;
+    }
+
+    /**
+     * A single operation of an echo node.
+     */
+    private interface Operation {
+
+        /**
+         * Applies this operation to the operand stack of the given frame.
+         *
+         * @param frame the state of the execution
+         */
+        void apply(Frame frame);
+    }
+
+    /**
+     * An instruction which writes a text node.
+     */
+    private static class TextInstruction implements Instruction {
+
+        /**
+         * The text to write.
+         */
+        private String text;
+
+        /**
+         * Constructs a new {@link TextInstruction}.
+         *
+         * @param text the text to write
+         */
+        TextInstruction(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int execute(Frame frame, int pc) throws IOException {
+            frame.context.write(text);
+            return pc + 1;
+        }
+    }
+
+    /**
+     * An instruction which evaluates an echo node and writes its operand stack.
+     */
+    private static class EchoInstruction implements Instruction {
+
+        /**
+         * The operations of the echo node.
+         */
+        private Operation[] operations;
+
+        /**
+         * Constructs a new {@link EchoInstruction}.
+         *
+         * @param operations the operations of the echo node
+         */
+        EchoInstruction(Operation[] operations) {
+            this.operations = operations;
+        }
+
+        @Override
+        public int execute(Frame frame, int pc) throws IOException {
+            frame.size = 0;
+            for (Operation operation : operations) {
+                operation.apply(frame);
+            }
+
+            for (int i = 0; i < frame.size; i++) {
+                frame.context.write(frame.stack[i].toString());
+                frame.stack[i] = null;
+            }
+            frame.size = 0;
+
+            return pc + 1;
+        }
+    }
+
+    /**
+     * An instruction which pushes the initial value of a for loop variable.
+     */
+    private static class ForEnterInstruction implements Instruction {
+
+        /**
+         * The name of the loop variable.
+         */
+        private String variable;
+
+        /**
+         * The initial value of the loop variable.
+         */
+        private ValueWrapper start;
+
+        /**
+         * Constructs a new {@link ForEnterInstruction}.
+         *
+         * @param variable the name of the loop variable
+         * @param start the initial value of the loop variable
+         */
+        ForEnterInstruction(String variable, String start) {
+            this.variable = variable;
+            this.start = new ValueWrapper(start);
+        }
+
+        @Override
+        public int execute(Frame frame, int pc) {
+            frame.multistack.push(variable, start.copy());
+            return pc + 1;
+        }
+    }
+
+    /**
+     * An instruction which checks the condition of a for loop and leaves the loop if
+     * the loop variable is larger than the end value.
+     */
+    private static class ForTestInstruction implements Instruction {
+
+        /**
+         * The name of the loop variable.
+         */
+        private String variable;
+
+        /**
+         * The end value of the loop variable.
+         */
+        private ValueWrapper end;
+
+        /**
+         * The index of the first instruction after the loop.
+         */
+        private int exit;
+
+        /**
+         * Constructs a new {@link ForTestInstruction}.
+         *
+         * @param variable the name of the loop variable
+         * @param end the end value of the loop variable
+         */
+        ForTestInstruction(String variable, String end) {
+            this.variable = variable;
+            this.end = new ValueWrapper(end);
+        }
+
+        @Override
+        public int execute(Frame frame, int pc) {
+            if (frame.multistack.peek(variable).numCompare(end) <= 0) {
+                return pc + 1;
+            }
+
+            frame.multistack.pop(variable);
+            return exit;
+        }
+    }
+
+    /**
+     * An instruction which increments the loop variable and jumps back to the
+     * condition of the loop.
+     */
+    private static class ForNextInstruction implements Instruction {
+
+        /**
+         * The name of the loop variable.
+         */
+        private String variable;
+
+        /**
+         * The step of the loop variable.
+         */
+        private ValueWrapper step;
+
+        /**
+         * The index of the condition of the loop.
+         */
+        private int test;
+
+        /**
+         * Constructs a new {@link ForNextInstruction}.
+         *
+         * @param variable the name of the loop variable
+         * @param step the step of the loop variable
+         * @param test the index of the condition of the loop
+         */
+        ForNextInstruction(String variable, String step, int test) {
+            this.variable = variable;
+            this.step = new ValueWrapper(step);
+            this.test = test;
+        }
+
+        @Override
+        public int execute(Frame frame, int pc) {
+            frame.multistack.peek(variable).add(step);
+            return test;
+        }
+    }
+
+    /**
+     * A visitor which translates a node tree to instructions.
+     */
+    private static class Compiler implements INodeVisitor {
+
+        /**
+         * The translated instructions.
+         */
+        List<Instruction> instructions = new ArrayList<>();
+
+        /**
+         * The largest number of elements of an echo node.
+         */
+        int stackSize;
+
+        @Override
+        public void visitTextNode(TextNode node) {
+            instructions.add(new TextInstruction(node.getText()));
+        }
+
+        @Override
+        public void visitForLoopNode(ForLoopNode node) {
+            String variable = node.getVariable().getName();
+
+            instructions.add(new ForEnterInstruction(
+                    variable, node.getStartExpression().asText()
+            ));
+
+            int test = instructions.size();
+            ForTestInstruction testInstruction = new ForTestInstruction(
+                    variable, node.getEndExpression().asText()
+            );
+            instructions.add(testInstruction);
+
+            visitChildren(node);
+
+            instructions.add(new ForNextInstruction(
+                    variable, node.getStepExpression().asText(), test
+            ));
+            testInstruction.exit = instructions.size();
+        }
+
+        @Override
+        public void visitEchoNode(EchoNode node) {
+            Element[] elements = node.getElements();
+            Operation[] operations = new Operation[elements.length];
+
+            for (int i = 0; i < elements.length; i++) {
+                operations[i] = compile(elements[i]);
+            }
+
+            stackSize = Math.max(stackSize, elements.length);
+            instructions.add(new EchoInstruction(operations));
+        }
+
+        @Override
+        public void visitDocumentNode(DocumentNode node) {
+            visitChildren(node);
+        }
+
+        /**
+         * Visits all the children of a given node.
+         *
+         * @param node the node whose children should be visited
+         */
+        private void visitChildren(Node node) {
+            for (int i = 0, end = node.numberOfChildren(); i < end; i++) {
+                node.getChild(i).accept(this);
+            }
+        }
+
+        /**
+         * Translates a given echo node element to an operation.
+         *
+         * @param element the element to translate
+         * @return the operation of the given element
+         * @throws IllegalArgumentException if the element is an unknown operator or
+         *         function
+         */
+        private Operation compile(Element element) {
+            if (element instanceof ElementConstantDouble
+                    || element instanceof ElementConstantInteger
+                    || element instanceof ElementString) {
+                ValueWrapper constant = new ValueWrapper(element.toString());
+                return frame -> frame.push(constant.copy());
+
+            } else if (element instanceof ElementVariable) {
+                String variable = ((ElementVariable) element).getName();
+                return frame -> frame.push(frame.multistack.peek(variable).copy());
+
+            } else if (element instanceof ElementOperator) {
+                return compileOperator(((ElementOperator) element).getSymbol());
+
+            } else {
+                return compileFunction(((ElementFunction) element).getName());
+            }
+        }
+
+        /**
+         * Translates a given operator to an operation.
+         *
+         * @param operator the symbol of the operator
+         * @return the operation of the given operator
+         * @throws IllegalArgumentException if the operator is unknown
+         */
+        private Operation compileOperator(String operator) {
+            switch (operator) {
+                case "+":
+                    return frame -> {
+                        ValueWrapper first = frame.pop();
+                        first.add(frame.pop());
+                        frame.push(first);
+                    };
+                case "-":
+                    return frame -> {
+                        ValueWrapper first = frame.pop();
+                        first.subtract(frame.pop());
+                        frame.push(first);
+                    };
+                case "*":
+                    return frame -> {
+                        ValueWrapper first = frame.pop();
+                        first.multiply(frame.pop());
+                        frame.push(first);
+                    };
+                case "/":
+                    return frame -> {
+                        ValueWrapper first = frame.pop();
+                        first.divide(frame.pop());
+                        frame.push(first);
+                    };
+                default:
+                    throw new IllegalArgumentException("Unknown operator: " + operator);
+            }
+        }
+
+        /**
+         * Translates a given function to an operation.
+         *
+         * @param function the name of the function
+         * @return the operation of the given function
+         * @throws IllegalArgumentException if the function is unknown
+         */
+        private Operation compileFunction(String function) {
+            switch (function) {
+                case "sin":
+                    return frame -> {
+                        double value = frame.pop().doubleValue();
+                        frame.push(new ValueWrapper(Math.sin(Math.toRadians(value))));
+                    };
+
+                case "decfmt":
+                    return frame -> {
+                        DecimalFormat format = new DecimalFormat(frame.pop().toString());
+                        double number = frame.pop().doubleValue();
+                        frame.push(new ValueWrapper(format.format(number)));
+                    };
+
+                case "dup":
+                    return frame -> {
+                        ValueWrapper top = frame.pop();
+                        frame.push(top);
+                        frame.push(top);
+                    };
+
+                case "swap":
+                    return frame -> {
+                        ValueWrapper first = frame.pop();
+                        ValueWrapper second = frame.pop();
+                        frame.push(first);
+                        frame.push(second);
+                    };
+
+                case "setMimeType":
+                    return frame -> frame.context.setMimeType(frame.pop().toString());
+
+                case "paramGet":
+                    return frame -> {
+                        ValueWrapper defValue = frame.pop();
+                        String value = frame.context.getParameter(frame.pop().toString());
+                        frame.push(value == null ? defValue : new ValueWrapper(value));
+                    };
+
+                case "pparamGet":
+                    return frame -> {
+                        ValueWrapper defValue = frame.pop();
+                        String value = frame.context.getPersistentParameter(
+                                frame.pop().toString()
+                        );
+                        frame.push(value == null ? defValue : new ValueWrapper(value));
+                    };
+
+                case "pparamSet":
+                    return frame -> {
+                        String name = frame.pop().toString();
+                        frame.context.setPersistentParameter(name, frame.pop().toString());
+                    };
+
+                case "pparamDel":
+                    return frame -> frame.context.removePersistentParameter(
+                            frame.pop().toString()
+                    );
+
+                case "tparamGet":
+                    return frame -> {
+                        ValueWrapper defValue = frame.pop();
+                        String value = frame.context.getTemporaryParameter(
+                                frame.pop().toString()
+                        );
+                        frame.push(value == null ? defValue : new ValueWrapper(value));
+                    };
+
+                case "tparamSet":
+                    return frame -> {
+                        String name = frame.pop().toString();
+                        frame.context.setTemporaryParameter(name, frame.pop().toString());
+                    };
+
+                case "tparamDel":
+                    return frame -> frame.context.removeTemporaryParameter(
+                            frame.pop().toString()
+                    );
+
+                default:
+                    throw new IllegalArgumentException("Unknown function: " + function);
+            }
+        }
+    }
+}
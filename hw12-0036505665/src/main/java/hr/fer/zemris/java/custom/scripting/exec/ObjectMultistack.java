@@ -38,6 +38,30 @@ public class ObjectMultistack {
         entryMap.put(keyName, newEntry);
     }
 
+    /**
+     * Adds a new stack entry of the given integer value to the top of the stack
+     * specified by the given key name in O(1). The value is kept without boxing.
+     *
+     * @param keyName the key name that specifies which stack to push to
+     * @param value the value of the new stack entry
+     * @throws NullPointerException if the given key name is {@code null}
+     */
+    public void push(String keyName, int value) {
+        push(keyName, new ValueWrapper(value));
+    }
+
+    /**
+     * Adds a new stack entry of the given double value to the top of the stack
+     * specified by the given key name in O(1). The value is kept without boxing.
+     *
+     * @param keyName the key name that specifies which stack to push to
+     * @param value the value of the new stack entry
+     * @throws NullPointerException if the given key name is {@code null}
+     */
+    public void push(String keyName, double value) {
+        push(keyName, new ValueWrapper(value));
+    }
+
     /**
      * Removes the entry that is at the top of a given key name's stack in O(1), and
      * returns the value of the popped entry.
@@ -1,9 +1,9 @@
 package hr.fer.zemris.java.custom.scripting.exec;
 
-import java.util.function.BinaryOperator;
+import java.util.function.DoubleBinaryOperator;
 
 /**
- * This class contains {@link BinaryOperator}s that represent all possible arithmetic
+ * This class contains {@link DoubleBinaryOperator}s that represent all possible arithmetic
  * operations on {@link ValueWrapper} objects.
  *
  * @author Bruna Dujmović
@@ -12,23 +12,23 @@ import java.util.function.BinaryOperator;
 class Operations {
 
     /**
-     * Addition of two Double values.
+     * Addition of two double values.
      */
-    static final BinaryOperator<Double> ADD = (first, second) -> first + second;
+    static final DoubleBinaryOperator ADD = (first, second) -> first + second;
 
     /**
-     * Subtraction of two Double values.
+     * Subtraction of two double values.
      */
-    static final BinaryOperator<Double> SUB = (first, second) -> first - second;
+    static final DoubleBinaryOperator SUB = (first, second) -> first - second;
 
     /**
-     * Multiplication of two Double values.
+     * Multiplication of two double values.
      */
-    static final BinaryOperator<Double> MUL = (first, second) -> first * second;
+    static final DoubleBinaryOperator MUL = (first, second) -> first * second;
 
     /**
-     * Division of two Double values.
+     * Division of two double values.
      */
-    static final BinaryOperator<Double> DIV = (first, second) -> first / second;
+    static final DoubleBinaryOperator DIV = (first, second) -> first / second;
 
 }
@@ -51,8 +51,8 @@ public class SmartScriptEngine {
             String variable = node.getVariable().getName();
 
             ValueWrapper value = new ValueWrapper(node.getStartExpression().asText());
-            String endValue = node.getEndExpression().asText();
-            String step = node.getStepExpression().asText();
+            ValueWrapper endValue = new ValueWrapper(node.getEndExpression().asText());
+            ValueWrapper step = new ValueWrapper(node.getStepExpression().asText());
 
             multistack.push(variable, value);
 
@@ -82,7 +82,7 @@ public class SmartScriptEngine {
 
                 } else if (element instanceof ElementVariable) {
                     String variable = ((ElementVariable) element).getName();
-                    stack.push(new ValueWrapper(multistack.peek(variable).getValue()));
+                    stack.push(multistack.peek(variable).copy());
 
                 } else if (element instanceof ElementOperator) {
                     String operator = ((ElementOperator) element).getSymbol();
@@ -92,16 +92,16 @@ public class SmartScriptEngine {
 
                     switch (operator) {
                         case "+":
-                            firstOperand.add(secondOperand.toString());
+                            firstOperand.add(secondOperand);
                             break;
                         case "-":
-                            firstOperand.subtract(secondOperand.toString());
+                            firstOperand.subtract(secondOperand);
                             break;
                         case "*":
-                            firstOperand.multiply(secondOperand.toString());
+                            firstOperand.multiply(secondOperand);
                             break;
                         case "/":
-                            firstOperand.divide(secondOperand.toString());
+                            firstOperand.divide(secondOperand);
                             break;
                         default:
                             throw new IllegalArgumentException();
@@ -115,7 +115,7 @@ public class SmartScriptEngine {
                     switch (function) {
                         case "sin":
                             ValueWrapper value = stack.pop();
-                            double doubleValue = ValueWrapper.toDouble(value.getValue());
+                            double doubleValue = value.doubleValue();
                             ValueWrapper sinValue = new ValueWrapper(
                                     Math.sin(Math.toRadians(doubleValue))
                             );
@@ -125,7 +125,7 @@ public class SmartScriptEngine {
 
                         case "decfmt":
                             DecimalFormat form = new DecimalFormat(stack.pop().toString());
-                            double number = ValueWrapper.toDouble(stack.pop().getValue());
+                            double number = stack.pop().doubleValue();
 
                             stack.push(new ValueWrapper(form.format(number)));
                             break;
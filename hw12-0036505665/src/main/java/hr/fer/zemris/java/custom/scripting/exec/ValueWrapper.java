@@ -1,6 +1,6 @@
 package hr.fer.zemris.java.custom.scripting.exec;
 
-import java.util.function.BinaryOperator;
+import java.util.function.DoubleBinaryOperator;
 
 import static hr.fer.zemris.java.custom.scripting.exec.OperandType.*;
 
@@ -8,25 +8,37 @@ import static hr.fer.zemris.java.custom.scripting.exec.OperandType.*;
  * This class represents a wrapper of a given object value. It supports arithmetic
  * operations on values that can be parsed to {@link Double} or {@link Integer}.
  *
+ * The operand type of the wrapped value is determined once, when the value is set,
+ * and numeric values are kept as primitives. Results of arithmetic operations are
+ * boxed only if they are requested through {@link #getValue()}.
+ *
  * @author Bruna Dujmović
  * 
  */
 public class ValueWrapper {
 
     /**
-     * A regular expression to match a valid Integer value.
+     * The value object that is wrapped by this {@link ValueWrapper}, or {@code null}
+     * if the value is kept only in {@link #number}.
      */
-    private static final String INTEGER_REGEX = "^[+-]?\\d+$";
+    private Object value;
 
     /**
-     * A regular expression to match a valid Double value.
+     * {@code false} if the value is kept only in {@link #number} and has not been
+     * boxed yet.
      */
-    private static final String DOUBLE_REGEX = "^[+-]?\\d+(\\.\\d+)?(E-?\\d+)?$";
+    private boolean boxed = true;
 
     /**
-     * The value object that is wrapped by this {@link ValueWrapper}.
+     * The operand type of the wrapped value.
      */
-    private Object value;
+    private OperandType type;
+
+    /**
+     * The numeric value of the wrapped value if its type is {@link OperandType#INTEGER}
+     * or {@link OperandType#DOUBLE}.
+     */
+    private double number;
 
     /**
      * Constructs a {@link ValueWrapper} for the given value.
@@ -34,7 +46,25 @@ public class ValueWrapper {
      * @param value the value object to wrap
      */
     public ValueWrapper(Object value) {
-        this.value = value;
+        setValue(value);
+    }
+
+    /**
+     * Constructs a {@link ValueWrapper} for the given integer value without boxing it.
+     *
+     * @param value the integer value to wrap
+     */
+    public ValueWrapper(int value) {
+        setNumber(INTEGER, value);
+    }
+
+    /**
+     * Constructs a {@link ValueWrapper} for the given double value without boxing it.
+     *
+     * @param value the double value to wrap
+     */
+    public ValueWrapper(double value) {
+        setNumber(DOUBLE, value);
     }
 
     /**
@@ -43,6 +73,15 @@ public class ValueWrapper {
      * @return the value that is wrapped by this {@link ValueWrapper}
      */
     public Object getValue() {
+        if (!boxed) {
+            if (type == INTEGER) {
+                value = Integer.valueOf((int) number);
+            } else {
+                value = Double.valueOf(number);
+            }
+            boxed = true;
+        }
+
         return value;
     }
 
@@ -53,6 +92,57 @@ public class ValueWrapper {
      */
     public void setValue(Object value) {
         this.value = value;
+        this.boxed = true;
+        this.number = 0;
+
+        if (value == null) {
+            type = INTEGER;
+        } else if (value instanceof Integer) {
+            type = INTEGER;
+            number = (Integer) value;
+        } else if (value instanceof Double) {
+            type = DOUBLE;
+            number = (Double) value;
+        } else if (value instanceof String) {
+            type = typeOf((String) value);
+            if (type != INVALID) {
+                number = Double.parseDouble((String) value);
+            }
+        } else {
+            type = INVALID;
+        }
+    }
+
+    /**
+     * Returns a new {@link ValueWrapper} which wraps the same value as this one.
+     *
+     * @return a copy of this {@link ValueWrapper}
+     */
+    public ValueWrapper copy() {
+        ValueWrapper copy = new ValueWrapper(number);
+
+        copy.value = value;
+        copy.boxed = boxed;
+        copy.type = type;
+        copy.number = number;
+
+        return copy;
+    }
+
+    /**
+     * Returns the wrapped value converted to double, as done by {@link #toDouble(Object)}.
+     *
+     * @return the wrapped value converted to double
+     * @throws IllegalArgumentException if the wrapped value's type is not appropriate
+     * @throws NumberFormatException if the wrapped value is a string and it cannot be
+     *         parsed to a double
+     */
+    public double doubleValue() {
+        if (!boxed || (type != INVALID && !(value instanceof String))) {
+            return number;
+        }
+
+        return toDouble(value);
     }
 
     /**
@@ -108,39 +198,92 @@ public class ValueWrapper {
      * @throws RuntimeException if the operation cannot be performed on the given operands
      */
     public int numCompare(Object withValue) {
-        if (typeOf(this.value) == INVALID || typeOf(withValue) == INVALID) {
+        ValueWrapper operand = operand(withValue);
+
+        if (type == INVALID || operand.type == INVALID) {
             throw new RuntimeException("Cannot perform operation on the given values.");
         }
 
-        Double first = toDouble(this.value);
-        Double second = toDouble(withValue);
-
-        if (typeOf(this.value) == INTEGER && typeOf(withValue) == INTEGER) {
-            return Integer.compare(first.intValue(), second.intValue());
+        if (type == INTEGER && operand.type == INTEGER) {
+            return Integer.compare((int) number, (int) operand.number);
         } else {
-            return Double.compare(first, second);
+            return Double.compare(number, operand.number);
         }
     }
 
     /**
-     * Performs an operation specified by a {@link BinaryOperator} on this wrapper's
-     * value and a given value.
+     * Performs an operation specified by a {@link DoubleBinaryOperator} on this
+     * wrapper's value and a given value.
      *
      * @param value the second operand of the operation
-     * @param operation the {@link BinaryOperator} to apply on the operands
+     * @param operation the {@link DoubleBinaryOperator} to apply on the operands
      * @throws RuntimeException if the operation cannot be performed on the given operands
      */
-    private void performOperation(Object value, BinaryOperator<Double> operation) {
-        if (typeOf(this.value) == INVALID || typeOf(value) == INVALID) {
+    private void performOperation(Object value, DoubleBinaryOperator operation) {
+        ValueWrapper operand = operand(value);
+
+        if (type == INVALID || operand.type == INVALID) {
             throw new RuntimeException("Cannot perform operation on the given values.");
         }
 
-        Double result = operation.apply(toDouble(this.value), toDouble(value));
+        double result = operation.applyAsDouble(number, operand.number);
+
+        if (type == INTEGER && operand.type == INTEGER) {
+            setNumber(INTEGER, (int) result);
+        } else {
+            setNumber(DOUBLE, result);
+        }
+    }
+
+    /**
+     * Stores a given numeric value without boxing it.
+     *
+     * @param type the operand type of the value
+     * @param number the value to store
+     */
+    private void setNumber(OperandType type, double number) {
+        this.value = null;
+        this.boxed = false;
+        this.type = type;
+        this.number = number;
+    }
+
+    /**
+     * Returns a {@link ValueWrapper} of the given operand. An operand which is itself
+     * a {@link ValueWrapper} is used as its string representation, so its cached type
+     * is reused whenever it matches the type of that representation.
+     *
+     * @param value the operand
+     * @return a {@link ValueWrapper} of the given operand
+     */
+    private static ValueWrapper operand(Object value) {
+        if (!(value instanceof ValueWrapper)) {
+            return new ValueWrapper(value);
+        }
+
+        ValueWrapper wrapper = (ValueWrapper) value;
+        if (wrapper.typeMatchesText()) {
+            return wrapper;
+        }
+
+        return new ValueWrapper(wrapper.toString());
+    }
 
-        if (typeOf(this.value) == INTEGER && typeOf(value) == INTEGER) {
-            this.value = result.intValue();
+    /**
+     * Returns {@code true} if the cached type of this wrapper is the same as the type
+     * of its string representation.
+     *
+     * @return {@code true} if the type matches the type of the string representation
+     */
+    private boolean typeMatchesText() {
+        if (!boxed || value instanceof Double) {
+            return type == INTEGER || Double.isFinite(number);
+        } else if (value instanceof Integer) {
+            return true;
+        } else if (value instanceof String) {
+            return ((String) value).indexOf('"') < 0;
         } else {
-            this.value = result;
+            return false;
         }
     }
 
@@ -168,34 +311,76 @@ public class ValueWrapper {
     }
 
     /**
-     * Returns the operand type of a given object.
+     * Returns the operand type of a given string. A string is an integer if it matches
+     * {@code [+-]?\d+}, and a double if it matches {@code [+-]?\d+(\.\d+)?(E-?\d+)?}.
      *
-     * @param value the object to check
-     * @return the operand type of a given object
+     * @param value the string to check
+     * @return the operand type of the given string
      */
-    private OperandType typeOf(Object value) {
-        if (value == null || value instanceof Integer) {
+    private static OperandType typeOf(String value) {
+        int length = value.length();
+        int i = 0;
+
+        if (i < length && (value.charAt(i) == '+' || value.charAt(i) == '-')) {
+            i++;
+        }
+
+        int digitsEnd = skipDigits(value, i);
+        if (digitsEnd == i) {
+            return INVALID;
+        }
+        i = digitsEnd;
+
+        if (i == length) {
             return INTEGER;
-        } else if (value instanceof Double) {
-            return DOUBLE;
-        } else if (value instanceof String) {
-            String valueString = (String) value;
+        }
 
-            if (valueString.matches(INTEGER_REGEX)) {
-                return INTEGER;
-            } else if (valueString.matches(DOUBLE_REGEX)) {
-                return DOUBLE;
-            } else {
+        if (value.charAt(i) == '.') {
+            digitsEnd = skipDigits(value, ++i);
+            if (digitsEnd == i) {
                 return INVALID;
             }
-        } else {
-            return INVALID;
+            i = digitsEnd;
+        }
+
+        if (i < length && value.charAt(i) == 'E') {
+            i++;
+            if (i < length && value.charAt(i) == '-') {
+                i++;
+            }
+
+            digitsEnd = skipDigits(value, i);
+            if (digitsEnd == i) {
+                return INVALID;
+            }
+            i = digitsEnd;
+        }
+
+        return i == length ? DOUBLE : INVALID;
+    }
+
+    /**
+     * Returns the index of the first non-digit character of a given string starting
+     * from a given index.
+     *
+     * @param value the string to check
+     * @param from the index to start from
+     * @return the index of the first non-digit character
+     */
+    private static int skipDigits(String value, int from) {
+        int i = from;
+        while (i < value.length() && value.charAt(i) >= '0' && value.charAt(i) <= '9') {
+            i++;
         }
+
+        return i;
     }
 
     @Override
     public String toString() {
-        if (value == null) {
+        if (!boxed) {
+            return (type == INTEGER) ? Integer.toString((int) number) : Double.toString(number);
+        } else if (value == null) {
             return "";
         } else if (value instanceof Integer) {
             return ((Integer) value).toString();
@@ -0,0 +1,78 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An output stream which writes everything written to it as chunks of the HTTP/1.1
+ * chunked transfer encoding. The terminating chunk is written by {@link #finish()},
+ * which does not close the underlying stream.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+class ChunkedOutputStream extends FilterOutputStream {
+
+    /**
+     * The line terminator used in chunked content.
+     */
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The chunk that terminates chunked content.
+     */
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * {@code true} if the terminating chunk has been written.
+     */
+    private boolean finished = false;
+
+    /**
+     * Constructs a {@link ChunkedOutputStream} which writes to the given stream.
+     *
+     * @param out the underlying stream
+     */
+    ChunkedOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("Chunked content already finished!");
+        }
+        if (len == 0) {
+            return;
+        }
+
+        out.write((Integer.toHexString(len) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(b, off, len);
+        out.write(CRLF);
+    }
+
+    /**
+     * Writes the terminating chunk if it has not been written yet.
+     *
+     * @throws IOException if there was an issue with writing
+     */
+    void finish() throws IOException {
+        if (!finished) {
+            out.write(LAST_CHUNK);
+            finished = true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        flush();
+    }
+}
@@ -0,0 +1,49 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream which counts the bytes written to the underlying stream.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+class CountingOutputStream extends FilterOutputStream {
+
+    /**
+     * The number of written bytes.
+     */
+    private long count;
+
+    /**
+     * Constructs a {@link CountingOutputStream} which writes to the given stream.
+     *
+     * @param out the underlying stream
+     */
+    CountingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        count += len;
+    }
+
+    /**
+     * Returns the number of bytes written to the underlying stream.
+     *
+     * @return the number of written bytes
+     */
+    long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,45 @@
+package hr.fer.zemris.java.webserver;
+
+/**
+ * An exception to be thrown if a received HTTP request is invalid. It carries the
+ * status which should be sent to the client.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class HttpParseException extends RuntimeException {
+
+    /**
+     * The status code which should be sent to the client.
+     */
+    private int statusCode;
+
+    /**
+     * Constructs a {@link HttpParseException} of the given status.
+     *
+     * @param statusCode the status code which should be sent to the client
+     * @param statusText the status text which should be sent to the client
+     */
+    public HttpParseException(int statusCode, String statusText) {
+        super(statusText);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * Returns the status code which should be sent to the client.
+     *
+     * @return the status code which should be sent to the client
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Returns the status text which should be sent to the client.
+     *
+     * @return the status text which should be sent to the client
+     */
+    public String getStatusText() {
+        return getMessage();
+    }
+}
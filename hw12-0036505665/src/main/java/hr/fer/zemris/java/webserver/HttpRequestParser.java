@@ -0,0 +1,850 @@
+package hr.fer.zemris.java.webserver;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * An incremental parser of HTTP/1.1 requests. Bytes are fed to the parser with
+ * {@link #parse(ByteBuffer)} as they arrive, in pieces of any size, until it reports
+ * that the request is complete. The parser consumes only the bytes of the current
+ * request, so bytes of pipelined requests which follow it are left in the buffer.
+ *
+ * The request is kept in a single internal array, and the parser records only the
+ * positions of its parts. The getters create strings only for the parts which are
+ * requested. Bodies are supported if they are given by "Content-Length" or sent
+ * using the chunked transfer encoding, in which case they are decoded in place.
+ *
+ * Once a request has been handled, {@link #reset()} prepares the parser for the next
+ * one, reusing its internal array.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class HttpRequestParser {
+
+    /**
+     * The default maximum size of the request line and headers in bytes.
+     */
+    public static final int DEFAULT_MAX_HEADER_SIZE = 64 * 1024;
+
+    /**
+     * The default maximum size of a request body in bytes.
+     */
+    public static final int DEFAULT_MAX_BODY_SIZE = 1024 * 1024;
+
+    /**
+     * The initial size of the internal array.
+     */
+    private static final int INITIAL_SIZE = 1024;
+
+    /**
+     * The maximum size of a chunk size line.
+     */
+    private static final int MAX_CHUNK_LINE = 1024;
+
+    /**
+     * The states of the parser.
+     */
+    private enum State {
+        REQUEST_LINE, HEADERS, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, DONE
+    }
+
+    /**
+     * The maximum size of the request line and headers in bytes.
+     */
+    private int maxHeaderSize;
+
+    /**
+     * The maximum size of a request body in bytes.
+     */
+    private int maxBodySize;
+
+    /**
+     * The received bytes of the request.
+     */
+    private byte[] data = new byte[INITIAL_SIZE];
+
+    /**
+     * The number of bytes in {@link #data}.
+     */
+    private int length;
+
+    /**
+     * The current state of the parser.
+     */
+    private State state = State.REQUEST_LINE;
+
+    /**
+     * The start of the line being read.
+     */
+    private int lineStart;
+
+    /**
+     * The end of the last read line, excluding the line terminator.
+     */
+    private int lineEnd;
+
+    /**
+     * The end of the method.
+     */
+    private int methodEnd;
+
+    /**
+     * The start of the request target.
+     */
+    private int targetStart;
+
+    /**
+     * The end of the path in the request target.
+     */
+    private int pathEnd;
+
+    /**
+     * The end of the request target.
+     */
+    private int targetEnd;
+
+    /**
+     * The start of the version.
+     */
+    private int versionStart;
+
+    /**
+     * The end of the version.
+     */
+    private int versionEnd;
+
+    /**
+     * The start and end of the name and value of each header.
+     */
+    private int[] headers = new int[4 * 16];
+
+    /**
+     * The number of headers.
+     */
+    private int headerCount;
+
+    /**
+     * The start of the body.
+     */
+    private int bodyStart;
+
+    /**
+     * The end of the body received so far.
+     */
+    private int bodyEnd;
+
+    /**
+     * The number of bytes of the body or the current chunk which are yet to be received.
+     */
+    private long remaining;
+
+    /**
+     * An array used for decoding parameters.
+     */
+    private byte[] scratch = new byte[64];
+
+    /**
+     * Constructs a {@link HttpRequestParser} with the default size limits.
+     */
+    public HttpRequestParser() {
+        this(DEFAULT_MAX_HEADER_SIZE, DEFAULT_MAX_BODY_SIZE);
+    }
+
+    /**
+     * Constructs a {@link HttpRequestParser} with the given size limits.
+     *
+     * @param maxHeaderSize the maximum size of the request line and headers in bytes
+     * @param maxBodySize the maximum size of a request body in bytes
+     * @throws IllegalArgumentException if the given sizes are not positive
+     */
+    public HttpRequestParser(int maxHeaderSize, int maxBodySize) {
+        if (maxHeaderSize <= 0 || maxBodySize < 0) {
+            throw new IllegalArgumentException("Invalid request size limits!");
+        }
+
+        this.maxHeaderSize = maxHeaderSize;
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * Parses the bytes remaining in the given buffer, up to the end of the current
+     * request.
+     *
+     * @param in the buffer containing the received bytes
+     * @return {@code true} if the request is complete
+     * @throws HttpParseException if the request is invalid or too large
+     */
+    public boolean parse(ByteBuffer in) {
+        while (state != State.DONE) {
+            switch (state) {
+                case REQUEST_LINE:
+                    if (!readLine(in, maxHeaderSize)) {
+                        return false;
+                    }
+                    requestLine();
+                    break;
+
+                case HEADERS:
+                    if (!readLine(in, maxHeaderSize)) {
+                        return false;
+                    }
+                    headerLine();
+                    break;
+
+                case BODY:
+                case CHUNK_DATA:
+                    if (!readBody(in)) {
+                        return false;
+                    }
+                    break;
+
+                case CHUNK_SIZE:
+                    if (!readLine(in, lineStart + MAX_CHUNK_LINE)) {
+                        return false;
+                    }
+                    chunkSizeLine();
+                    break;
+
+                case CHUNK_END:
+                    if (!readLine(in, lineStart + MAX_CHUNK_LINE)) {
+                        return false;
+                    }
+                    if (lineEnd != lineStart) {
+                        throw new HttpParseException(400, "Bad request");
+                    }
+                    discardLine();
+                    state = State.CHUNK_SIZE;
+                    break;
+
+                case TRAILERS:
+                    if (!readLine(in, lineStart + maxHeaderSize)) {
+                        return false;
+                    }
+                    boolean last = lineEnd == lineStart;
+                    discardLine();
+                    if (last) {
+                        state = State.DONE;
+                    }
+                    break;
+
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns {@code true} if the request is complete.
+     *
+     * @return {@code true} if the request is complete
+     */
+    public boolean isComplete() {
+        return state == State.DONE;
+    }
+
+    /**
+     * Prepares this parser for the next request.
+     */
+    public void reset() {
+        if (data.length > 4 * DEFAULT_MAX_HEADER_SIZE) {
+            data = new byte[INITIAL_SIZE];
+        }
+
+        length = 0;
+        lineStart = 0;
+        headerCount = 0;
+        bodyStart = bodyEnd = 0;
+        remaining = 0;
+        state = State.REQUEST_LINE;
+    }
+
+    /**
+     * Appends the bytes of the current line to {@link #data}.
+     *
+     * @param in the buffer to read from
+     * @param limit the maximum allowed value of {@link #length}
+     * @return {@code true} if the line is complete
+     * @throws HttpParseException if the line exceeds the limit
+     */
+    private boolean readLine(ByteBuffer in, int limit) {
+        while (in.hasRemaining()) {
+            if (length >= limit) {
+                if (state == State.REQUEST_LINE || state == State.HEADERS) {
+                    throw new HttpParseException(431, "Request Header Fields Too Large");
+                }
+                throw new HttpParseException(400, "Bad request");
+            }
+
+            byte b = in.get();
+            ensureCapacity(length + 1);
+            data[length++] = b;
+
+            if (b == '\n') {
+                lineEnd = length - 1;
+                if (lineEnd > lineStart && data[lineEnd - 1] == '\r') {
+                    lineEnd--;
+                }
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Appends the bytes of the body or the current chunk to {@link #data}.
+     *
+     * @param in the buffer to read from
+     * @return {@code true} if the body or the chunk is complete
+     */
+    private boolean readBody(ByteBuffer in) {
+        int n = (int) Math.min(remaining, in.remaining());
+        ensureCapacity(length + n);
+        in.get(data, length, n);
+
+        length += n;
+        bodyEnd = length;
+        remaining -= n;
+        if (remaining > 0) {
+            return false;
+        }
+
+        lineStart = length;
+        state = state == State.BODY ? State.DONE : State.CHUNK_END;
+        return true;
+    }
+
+    /**
+     * Removes the last read line from {@link #data}. Used for lines of the chunked
+     * encoding, so that the chunks of the body stay contiguous.
+     */
+    private void discardLine() {
+        length = bodyEnd;
+        lineStart = length;
+    }
+
+    /**
+     * Handles the request line. Empty lines preceding it are ignored.
+     *
+     * @throws HttpParseException if the request line is invalid
+     */
+    private void requestLine() {
+        if (lineEnd == lineStart) {
+            length = lineStart = 0;
+            return;
+        }
+
+        int firstSpace = indexOf(' ', 0, lineEnd);
+        int secondSpace = indexOf(' ', firstSpace + 1, lineEnd);
+        if (firstSpace <= 0 || secondSpace <= firstSpace + 1 || secondSpace + 1 == lineEnd
+                || indexOf(' ', secondSpace + 1, lineEnd) != -1) {
+            throw new HttpParseException(400, "Bad request");
+        }
+
+        methodEnd = firstSpace;
+        targetStart = firstSpace + 1;
+        targetEnd = secondSpace;
+        pathEnd = indexOf('?', targetStart, targetEnd);
+        if (pathEnd == -1) {
+            pathEnd = targetEnd;
+        }
+        versionStart = secondSpace + 1;
+        versionEnd = lineEnd;
+
+        lineStart = length;
+        state = State.HEADERS;
+    }
+
+    /**
+     * Handles a header line. A line starting with whitespace continues the value of
+     * the previous header, and an empty line ends the headers.
+     *
+     * @throws HttpParseException if the header line is invalid
+     */
+    private void headerLine() {
+        if (lineEnd == lineStart) {
+            lineStart = bodyStart = bodyEnd = length;
+            startBody();
+            return;
+        }
+
+        int valueStart;
+        byte first = data[lineStart];
+        if (first == ' ' || first == '\t') {
+            if (headerCount == 0) {
+                throw new HttpParseException(400, "Bad request");
+            }
+
+            valueStart = skipWhitespace(lineStart, lineEnd);
+            int valueEnd = trimWhitespace(valueStart, lineEnd);
+            if (valueStart < valueEnd) {
+                int i = 4 * (headerCount - 1);
+                if (headers[i + 2] == headers[i + 3]) {
+                    headers[i + 2] = valueStart;
+                } else {
+                    Arrays.fill(data, headers[i + 3], valueStart, (byte) ' ');
+                }
+                headers[i + 3] = valueEnd;
+            }
+
+        } else {
+            int colon = indexOf(':', lineStart, lineEnd);
+            if (colon <= lineStart) {
+                throw new HttpParseException(400, "Bad request");
+            }
+
+            valueStart = skipWhitespace(colon + 1, lineEnd);
+            addHeader(lineStart, trimWhitespace(lineStart, colon), valueStart,
+                    trimWhitespace(valueStart, lineEnd));
+        }
+
+        lineStart = length;
+    }
+
+    /**
+     * Stores the positions of a header.
+     *
+     * @param nameStart the start of the name
+     * @param nameEnd the end of the name
+     * @param valueStart the start of the value
+     * @param valueEnd the end of the value
+     */
+    private void addHeader(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        int i = 4 * headerCount;
+        if (i == headers.length) {
+            headers = Arrays.copyOf(headers, 2 * headers.length);
+        }
+
+        headers[i] = nameStart;
+        headers[i + 1] = nameEnd;
+        headers[i + 2] = valueStart;
+        headers[i + 3] = valueEnd;
+        headerCount++;
+    }
+
+    /**
+     * Determines how the body of the request is sent once the headers are read.
+     *
+     * @throws HttpParseException if the body headers are invalid or the body is too large
+     */
+    private void startBody() {
+        int transferEncoding = findHeader("Transfer-Encoding");
+        if (transferEncoding != -1) {
+            if (!valueEquals(transferEncoding, "chunked")) {
+                throw new HttpParseException(501, "Not Implemented");
+            }
+            state = State.CHUNK_SIZE;
+            return;
+        }
+
+        int contentLength = findHeader("Content-Length");
+        if (contentLength == -1) {
+            state = State.DONE;
+            return;
+        }
+
+        int i = 4 * contentLength;
+        long bodyLength = parseNumber(headers[i + 2], headers[i + 3], 10);
+        if (bodyLength > maxBodySize) {
+            throw new HttpParseException(413, "Payload Too Large");
+        }
+
+        remaining = bodyLength;
+        state = bodyLength == 0 ? State.DONE : State.BODY;
+    }
+
+    /**
+     * Handles a chunk size line. Chunk extensions are ignored.
+     *
+     * @throws HttpParseException if the line is invalid or the body is too large
+     */
+    private void chunkSizeLine() {
+        int end = indexOf(';', lineStart, lineEnd);
+        if (end == -1) {
+            end = lineEnd;
+        }
+
+        long size = parseNumber(lineStart, trimWhitespace(lineStart, end), 16);
+        if (size > maxBodySize - (bodyEnd - bodyStart)) {
+            throw new HttpParseException(413, "Payload Too Large");
+        }
+
+        discardLine();
+        if (size == 0) {
+            state = State.TRAILERS;
+        } else {
+            remaining = size;
+            state = State.CHUNK_DATA;
+        }
+    }
+
+    /**
+     * Parses a non-negative number in the given radix.
+     *
+     * @param start the start of the number
+     * @param end the end of the number
+     * @param radix the radix of the number
+     * @return the parsed number
+     * @throws HttpParseException if the number is invalid or too large
+     */
+    private long parseNumber(int start, int end, int radix) {
+        if (start == end || end - start > 15) {
+            throw new HttpParseException(400, "Bad request");
+        }
+
+        long number = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(data[i], radix);
+            if (digit == -1) {
+                throw new HttpParseException(400, "Bad request");
+            }
+            number = number * radix + digit;
+        }
+
+        return number;
+    }
+
+    /**
+     * Makes sure {@link #data} can hold the given number of bytes.
+     *
+     * @param capacity the required capacity
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > data.length) {
+            data = Arrays.copyOf(data, Math.max(2 * data.length, capacity));
+        }
+    }
+
+    /**
+     * Returns the index of the first occurrence of the given byte in the given range,
+     * or -1 if there is none.
+     *
+     * @param b the byte to find
+     * @param start the start of the range
+     * @param end the end of the range
+     * @return the index of the byte or -1
+     */
+    private int indexOf(char b, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the index of the first byte in the given range which is not a space or
+     * a tab, or the end of the range if there is none.
+     *
+     * @param start the start of the range
+     * @param end the end of the range
+     * @return the index of the first byte which is not whitespace
+     */
+    private int skipWhitespace(int start, int end) {
+        while (start < end && (data[start] == ' ' || data[start] == '\t')) {
+            start++;
+        }
+
+        return start;
+    }
+
+    /**
+     * Returns the end of the given range without trailing spaces and tabs.
+     *
+     * @param start the start of the range
+     * @param end the end of the range
+     * @return the end of the range without trailing whitespace
+     */
+    private int trimWhitespace(int start, int end) {
+        while (end > start && (data[end - 1] == ' ' || data[end - 1] == '\t')) {
+            end--;
+        }
+
+        return end;
+    }
+
+    /**
+     * Returns {@code true} if the given range is equal to the given ASCII string,
+     * ignoring case.
+     *
+     * @param start the start of the range
+     * @param end the end of the range
+     * @param s the string to compare with
+     * @return {@code true} if the range is equal to the string
+     */
+    private boolean rangeEquals(int start, int end, String s) {
+        if (end - start != s.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < s.length(); i++) {
+            int a = data[start + i];
+            int b = s.charAt(i);
+
+            if (a != b && ((a | 0x20) != (b | 0x20) || (a | 0x20) < 'a' || (a | 0x20) > 'z')) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns {@code true} if the value of the header at the given index is equal to the
+     * given string, ignoring case.
+     *
+     * @param index the index of the header
+     * @param s the string to compare with
+     * @return {@code true} if the value is equal to the string
+     */
+    private boolean valueEquals(int index, String s) {
+        return rangeEquals(headers[4 * index + 2], headers[4 * index + 3], s);
+    }
+
+    /**
+     * Returns the index of the first header with the given name, or -1 if there is
+     * none.
+     *
+     * @param name the name of the header
+     * @return the index of the header or -1
+     */
+    private int findHeader(String name) {
+        for (int i = 0; i < headerCount; i++) {
+            if (isHeader(i, name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the given range as a string.
+     *
+     * @param start the start of the range
+     * @param end the end of the range
+     * @return the range as a string
+     */
+    private String string(int start, int end) {
+        return new String(data, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the method of the request.
+     *
+     * @return the method of the request
+     */
+    public String getMethod() {
+        return string(0, methodEnd);
+    }
+
+    /**
+     * Returns {@code true} if the method of the request is the given one.
+     *
+     * @param method the method to compare with, ignoring case
+     * @return {@code true} if the method of the request is the given one
+     */
+    public boolean isMethod(String method) {
+        return rangeEquals(0, methodEnd, method);
+    }
+
+    /**
+     * Returns the path of the request target, without the query string.
+     *
+     * @return the path of the request target
+     */
+    public String getPath() {
+        return string(targetStart, pathEnd);
+    }
+
+    /**
+     * Returns the query string of the request target, or {@code null} if there is none.
+     *
+     * @return the query string or {@code null}
+     */
+    public String getQueryString() {
+        return pathEnd == targetEnd ? null : string(pathEnd + 1, targetEnd);
+    }
+
+    /**
+     * Returns the version of the request.
+     *
+     * @return the version of the request
+     */
+    public String getVersion() {
+        return string(versionStart, versionEnd);
+    }
+
+    /**
+     * Returns {@code true} if the version of the request is the given one.
+     *
+     * @param version the version to compare with, ignoring case
+     * @return {@code true} if the version of the request is the given one
+     */
+    public boolean isVersion(String version) {
+        return rangeEquals(versionStart, versionEnd, version);
+    }
+
+    /**
+     * Returns the number of headers of the request.
+     *
+     * @return the number of headers
+     */
+    public int getHeaderCount() {
+        return headerCount;
+    }
+
+    /**
+     * Returns {@code true} if the header at the given index has the given name.
+     *
+     * @param index the index of the header
+     * @param name the name to compare with, ignoring case
+     * @return {@code true} if the header has the given name
+     */
+    public boolean isHeader(int index, String name) {
+        return rangeEquals(headers[4 * index], headers[4 * index + 1], name);
+    }
+
+    /**
+     * Returns the name of the header at the given index.
+     *
+     * @param index the index of the header
+     * @return the name of the header
+     */
+    public String getHeaderName(int index) {
+        return string(headers[4 * index], headers[4 * index + 1]);
+    }
+
+    /**
+     * Returns the value of the header at the given index.
+     *
+     * @param index the index of the header
+     * @return the value of the header
+     */
+    public String getHeaderValue(int index) {
+        return string(headers[4 * index + 2], headers[4 * index + 3]);
+    }
+
+    /**
+     * Returns the value of the first header with the given name, or {@code null} if
+     * there is no such header.
+     *
+     * @param name the name of the header, ignoring case
+     * @return the value of the header or {@code null}
+     */
+    public String getHeader(String name) {
+        int index = findHeader(name);
+
+        return index == -1 ? null : getHeaderValue(index);
+    }
+
+    /**
+     * Returns the length of the body of the request.
+     *
+     * @return the length of the body
+     */
+    public int getBodyLength() {
+        return bodyEnd - bodyStart;
+    }
+
+    /**
+     * Returns a read-only view of the body of the request, which is valid until this
+     * parser is reset.
+     *
+     * @return a view of the body
+     */
+    public ByteBuffer getBody() {
+        return ByteBuffer.wrap(data, bodyStart, bodyEnd - bodyStart).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Passes the URL-decoded parameters of the query string, followed by those of a
+     * form body, to the given action. Pairs without a '=' are skipped.
+     *
+     * @param action the action to perform for each parameter name and value
+     */
+    public void forEachParameter(BiConsumer<String, String> action) {
+        parseParameters(Math.min(pathEnd + 1, targetEnd), targetEnd, action);
+
+        int contentType = findHeader("Content-Type");
+        if (contentType != -1 && bodyEnd > bodyStart) {
+            int i = 4 * contentType;
+            int end = indexOf(';', headers[i + 2], headers[i + 3]);
+            if (end == -1) {
+                end = headers[i + 3];
+            }
+
+            if (rangeEquals(headers[i + 2], trimWhitespace(headers[i + 2], end),
+                    "application/x-www-form-urlencoded")) {
+                parseParameters(bodyStart, bodyEnd, action);
+            }
+        }
+    }
+
+    /**
+     * Passes the URL-decoded parameters in the given range to the given action.
+     *
+     * @param start the start of the range
+     * @param end the end of the range
+     * @param action the action to perform for each parameter name and value
+     */
+    private void parseParameters(int start, int end, BiConsumer<String, String> action) {
+        while (start < end) {
+            int pairEnd = indexOf('&', start, end);
+            if (pairEnd == -1) {
+                pairEnd = end;
+            }
+
+            int equals = indexOf('=', start, pairEnd);
+            if (equals > start) {
+                action.accept(decode(start, equals), decode(equals + 1, pairEnd));
+            }
+
+            start = pairEnd + 1;
+        }
+    }
+
+    /**
+     * URL-decodes the given range as UTF-8. Invalid escapes are kept as they are.
+     *
+     * @param start the start of the range
+     * @param end the end of the range
+     * @return the decoded string
+     */
+    private String decode(int start, int end) {
+        if (indexOf('%', start, end) == -1 && indexOf('+', start, end) == -1) {
+            return new String(data, start, end - start, StandardCharsets.UTF_8);
+        }
+
+        if (scratch.length < end - start) {
+            scratch = new byte[end - start];
+        }
+
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            byte b = data[i];
+
+            if (b == '+') {
+                b = ' ';
+            } else if (b == '%' && i + 2 < end) {
+                int high = Character.digit(data[i + 1], 16);
+                int low = Character.digit(data[i + 2], 16);
+                if (high != -1 && low != -1) {
+                    b = (byte) (high << 4 | low);
+                    i += 2;
+                }
+            }
+
+            scratch[n++] = b;
+        }
+
+        return new String(scratch, 0, n, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,152 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+
+/**
+ * A thread-safe store of user sessions. Sessions are kept in a {@link ConcurrentHashMap},
+ * so lookups do not block and updates only lock a single bin of the map.
+ *
+ * Expired sessions are removed by {@link #sweep()}, which is meant to be called
+ * periodically. Instead of walking all the sessions, the sweeper keeps a priority
+ * queue ordered by expiration time with one element per session. Extending a session
+ * does not touch the queue; when its element comes due, the sweeper either removes
+ * the session or requeues it with its new expiration time.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class InMemorySessionStore implements SessionStore {
+
+    /**
+     * The duration of sessions in seconds.
+     */
+    private int timeout;
+
+    /**
+     * The stored sessions mapped by their IDs.
+     */
+    private ConcurrentHashMap<String, SessionMapEntry> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * The expiration times of the stored sessions, earliest first.
+     */
+    private PriorityBlockingQueue<Expiry> expiries = new PriorityBlockingQueue<>();
+
+    /**
+     * Constructs an empty {@link InMemorySessionStore}.
+     *
+     * @param timeout the duration of sessions in seconds
+     * @throws IllegalArgumentException if the given timeout is not positive
+     */
+    public InMemorySessionStore(int timeout) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Session timeout must be positive!");
+        }
+
+        this.timeout = timeout;
+    }
+
+    @Override
+    public SessionMapEntry get(String sid, String host) {
+        SessionMapEntry entry = sessions.get(sid);
+        if (entry == null || !entry.host.equals(host)) {
+            return null;
+        }
+
+        long now = now();
+        if (entry.validUntil < now) {
+            sessions.remove(sid, entry);
+            return null;
+        }
+
+        entry.validUntil = now + timeout;
+        return entry;
+    }
+
+    @Override
+    public SessionMapEntry create(String host) {
+        while (true) {
+            SessionMapEntry entry = new SessionMapEntry(
+                    SessionIds.generate(), host, now() + timeout, new ConcurrentHashMap<>()
+            );
+
+            if (sessions.putIfAbsent(entry.sid, entry) == null) {
+                expiries.add(new Expiry(entry.validUntil, entry));
+                return entry;
+            }
+        }
+    }
+
+    @Override
+    public int sweep() {
+        long now = now();
+        int removed = 0;
+
+        Expiry expiry;
+        while ((expiry = expiries.poll()) != null) {
+            if (expiry.time >= now) {
+                expiries.add(expiry);
+                break;
+            }
+
+            SessionMapEntry entry = expiry.entry;
+            long validUntil = entry.validUntil;
+            if (validUntil < now) {
+                if (sessions.remove(entry.sid, entry)) {
+                    removed++;
+                }
+            } else {
+                expiries.add(new Expiry(validUntil, entry));
+            }
+        }
+
+        return removed;
+    }
+
+    @Override
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Returns the current time in seconds.
+     *
+     * @return the current time in seconds
+     */
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    /**
+     * This class represents an element of the expiration queue.
+     */
+    private static class Expiry implements Comparable<Expiry> {
+
+        /**
+         * The time in seconds at which the session should be checked.
+         */
+        long time;
+
+        /**
+         * The session to check.
+         */
+        SessionMapEntry entry;
+
+        /**
+         * Constructs a new {@link Expiry} of the given parameters.
+         *
+         * @param time the time in seconds at which the session should be checked
+         * @param entry the session to check
+         */
+        Expiry(long time, SessionMapEntry entry) {
+            this.time = time;
+            this.entry = entry;
+        }
+
+        @Override
+        public int compareTo(Expiry other) {
+            return Long.compare(time, other.time);
+        }
+    }
+}
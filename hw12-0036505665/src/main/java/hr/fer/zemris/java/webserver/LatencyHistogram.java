@@ -0,0 +1,163 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe histogram of non-negative values, such as latencies in microseconds,
+ * with log-linear buckets in the style of HdrHistogram. Every power of two is split
+ * into 16 buckets of equal width, so the reported percentiles are within 6.25% of the
+ * actual values. Recording a value is lock-free and does not allocate.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class LatencyHistogram {
+
+    /**
+     * The number of bits used for buckets within a power of two.
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /**
+     * The number of buckets within a power of two.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The largest value which is recorded exactly. Larger values are recorded as this
+     * value.
+     */
+    private static final long MAX_VALUE = (1L << 40) - 1;
+
+    /**
+     * The number of values recorded in each bucket.
+     */
+    private AtomicLongArray counts = new AtomicLongArray(index(MAX_VALUE) + 1);
+
+    /**
+     * The number of recorded values.
+     */
+    private LongAdder count = new LongAdder();
+
+    /**
+     * The sum of the recorded values.
+     */
+    private LongAdder sum = new LongAdder();
+
+    /**
+     * The largest recorded value.
+     */
+    private AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a given value. Negative values are recorded as 0.
+     *
+     * @param value the value to record
+     */
+    public void record(long value) {
+        value = Math.max(0, Math.min(value, MAX_VALUE));
+
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the sum of the recorded values.
+     *
+     * @return the sum of the recorded values
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Returns the largest recorded value.
+     *
+     * @return the largest recorded value
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns an upper bound of the given percentile of the recorded values, or 0 if no
+     * values were recorded.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return an upper bound of the percentile
+     * @throws IllegalArgumentException if the percentile is not between 0 and 100
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100!");
+        }
+
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+
+        return getMax();
+    }
+
+    /**
+     * Returns the index of the bucket of a given value.
+     *
+     * @param value the value
+     * @return the index of the bucket
+     */
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the largest value of the bucket of a given index.
+     *
+     * @param index the index of the bucket
+     * @return the largest value of the bucket
+     */
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int shift = index / SUB_BUCKETS - 1;
+        long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+
+        return lowerBound + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,574 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A thread-safe store of user sessions kept in a memory-mapped file, so they survive
+ * restarts of the server and do not occupy the heap. Only an index mapping session
+ * IDs to positions in the file is kept on the heap. A {@link SessionMapEntry} is read
+ * from the file whenever a session is requested, and changes of its parameters are
+ * written back to the file.
+ *
+ * The file is append-only: a session is appended each time it is created or its
+ * parameters change, and the index refers to its latest record. The only data
+ * updated in place is the expiration time of a record. If concurrent requests change
+ * the parameters of the same session, the last change overwrites the others.
+ *
+ * {@link #sweep()} removes the expired sessions from the index, and compacts the file
+ * by moving the live records to its beginning once the unused records take up more
+ * space than the live ones.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class MappedFileSessionStore implements SessionStore {
+
+    /**
+     * The value identifying session files.
+     */
+    private static final int MAGIC = 0x53455353;
+
+    /**
+     * The position of the end of the records in the file header.
+     */
+    private static final int END_POSITION = 4;
+
+    /**
+     * The size of the file header.
+     */
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * The position of the expiration time within a record.
+     */
+    private static final int VALID_UNTIL_POSITION = 4;
+
+    /**
+     * The position of the session ID within a record.
+     */
+    private static final int SID_POSITION = 12;
+
+    /**
+     * The initial size of the mapped region in bytes.
+     */
+    private static final int INITIAL_SIZE = 1 << 20;
+
+    /**
+     * The duration of sessions in seconds.
+     */
+    private int timeout;
+
+    /**
+     * The channel of the session file.
+     */
+    private FileChannel channel;
+
+    /**
+     * The mapped region of the session file.
+     */
+    private volatile MappedByteBuffer buffer;
+
+    /**
+     * The position of the end of the records in the file. Guarded by {@link #appendLock}.
+     */
+    private int end;
+
+    /**
+     * The positions of the latest records of the stored sessions mapped by their IDs.
+     */
+    private ConcurrentHashMap<String, Integer> index = new ConcurrentHashMap<>();
+
+    /**
+     * The lock held for reading by all operations except compaction.
+     */
+    private ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * The lock used for appending records.
+     */
+    private final Object appendLock = new Object();
+
+    /**
+     * Constructs a {@link MappedFileSessionStore} which uses the given file. If the
+     * file exists, the sessions stored in it are loaded.
+     *
+     * @param file the path of the session file
+     * @param timeout the duration of sessions in seconds
+     * @throws IOException if the file cannot be opened or is not a session file
+     * @throws IllegalArgumentException if the given timeout is not positive
+     */
+    public MappedFileSessionStore(Path file, int timeout) throws IOException {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Session timeout must be positive!");
+        }
+
+        this.timeout = timeout;
+        channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE
+        );
+
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Session file is too large!");
+            }
+
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, INITIAL_SIZE));
+            if (size == 0) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(END_POSITION, HEADER_SIZE);
+            } else if (size < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a session file: " + file);
+            }
+
+            load();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Builds the index from the records in the file. A damaged record and the
+     * records following it are dropped, as if the file ended before the damaged
+     * record.
+     */
+    private void load() {
+        int limit = Math.min(buffer.getInt(END_POSITION), buffer.capacity());
+        int position = HEADER_SIZE;
+
+        while (position < limit) {
+            int length = buffer.getInt(position);
+            if (length < SID_POSITION + 4 || length > limit - position) {
+                break;
+            }
+
+            ByteBuffer record = record(position);
+            record.limit(length);
+            if (!isIntact(record)) {
+                break;
+            }
+
+            record.position(SID_POSITION);
+            index.put(readString(record), position);
+            position += length;
+        }
+
+        end = position;
+        buffer.putInt(END_POSITION, end);
+
+        sweep();
+    }
+
+    @Override
+    public SessionMapEntry get(String sid, String host) {
+        lock.readLock().lock();
+        try {
+            Integer position = index.get(sid);
+            if (position == null) {
+                return null;
+            }
+
+            ByteBuffer record = record(position);
+            record.position(SID_POSITION);
+            readString(record);
+            if (!readString(record).equals(host)) {
+                return null;
+            }
+
+            long now = now();
+            if (record.getLong(VALID_UNTIL_POSITION) < now) {
+                index.remove(sid, position);
+                return null;
+            }
+
+            long validUntil = now + timeout;
+            record.putLong(VALID_UNTIL_POSITION, validUntil);
+
+            Map<String, String> values = new HashMap<>();
+            for (int i = record.getInt(); i > 0; i--) {
+                values.put(readString(record), readString(record));
+            }
+
+            return new SessionMapEntry(sid, host, validUntil, new SessionData(sid, host, values));
+
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public SessionMapEntry create(String host) {
+        lock.readLock().lock();
+        try {
+            while (true) {
+                String sid = SessionIds.generate();
+                long validUntil = now() + timeout;
+                Map<String, String> values = new HashMap<>();
+
+                int position = append(sid, host, validUntil, values);
+                if (index.putIfAbsent(sid, position) == null) {
+                    return new SessionMapEntry(sid, host, validUntil, new SessionData(sid, host, values));
+                }
+            }
+
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int sweep() {
+        long now = now();
+        int removed = 0;
+        long live = 0;
+        int garbage;
+
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<String, Integer> entry : index.entrySet()) {
+                int position = entry.getValue();
+
+                if (buffer.getLong(position + VALID_UNTIL_POSITION) < now) {
+                    if (index.remove(entry.getKey(), position)) {
+                        removed++;
+                    }
+                } else {
+                    live += buffer.getInt(position);
+                }
+            }
+
+            synchronized (appendLock) {
+                garbage = (int) (end - HEADER_SIZE - live);
+            }
+
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (garbage > live) {
+            compact();
+        }
+
+        return removed;
+    }
+
+    /**
+     * Moves the records of the stored sessions to the beginning of the file, dropping
+     * the records which are no longer used.
+     */
+    private void compact() {
+        lock.writeLock().lock();
+        try {
+            List<Map.Entry<String, Integer>> records = new ArrayList<>(index.entrySet());
+            records.sort(Map.Entry.comparingByValue());
+
+            int position = HEADER_SIZE;
+            for (Map.Entry<String, Integer> entry : records) {
+                int source = entry.getValue();
+                int length = buffer.getInt(source);
+
+                if (source != position) {
+                    byte[] data = new byte[length];
+                    record(source).get(data);
+                    record(position).put(data);
+                    index.put(entry.getKey(), position);
+                }
+
+                position += length;
+            }
+
+            synchronized (appendLock) {
+                end = position;
+                buffer.putInt(END_POSITION, end);
+            }
+
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            buffer.force();
+            channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends a record of the given session to the file.
+     *
+     * @param sid the ID of the session
+     * @param host the host of the session
+     * @param validUntil the time in seconds until the session is valid
+     * @param values the parameters of the session
+     * @return the position of the appended record
+     * @throws UncheckedIOException if the file cannot be extended
+     */
+    private int append(String sid, String host, long validUntil, Map<String, String> values) {
+        byte[] data = serialize(sid, host, validUntil, values);
+
+        synchronized (appendLock) {
+            if (data.length > buffer.capacity() - end) {
+                long size = Math.max(2L * buffer.capacity(), (long) end + data.length);
+                if (size > Integer.MAX_VALUE) {
+                    throw new UncheckedIOException(new IOException("Session file is full!"));
+                }
+
+                try {
+                    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            int position = end;
+            record(position).put(data);
+            end += data.length;
+            buffer.putInt(END_POSITION, end);
+
+            return position;
+        }
+    }
+
+    /**
+     * Serializes a record of the given session.
+     *
+     * @param sid the ID of the session
+     * @param host the host of the session
+     * @param validUntil the time in seconds until the session is valid
+     * @param values the parameters of the session
+     * @return the serialized record
+     */
+    private static byte[] serialize(String sid, String host, long validUntil, Map<String, String> values) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(64);
+
+        try (DataOutputStream out = new DataOutputStream(bos)) {
+            out.writeInt(0);
+            out.writeLong(validUntil);
+            writeString(out, sid);
+            writeString(out, host);
+            out.writeInt(values.size());
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        byte[] data = bos.toByteArray();
+        ByteBuffer.wrap(data).putInt(0, data.length);
+
+        return data;
+    }
+
+    /**
+     * Writes a length-prefixed UTF-8 encoded string.
+     *
+     * @param out the stream to write to
+     * @param s the string to write
+     * @throws IOException if there was an issue with writing
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Checks whether all the strings and parameters of the given record lie within the
+     * record and fill it exactly, so the record can be read.
+     *
+     * @param record the record, limited to its length
+     * @return {@code true} if the record can be read
+     */
+    private static boolean isIntact(ByteBuffer record) {
+        record.position(SID_POSITION);
+        if (!skipString(record) || !skipString(record) || record.remaining() < 4) {
+            return false;
+        }
+
+        int count = record.getInt();
+        if (count < 0) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (!skipString(record) || !skipString(record)) {
+                return false;
+            }
+        }
+
+        return !record.hasRemaining();
+    }
+
+    /**
+     * Skips a length-prefixed string at the current position of the given buffer, if
+     * it lies within the buffer's limit.
+     *
+     * @param record the buffer containing the string
+     * @return {@code true} if the string was skipped
+     */
+    private static boolean skipString(ByteBuffer record) {
+        if (record.remaining() < 4) {
+            return false;
+        }
+
+        int length = record.getInt();
+        if (length < 0 || length > record.remaining()) {
+            return false;
+        }
+
+        record.position(record.position() + length);
+        return true;
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 encoded string from the current position of the
+     * given buffer.
+     *
+     * @param record the buffer to read from
+     * @return the read string
+     */
+    private static String readString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a view of the mapped region which starts at the given position.
+     *
+     * @param position the position of the record
+     * @return a view of the mapped region starting at the given position
+     */
+    private ByteBuffer record(int position) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+
+        return view.slice();
+    }
+
+    /**
+     * Returns the current time in seconds.
+     *
+     * @return the current time in seconds
+     */
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    /**
+     * The parameters of a session which are written to the file whenever they change.
+     */
+    private class SessionData extends AbstractMap<String, String> {
+
+        /**
+         * The ID of the session.
+         */
+        private String sid;
+
+        /**
+         * The host of the session.
+         */
+        private String host;
+
+        /**
+         * The parameters of the session.
+         */
+        private Map<String, String> values;
+
+        /**
+         * Constructs a new {@link SessionData} of the given parameters.
+         *
+         * @param sid the ID of the session
+         * @param host the host of the session
+         * @param values the parameters of the session
+         */
+        SessionData(String sid, String host, Map<String, String> values) {
+            this.sid = sid;
+            this.host = host;
+            this.values = values;
+        }
+
+        @Override
+        public synchronized String get(Object key) {
+            return values.get(key);
+        }
+
+        @Override
+        public synchronized boolean containsKey(Object key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public synchronized String put(String key, String value) {
+            String old = values.put(key, value);
+            save();
+
+            return old;
+        }
+
+        @Override
+        public synchronized String remove(Object key) {
+            if (!values.containsKey(key)) {
+                return null;
+            }
+
+            String old = values.remove(key);
+            save();
+
+            return old;
+        }
+
+        @Override
+        public synchronized Set<Entry<String, String>> entrySet() {
+            return Collections.unmodifiableMap(new HashMap<>(values)).entrySet();
+        }
+
+        /**
+         * Appends the current state of the session to the file, unless the session has
+         * been removed in the meantime.
+         */
+        private void save() {
+            lock.readLock().lock();
+            try {
+                if (index.containsKey(sid)) {
+                    int position = append(sid, host, now() + timeout, values);
+                    index.replace(sid, position);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+}
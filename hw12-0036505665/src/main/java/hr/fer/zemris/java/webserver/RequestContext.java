@@ -2,8 +2,15 @@ package hr.fer.zemris.java.webserver;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * This class is used for storing client request parameters, generating HTTP headers
@@ -14,10 +21,41 @@ import java.util.*;
  */
 public class RequestContext {
 
+    /**
+     * The size of the buffer of the compressing stream.
+     */
+    private static final int COMPRESSION_BUFFER_SIZE = 8192;
+
+    /**
+     * The smallest size of the response buffer, so any character can be encoded into
+     * an empty buffer.
+     */
+    private static final int MIN_BUFFER_SIZE = 16;
+
+    /**
+     * The encoder most recently used by the current thread. Encoders are not
+     * thread-safe, so each thread keeps its own and replaces it only when a response
+     * uses a different charset.
+     */
+    private static final ThreadLocal<CharsetEncoder> ENCODER = new ThreadLocal<>();
+
     /**
      * An output stream for writing content.
      */
     private OutputStream outputStream;
+
+    /**
+     * The stream the content is written to once the header is generated. It wraps the
+     * {@link #outputStream} with chunking and compression if they are used.
+     */
+    private OutputStream body;
+
+    /**
+     * The buffer which collects content before it is written to the {@link #body}, or
+     * {@code null} if content is written directly.
+     */
+    private ByteBuffer buffer;
+
     /**
      * The charset used for byte-to-char conversion.
      */
@@ -69,6 +107,35 @@ public class RequestContext {
      */
     private boolean headerGenerated = false;
 
+    /**
+     * {@code true} if the connection should be kept open after this response.
+     */
+    private boolean keepAlive = false;
+
+    /**
+     * The number of seconds the server keeps an idle persistent connection open, or 0
+     * if it is not announced.
+     */
+    private int keepAliveTimeout;
+
+    /**
+     * The content coding accepted by the client, or {@code null} if the content
+     * should not be compressed.
+     */
+    private String contentEncoding;
+
+    /**
+     * The stream which writes chunked content, or {@code null} if the content is not
+     * chunked.
+     */
+    private ChunkedOutputStream chunkedStream;
+
+    /**
+     * The stream which compresses content, or {@code null} if the content is not
+     * compressed.
+     */
+    private DeflaterOutputStream compressingStream;
+
     /**
      * An object for dispatching URL requests.
      */
@@ -135,6 +202,15 @@ public class RequestContext {
         this.encoding = encoding;
     }
 
+    /**
+     * Returns the status code of the header.
+     *
+     * @return the status code of the header
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
     /**
      * Sets the status code of the header to a given status code.
      *
@@ -191,6 +267,82 @@ public class RequestContext {
         this.contentLength = contentLength;
     }
 
+    /**
+     * Sets whether the connection should be kept open after this response. If the
+     * content length is not known when the header is generated, a persistent
+     * response is sent using the chunked transfer encoding.
+     *
+     * @param keepAlive {@code true} if the connection should be kept open
+     * @throws RuntimeException if the header has already been generated
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        if (headerGenerated) {
+            throw new RuntimeException("Header already generated!");
+        }
+
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Sets the number of seconds the server keeps an idle persistent connection open,
+     * which is announced in the "Keep-Alive" header of a persistent response. A
+     * timeout of 0 is not announced, which is the default.
+     *
+     * @param keepAliveTimeout the timeout in seconds
+     * @throws RuntimeException if the header has already been generated
+     */
+    public void setKeepAliveTimeout(int keepAliveTimeout) {
+        if (headerGenerated) {
+            throw new RuntimeException("Header already generated!");
+        }
+
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+
+    /**
+     * Sets the size of the buffer which collects written content. If the whole content
+     * fits into the buffer, it is sent with a content length when the response is
+     * finished. Otherwise, the content is sent in parts whenever the buffer fills up,
+     * using the chunked transfer encoding for persistent responses. A size of 0
+     * disables buffering, which is the default.
+     *
+     * @param bufferSize the size of the buffer in bytes
+     * @throws RuntimeException if the header has already been generated
+     * @throws IllegalArgumentException if the size is negative
+     */
+    public void setBufferSize(int bufferSize) {
+        if (headerGenerated) {
+            throw new RuntimeException("Header already generated!");
+        }
+        if (bufferSize < 0) {
+            throw new IllegalArgumentException("Buffer size must not be negative!");
+        }
+
+        buffer = bufferSize == 0 ? null : ByteBuffer.allocate(Math.max(bufferSize, MIN_BUFFER_SIZE));
+    }
+
+    /**
+     * Sets the content coding used for compressing the content. Supported codings are
+     * "gzip" and "deflate", and {@code null} disables compression. The content is
+     * compressed only if its mime type is textual, in which case it is sent without
+     * a content length.
+     *
+     * @param contentEncoding the content coding accepted by the client or {@code null}
+     * @throws RuntimeException if the header has already been generated
+     * @throws IllegalArgumentException if the content coding is not supported
+     */
+    public void setContentEncoding(String contentEncoding) {
+        if (headerGenerated) {
+            throw new RuntimeException("Header already generated!");
+        }
+        if (contentEncoding != null && !contentEncoding.equals("gzip")
+                && !contentEncoding.equals("deflate")) {
+            throw new IllegalArgumentException("Unsupported content coding: " + contentEncoding);
+        }
+
+        this.contentEncoding = contentEncoding;
+    }
+
     /**
      * Returns the map of parameters.
      *
@@ -373,14 +525,7 @@ public class RequestContext {
      * @throws RuntimeException if the header has already been generated
      */
     public RequestContext write(byte[] data) throws IOException {
-        if (!headerGenerated) {
-            outputStream.write(generateHeader());
-            headerGenerated = true;
-        }
-
-        outputStream.write(data);
-
-        return this;
+        return write(data, 0, data.length);
     }
 
     /**
@@ -396,11 +541,25 @@ public class RequestContext {
      */
     public RequestContext write(byte[] data, int offset, int len) throws IOException {
         if (!headerGenerated) {
-            outputStream.write(generateHeader());
-            headerGenerated = true;
+            prepareHeader();
         }
 
-        outputStream.write(data, offset, len);
+        if (buffer == null) {
+            if (body == null) {
+                writeHeader();
+            }
+            body.write(data, offset, len);
+            return this;
+        }
+
+        if (len > buffer.remaining()) {
+            flushBuffer();
+            if (len > buffer.remaining()) {
+                body.write(data, offset, len);
+                return this;
+            }
+        }
+        buffer.put(data, offset, len);
 
         return this;
     }
@@ -415,24 +574,181 @@ public class RequestContext {
      */
     public RequestContext write(String text) throws IOException {
         if (!headerGenerated) {
-            outputStream.write(generateHeader());
-            headerGenerated = true;
+            prepareHeader();
+        }
+        if (buffer == null) {
+            return write(text.getBytes(charset));
         }
 
-        byte[] data = text.getBytes(charset);
-        outputStream.write(data);
+        CharsetEncoder encoder = getEncoder(charset);
+        CharBuffer in = CharBuffer.wrap(text);
+
+        while (encoder.encode(in, buffer, true).isOverflow()) {
+            flushBuffer();
+        }
+        while (encoder.flush(buffer).isOverflow()) {
+            flushBuffer();
+        }
 
         return this;
     }
 
     /**
-     * Creates a header and returns it in a byte array encoded with {@link #encoding}.
+     * Returns a reset encoder of the given charset owned by the current thread.
      *
-     * @return an encoded byte array of the header
+     * @param charset the charset of the encoder
+     * @return an encoder of the charset
+     */
+    private static CharsetEncoder getEncoder(Charset charset) {
+        CharsetEncoder encoder = ENCODER.get();
+
+        if (encoder == null || !encoder.charset().equals(charset)) {
+            encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            ENCODER.set(encoder);
+        }
+
+        return encoder.reset();
+    }
+
+    /**
+     * Writes the buffered content to the {@link #body}, writing the header first if it
+     * has not been written yet.
+     *
+     * @throws IOException if there was an issue with writing the content
+     */
+    private void flushBuffer() throws IOException {
+        if (body == null) {
+            writeHeader();
+        }
+
+        if (buffer.position() > 0) {
+            body.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Completes the current response. If nothing has been written yet, an empty
+     * response is generated. If the whole content is still buffered, it is sent with
+     * its length. Otherwise, the compressed content is finished and, if the content
+     * was sent in chunks, the terminating chunk is written.
+     *
+     * @throws IOException if there was an issue with completing the response
+     */
+    public void finish() throws IOException {
+        if (!headerGenerated) {
+            if (contentLength == null) {
+                contentLength = 0L;
+            }
+            contentEncoding = null;
+
+            prepareHeader();
+        }
+
+        if (body == null && buffer != null && contentLength == null
+                && !(contentEncoding != null && isCompressible(mimeType))) {
+            contentLength = (long) buffer.position();
+        }
+        if (buffer != null) {
+            flushBuffer();
+        } else if (body == null) {
+            writeHeader();
+        }
+
+        if (compressingStream != null) {
+            compressingStream.finish();
+            compressingStream = null;
+        }
+        if (chunkedStream != null) {
+            chunkedStream.finish();
+        }
+
+        outputStream.flush();
+    }
+
+    /**
+     * Fixes the header, so it can no longer be changed, and the charset of the
+     * content. The header is written once the content is known or does not fit into
+     * the buffer.
      */
-    private byte[] generateHeader() {
+    private void prepareHeader() {
         charset = Charset.forName(encoding);
+        headerGenerated = true;
+    }
+
+    /**
+     * Writes the header and prepares the {@link #body} stream for writing content.
+     *
+     * @throws IOException if there was an issue with writing the header
+     */
+    private void writeHeader() throws IOException {
+        boolean compressed = contentEncoding != null && isCompressible(mimeType);
+        boolean chunked = keepAlive && (contentLength == null || compressed);
+
+        outputStream.write(generateHeader(compressed, chunked));
+
+        body = outputStream;
+        if (chunked) {
+            body = chunkedStream = new ChunkedOutputStream(body);
+        }
+        if (compressed) {
+            body = compressingStream = createCompressingStream(body);
+        }
+    }
 
+    /**
+     * Creates a stream which compresses content using the {@link #contentEncoding}
+     * and writes it to the given stream. Finishing the created stream releases its
+     * deflater without closing the given stream.
+     *
+     * @param out the stream to write the compressed content to
+     * @return the created compressing stream
+     * @throws IOException if there was an issue with writing the gzip header
+     */
+    private DeflaterOutputStream createCompressingStream(OutputStream out) throws IOException {
+        if (contentEncoding.equals("gzip")) {
+            return new GZIPOutputStream(out, COMPRESSION_BUFFER_SIZE) {
+                @Override
+                public void finish() throws IOException {
+                    super.finish();
+                    def.end();
+                }
+            };
+        }
+
+        return new DeflaterOutputStream(out, new Deflater(), COMPRESSION_BUFFER_SIZE) {
+            @Override
+            public void finish() throws IOException {
+                super.finish();
+                def.end();
+            }
+        };
+    }
+
+    /**
+     * Returns {@code true} if content of the given mime type is worth compressing.
+     *
+     * @param mimeType the mime type to check
+     * @return {@code true} if content of the given mime type should be compressed
+     */
+    static boolean isCompressible(String mimeType) {
+        return mimeType.startsWith("text/")
+                || mimeType.startsWith("application/json")
+                || mimeType.startsWith("application/javascript")
+                || mimeType.startsWith("application/xml")
+                || mimeType.startsWith("image/svg+xml");
+    }
+
+    /**
+     * Creates a header and returns it in a byte array encoded with {@link #encoding}.
+     *
+     * @param compressed {@code true} if the content is compressed
+     * @param chunked {@code true} if the content is sent in chunks
+     * @return an encoded byte array of the header
+     */
+    private byte[] generateHeader(boolean compressed, boolean chunked) {
         StringBuilder sb = new StringBuilder();
 
         sb.append("HTTP/1.1 ").append(statusCode).append(" ").append(statusText);
@@ -444,10 +760,24 @@ public class RequestContext {
         }
         sb.append("\r\n");
 
-        if (contentLength != null) {
+        if (compressed) {
+            sb.append("Content-Encoding: ").append(contentEncoding).append("\r\n");
+            sb.append("Vary: Accept-Encoding\r\n");
+        }
+
+        if (chunked) {
+            sb.append("Transfer-Encoding: chunked\r\n");
+        } else if (contentLength != null && !compressed) {
             sb.append("Content-Length:").append(contentLength).append("\r\n");
         }
 
+        if (keepAlive) {
+            sb.append("Connection: keep-alive\r\n");
+            if (keepAliveTimeout > 0) {
+                sb.append("Keep-Alive: timeout=").append(keepAliveTimeout).append("\r\n");
+            }
+        }
+
         if (!outputCookies.isEmpty()) {
             outputCookies.forEach(
                     cookie -> sb.append(cookie.toString()).append("\r\n")
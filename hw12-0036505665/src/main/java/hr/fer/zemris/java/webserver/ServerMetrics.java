@@ -0,0 +1,212 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request metrics of a {@link SmartHttpServer}. For each route, the number of requests
+ * by status class, the number of sent bytes and a histogram of latencies are kept.
+ * Routes are the paths of web workers and smart scripts, while all static files share
+ * a single route. The numbers of queued and active requests are kept as well.
+ *
+ * All updates are lock-free. The metrics can be written in the plain-text format used
+ * by Prometheus scrapers.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class ServerMetrics {
+
+    /**
+     * The route of static files.
+     */
+    public static final String STATIC_ROUTE = "static";
+
+    /**
+     * The route of requests which were not dispatched to a route.
+     */
+    public static final String OTHER_ROUTE = "other";
+
+    /**
+     * The percentiles of latencies which are written.
+     */
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 100};
+
+    /**
+     * The labels of the written percentiles, as quantiles.
+     */
+    private static final String[] QUANTILES = {"0.5", "0.9", "0.99", "0.999", "1"};
+
+    /**
+     * The metrics of each route.
+     */
+    private ConcurrentHashMap<String, RouteMetrics> routes = new ConcurrentHashMap<>();
+
+    /**
+     * The number of requests waiting for a worker thread.
+     */
+    private AtomicInteger queuedRequests = new AtomicInteger();
+
+    /**
+     * The number of requests being processed.
+     */
+    private AtomicInteger activeRequests = new AtomicInteger();
+
+    /**
+     * Records that a request is waiting for a worker thread.
+     */
+    public void requestQueued() {
+        queuedRequests.incrementAndGet();
+    }
+
+    /**
+     * Records that a worker thread started processing a queued request.
+     */
+    public void requestStarted() {
+        queuedRequests.decrementAndGet();
+        activeRequests.incrementAndGet();
+    }
+
+    /**
+     * Records a processed request.
+     *
+     * @param route the route of the request
+     * @param statusCode the status code of the response
+     * @param bytesSent the number of bytes sent to the client
+     * @param nanos the time in nanoseconds it took to process the request
+     */
+    public void requestCompleted(String route, int statusCode, long bytesSent, long nanos) {
+        activeRequests.decrementAndGet();
+
+        RouteMetrics metrics = routes.get(route);
+        if (metrics == null) {
+            metrics = routes.computeIfAbsent(route, r -> new RouteMetrics());
+        }
+
+        metrics.statusCounts[Math.max(1, Math.min(statusCode / 100, 5)) - 1].increment();
+        metrics.bytesSent.add(bytesSent);
+        metrics.latency.record(nanos / 1000);
+    }
+
+    /**
+     * Returns the number of requests waiting for a worker thread.
+     *
+     * @return the number of queued requests
+     */
+    public int getQueuedRequests() {
+        return queuedRequests.get();
+    }
+
+    /**
+     * Returns the number of requests being processed.
+     *
+     * @return the number of active requests
+     */
+    public int getActiveRequests() {
+        return activeRequests.get();
+    }
+
+    /**
+     * Returns the latency histogram of the given route in microseconds, or
+     * {@code null} if no request of the route was recorded.
+     *
+     * @param route the route
+     * @return the latency histogram of the route or {@code null}
+     */
+    public LatencyHistogram getLatency(String route) {
+        RouteMetrics metrics = routes.get(route);
+
+        return metrics == null ? null : metrics.latency;
+    }
+
+    /**
+     * Appends the metrics in the Prometheus plain-text format to the given builder.
+     *
+     * @param sb the builder to append to
+     */
+    public void writeTo(StringBuilder sb) {
+        Map<String, RouteMetrics> sorted = new TreeMap<>(routes);
+
+        sb.append("# TYPE smarthttp_requests_total counter\n");
+        sorted.forEach((route, metrics) -> {
+            for (int i = 0; i < metrics.statusCounts.length; i++) {
+                long count = metrics.statusCounts[i].sum();
+                if (count > 0) {
+                    sb.append("smarthttp_requests_total{route=\"").append(escape(route))
+                            .append("\",status=\"").append(i + 1).append("xx\"} ")
+                            .append(count).append('\n');
+                }
+            }
+        });
+
+        sb.append("# TYPE smarthttp_response_bytes_total counter\n");
+        sorted.forEach((route, metrics) -> sb.append("smarthttp_response_bytes_total{route=\"")
+                .append(escape(route)).append("\"} ").append(metrics.bytesSent.sum()).append('\n')
+        );
+
+        sb.append("# TYPE smarthttp_request_duration_microseconds summary\n");
+        sorted.forEach((route, metrics) -> {
+            String label = "{route=\"" + escape(route) + "\"";
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                sb.append("smarthttp_request_duration_microseconds").append(label)
+                        .append(",quantile=\"").append(QUANTILES[i]).append("\"} ")
+                        .append(metrics.latency.getPercentile(PERCENTILES[i])).append('\n');
+            }
+            sb.append("smarthttp_request_duration_microseconds_sum").append(label).append("} ")
+                    .append(metrics.latency.getSum()).append('\n');
+            sb.append("smarthttp_request_duration_microseconds_count").append(label).append("} ")
+                    .append(metrics.latency.getCount()).append('\n');
+        });
+
+        gauge(sb, "smarthttp_queued_requests", getQueuedRequests());
+        gauge(sb, "smarthttp_active_requests", getActiveRequests());
+    }
+
+    /**
+     * Appends a gauge in the Prometheus plain-text format to the given builder.
+     *
+     * @param sb the builder to append to
+     * @param name the name of the gauge
+     * @param value the value of the gauge
+     */
+    static void gauge(StringBuilder sb, String name, long value) {
+        sb.append("# TYPE ").append(name).append(" gauge\n")
+                .append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Escapes a given label value.
+     *
+     * @param value the label value
+     * @return the escaped label value
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * This class represents the metrics of a single route.
+     */
+    private static class RouteMetrics {
+
+        /**
+         * The number of requests for each status class, from 1xx to 5xx.
+         */
+        LongAdder[] statusCounts = {
+                new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder()
+        };
+
+        /**
+         * The number of bytes sent to clients.
+         */
+        LongAdder bytesSent = new LongAdder();
+
+        /**
+         * The latencies of requests in microseconds.
+         */
+        LatencyHistogram latency = new LatencyHistogram();
+    }
+}
@@ -0,0 +1,50 @@
+package hr.fer.zemris.java.webserver;
+
+import java.security.SecureRandom;
+import java.util.Random;
+
+/**
+ * Generates session IDs. Each thread uses its own {@link SecureRandom}, so threads
+ * creating sessions do not compete for a shared generator.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+final class SessionIds {
+
+    /**
+     * The letters session IDs consist of.
+     */
+    private static final char[] SID_LETTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+
+    /**
+     * The length of session IDs.
+     */
+    private static final int SID_LENGTH = 20;
+
+    /**
+     * The session ID generator of each thread.
+     */
+    private static final ThreadLocal<Random> SID_RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
+    /**
+     * Disables instantiation.
+     */
+    private SessionIds() {}
+
+    /**
+     * Generates a session id consisting of 20 random uppercase letters.
+     *
+     * @return a session id consisting of 20 random uppercase letters
+     */
+    static String generate() {
+        Random random = SID_RANDOM.get();
+        char[] sidChars = new char[SID_LENGTH];
+
+        for (int i = 0; i < SID_LENGTH; i++) {
+            sidChars[i] = SID_LETTERS[random.nextInt(SID_LETTERS.length)];
+        }
+
+        return new String(sidChars);
+    }
+}
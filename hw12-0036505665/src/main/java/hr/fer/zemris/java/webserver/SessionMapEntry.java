@@ -0,0 +1,49 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Map;
+
+/**
+ * This class represents a stored user session. The expiration time of a session is
+ * extended on each request which uses it, possibly by a different thread than the one
+ * that created it, so it is kept in a volatile field.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+class SessionMapEntry {
+
+    /**
+     * A large random identifier of this session.
+     */
+    final String sid;
+
+    /**
+     * The host of this session.
+     */
+    final String host;
+
+    /**
+     * The time in seconds until this object is valid.
+     */
+    volatile long validUntil;
+
+    /**
+     * A map for storing the client's data.
+     */
+    final Map<String, String> map;
+
+    /**
+     * Constructs a new {@link SessionMapEntry} of the given parameters.
+     *
+     * @param sid the identifier of this session
+     * @param host the host of this session
+     * @param validUntil the time in seconds until this object is valid
+     * @param map a map for storing the client's data
+     */
+    SessionMapEntry(String sid, String host, long validUntil, Map<String, String> map) {
+        this.sid = sid;
+        this.host = host;
+        this.validUntil = validUntil;
+        this.map = map;
+    }
+}
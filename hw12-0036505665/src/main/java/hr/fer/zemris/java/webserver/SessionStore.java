@@ -0,0 +1,56 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A thread-safe store of user sessions used by {@link SmartHttpServer}. The store is
+ * chosen by the "session.store" property of the server config file.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+interface SessionStore extends Closeable {
+
+    /**
+     * Returns the valid session of the given ID and host and extends its duration, or
+     * {@code null} if there is no such session.
+     *
+     * @param sid the ID of the session
+     * @param host the host of the session
+     * @return the session or {@code null}
+     */
+    SessionMapEntry get(String sid, String host);
+
+    /**
+     * Creates and stores a new session of the given host with a new random ID.
+     *
+     * @param host the host of the session
+     * @return the created session
+     */
+    SessionMapEntry create(String host);
+
+    /**
+     * Removes the expired sessions from this store.
+     *
+     * @return the number of removed sessions
+     */
+    int sweep();
+
+    /**
+     * Returns the number of stored sessions, including the expired ones which have
+     * not been removed yet.
+     *
+     * @return the number of stored sessions
+     */
+    int size();
+
+    /**
+     * Releases the resources used by this store. The default implementation does
+     * nothing.
+     *
+     * @throws IOException if there was an issue with releasing the resources
+     */
+    @Override
+    default void close() throws IOException {}
+}
@@ -1,21 +1,41 @@
 package hr.fer.zemris.java.webserver;
 
 import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
-import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.webserver.workers.MetricsWorker;
 
 import java.io.*;
+import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
  * {@link SmartHttpServer} is a server used for processing HTTP requests. To start
@@ -30,6 +50,14 @@ import java.util.concurrent.Executors;
  * http://www.localhost.com:5721/index.html
  * http://www.localhost.com:5721/fruits.png
  *
+ * If "server.nio" is enabled in the config file, connections are accepted by a
+ * {@link Selector}-based front end which keeps them open between requests and
+ * supports pipelined requests.
+ *
+ * If "server.executionMode" is "virtual", each request is processed on its own
+ * virtual thread instead of the fixed thread pool, and "server.maxConcurrentRequests"
+ * limits how many requests are processed at once.
+ *
  * @author Bruna Dujmović
  *
  */
@@ -37,6 +65,35 @@ public class SmartHttpServer {
 
     private static final String DEFAULT_MIME = "application/octet-stream";
 
+    /**
+     * The maximum size of a request line and headers in bytes.
+     */
+    private static final int MAX_REQUEST_SIZE = 64 * 1024;
+
+    /**
+     * The size of the buffers used for reading requests.
+     */
+    private static final int NIO_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The buffer each worker thread uses for reading requests from sockets.
+     */
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(NIO_BUFFER_SIZE));
+
+    /**
+     * The number of milliseconds the NIO front end waits for events before checking
+     * if it should stop, which is also how often idle connections are closed.
+     */
+    private static final long SELECT_TIMEOUT = 500;
+
+    /**
+     * The format of dates in HTTP headers.
+     */
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.ENGLISH)
+            .withZone(ZoneOffset.UTC);
+
     /**
      * The address of the server.
      */
@@ -57,25 +114,85 @@ public class SmartHttpServer {
      */
     private int workerThreads;
 
+    /**
+     * The mode of running workers, "pool" for a fixed thread pool or "virtual" for a
+     * virtual thread per request.
+     */
+    private String executionMode;
+
+    /**
+     * The maximum number of requests processed at once in the "virtual" execution mode.
+     */
+    private int maxConcurrentRequests;
+
+    /**
+     * The permits for processing requests, or {@code null} if the number of requests
+     * processed at once is limited by the thread pool.
+     */
+    private Semaphore admission;
+
     /**
      * The value of the session timeout.
      */
     private int sessionTimeout;
 
+    /**
+     * The maximum size of a request body in bytes.
+     */
+    private int maxRequestBodySize;
+
+    /**
+     * The size of the buffer of generated responses in bytes, or 0 if they are not
+     * buffered.
+     */
+    private int responseBufferSize;
+
+    /**
+     * {@code true} if the NIO front end with persistent connections should be used.
+     */
+    private boolean nio;
+
+    /**
+     * The number of seconds after which an idle persistent connection of the NIO front
+     * end is closed, or 0 if idle connections are kept open.
+     */
+    private int keepAliveTimeout;
+
     /**
      * Mime types of this server.
      */
     private Map<String,String> mimeTypes = new HashMap<>();
 
     /**
-     * A map of web workers.
+     * The table of web workers.
+     */
+    private WorkerRoutes workerRoutes;
+
+    /**
+     * The interval in seconds between checks of the workers config file for changes.
+     */
+    private int workersReloadInterval;
+
+    /**
+     * The request metrics of this server.
+     */
+    private ServerMetrics metrics = new ServerMetrics();
+
+    /**
+     * The path at which the metrics are served to local clients, or {@code null} if
+     * they are not served.
+     */
+    private String metricsPath;
+
+    /**
+     * The worker which serves the metrics.
      */
-    private Map<String,IWebWorker> workersMap = new HashMap<>();
+    private IWebWorker metricsWorker = new MetricsWorker(this);
 
     /**
      * The server thread.
      */
-    private ServerThread serverThread;
+    private Thread serverThread;
 
     /**
      * The thread pool.
@@ -88,14 +205,39 @@ public class SmartHttpServer {
     private Path documentRoot;
 
     /**
-     * A map of session data.
+     * A cache of parsed smart scripts.
      */
-    private Map<String, SessionMapEntry> sessions = new HashMap<>();
+    private SmartScriptCache scriptCache;
 
     /**
-     * A random number generator for session IDs.
+     * {@code true} if smart scripts should be compiled instead of interpreted.
      */
-    private Random sessionRandom = new Random();
+    private boolean compileScripts;
+
+    /**
+     * A cache of small static files.
+     */
+    private StaticFileCache fileCache;
+
+    /**
+     * {@code true} if responses should be compressed for clients which accept it.
+     */
+    private boolean compression;
+
+    /**
+     * The interval in seconds between removals of expired sessions.
+     */
+    private int sessionSweepInterval;
+
+    /**
+     * The store of session data.
+     */
+    private SessionStore sessions;
+
+    /**
+     * The executor which periodically removes expired sessions and reloads workers.
+     */
+    private ScheduledExecutorService scheduler;
 
     /**
      * A flag for signalizing when the server thread should stop.
@@ -117,8 +259,47 @@ public class SmartHttpServer {
             domainName = properties.getProperty("server.domainName");
             port = Integer.parseInt(properties.getProperty("server.port"));
             workerThreads = Integer.parseInt(properties.getProperty("server.workerThreads"));
+            executionMode = properties.getProperty("server.executionMode", "pool");
+            maxConcurrentRequests = Integer.parseInt(
+                    properties.getProperty("server.maxConcurrentRequests", "1000")
+            );
             sessionTimeout = Integer.parseInt(properties.getProperty("session.timeout"));
+            sessionSweepInterval = Integer.parseInt(
+                    properties.getProperty("session.sweepInterval", "60")
+            );
+            if ("file".equals(properties.getProperty("session.store", "memory"))) {
+                sessions = new MappedFileSessionStore(
+                        Paths.get(properties.getProperty("session.file", "sessions.db")),
+                        sessionTimeout
+                );
+            } else {
+                sessions = new InMemorySessionStore(sessionTimeout);
+            }
+            nio = Boolean.parseBoolean(properties.getProperty("server.nio", "false"));
+            keepAliveTimeout = Integer.parseInt(
+                    properties.getProperty("server.keepAliveTimeout", "15")
+            );
+            maxRequestBodySize = Integer.parseInt(
+                    properties.getProperty("server.maxRequestBodySize", "1048576")
+            );
+            responseBufferSize = Integer.parseInt(
+                    properties.getProperty("server.responseBufferSize", "8192")
+            );
             documentRoot = Paths.get(properties.getProperty("server.documentRoot"));
+            compileScripts = Boolean.parseBoolean(
+                    properties.getProperty("server.compileScripts", "false")
+            );
+            compression = Boolean.parseBoolean(
+                    properties.getProperty("server.compression", "false")
+            );
+            fileCache = new StaticFileCache(
+                    Long.parseLong(properties.getProperty("server.fileCacheSize", "4194304")),
+                    Long.parseLong(properties.getProperty("server.fileCacheMaxFileSize", "65536")),
+                    Long.parseLong(properties.getProperty("server.compressedFileMaxSize", "1048576"))
+            );
+            scriptCache = new SmartScriptCache(
+                    Integer.parseInt(properties.getProperty("server.scriptCacheSize", "64"))
+            );
 
             Path mimeConfig = Paths.get(properties.getProperty("server.mimeConfig"));
             List<String> lines = Files.readAllLines(mimeConfig);
@@ -129,59 +310,103 @@ public class SmartHttpServer {
                 }
             }
 
-            Path workers = Paths.get(properties.getProperty("server.workers"));
-            lines = Files.readAllLines(workers);
-            for (String line : lines) {
-                if (!line.isBlank() && !line.startsWith("#")) {
-                    String[] parts = line.split("\\s+=\\s+");
-                    String path = parts[0];
-                    String fqcn = parts[1];
-
-                    if (workersMap.containsKey("path")) {
-                        throw new IllegalArgumentException("Multiple lines have the same path!");
-                    }
-
-                    Class<?> referenceToClass = this.getClass().getClassLoader().loadClass(fqcn);
-                    Object newObject = referenceToClass.newInstance();
-                    IWebWorker iww = (IWebWorker) newObject;
-                    workersMap.put(path, iww);
-                }
+            metricsPath = properties.getProperty("server.metricsPath", "");
+            if (metricsPath.isEmpty()) {
+                metricsPath = null;
             }
-            
+            workersReloadInterval = Integer.parseInt(
+                    properties.getProperty("server.workersReloadInterval", "0")
+            );
+            workerRoutes = new WorkerRoutes(
+                    Paths.get(properties.getProperty("server.workers")),
+                    this.getClass().getClassLoader()
+            );
+            workerRoutes.reload();
+
         } catch (IOException e) {
             System.out.println("IOException when reading server config file!");
         } catch (IllegalArgumentException e) {
             System.out.println("Config file contains invalid data!");
-        } catch (IllegalAccessException | InstantiationException | ClassNotFoundException e) {
+        } catch (ReflectiveOperationException | ClassCastException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Returns the cache of parsed smart scripts used by this server.
+     *
+     * @return the cache of parsed smart scripts
+     */
+    public SmartScriptCache getScriptCache() {
+        return scriptCache;
+    }
+
+    /**
+     * Returns the cache of small static files used by this server.
+     *
+     * @return the cache of small static files
+     */
+    public StaticFileCache getFileCache() {
+        return fileCache;
+    }
+
+    /**
+     * Returns the request metrics of this server.
+     *
+     * @return the request metrics
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Appends the request metrics and the state of the caches and the session store in
+     * the Prometheus plain-text format to the given builder.
+     *
+     * @param sb the builder to append to
+     */
+    public void writeMetrics(StringBuilder sb) {
+        metrics.writeTo(sb);
+
+        ServerMetrics.gauge(sb, "smarthttp_sessions", sessions.size());
+        ServerMetrics.gauge(sb, "smarthttp_file_cache_bytes", fileCache.size());
+        ServerMetrics.gauge(sb, "smarthttp_file_cache_hits", fileCache.getHits());
+        ServerMetrics.gauge(sb, "smarthttp_file_cache_misses", fileCache.getMisses());
+        ServerMetrics.gauge(sb, "smarthttp_script_cache_hits", scriptCache.getHits());
+        ServerMetrics.gauge(sb, "smarthttp_script_cache_misses", scriptCache.getMisses());
+    }
+
     /**
      * Starts the server threat if not already running.
      */
     protected synchronized void start() {
         if (serverThread == null || !serverThread.isAlive()) {
-            serverThread = new ServerThread();
-            serverThread.start();
             stop = false;
+            if ("virtual".equals(executionMode)) {
+                threadPool = newVirtualThreadExecutor();
+                admission = new Semaphore(maxConcurrentRequests);
+            } else {
+                threadPool = Executors.newFixedThreadPool(workerThreads);
+                admission = null;
+            }
 
-            threadPool = Executors.newFixedThreadPool(workerThreads);
-        }
+            serverThread = nio ? new NioServerThread() : new ServerThread();
+            serverThread.start();
 
-        Thread cleaner = new Thread(() -> {
-            sessions.forEach((sid, entry) -> {
-                if (entry.validUntil < System.currentTimeMillis() / 1000) {
-                    sessions.remove(sid);
-                }
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread schedulerThread = new Thread(r, "server-scheduler");
+                schedulerThread.setDaemon(true);
+                return schedulerThread;
             });
-
-            try {
-                Thread.sleep(5 * 60 * 1000);
-            } catch (InterruptedException ignorable) {}
-        });
-        cleaner.setDaemon(true);
-        cleaner.start();
+            scheduler.scheduleWithFixedDelay(
+                    sessions::sweep, sessionSweepInterval, sessionSweepInterval, TimeUnit.SECONDS
+            );
+            if (workersReloadInterval > 0) {
+                scheduler.scheduleWithFixedDelay(this::reloadWorkers,
+                        workersReloadInterval, workersReloadInterval, TimeUnit.SECONDS
+                );
+            }
+        }
     }
 
     /**
@@ -190,33 +415,564 @@ public class SmartHttpServer {
     protected synchronized void stop() {
         try {
             stop = true;
+            serverThread.interrupt();
             serverThread.join();
         } catch (InterruptedException ignorable) {}
 
         threadPool.shutdown();
+        scheduler.shutdownNow();
+
+        try {
+            sessions.close();
+        } catch (IOException e) {
+            System.out.println("IOException when closing the session store!");
+        }
+    }
+
+    /**
+     * Creates an executor which runs each task on a new virtual thread. Virtual threads
+     * are looked up reflectively, because they are not available in the Java version
+     * this server is compiled for. If the running JVM does not support them, an
+     * executor which runs each task on a new platform thread is returned instead.
+     *
+     * @return an executor which runs each task on a new thread
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.out.println("Virtual threads are not supported, using a thread per request!");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Returns the bytes of a response with the given status and no content.
+     *
+     * @param statusCode the status code of the response
+     * @param statusText the status text of the response
+     * @param keepAlive {@code true} if the connection is kept open after the response
+     * @return the bytes of the response
+     */
+    private byte[] errorResponse(int statusCode, String statusText, boolean keepAlive) {
+        return ("HTTP/1.1 " + statusCode + " " + statusText + "\r\n" +
+                "Server: SmartHttpServer\r\n" +
+                "Content-Type: text/plain;charset=UTF-8\r\n" +
+                "Content-Length: 0\r\n" +
+                "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n" +
+                keepAliveHeader(keepAlive) +
+                "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns the "Keep-Alive" header line announcing the {@link #keepAliveTimeout} of
+     * a persistent connection, or an empty string if there is no timeout or the
+     * connection is not kept open.
+     *
+     * @param keepAlive {@code true} if the connection is kept open after the response
+     * @return the "Keep-Alive" header line or an empty string
+     */
+    private String keepAliveHeader(boolean keepAlive) {
+        return keepAlive && keepAliveTimeout > 0 ?
+                "Keep-Alive: timeout=" + keepAliveTimeout + "\r\n" : "";
+    }
+
+    /**
+     * Reloads the web workers if the workers config file has changed. If the new
+     * config is invalid, the current workers are kept.
+     */
+    private void reloadWorkers() {
+        try {
+            if (workerRoutes.reload()) {
+                System.out.println("Reloaded workers config file.");
+            }
+        } catch (IOException e) {
+            System.out.println("IOException when reading workers config file!");
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.out.println("Workers config file contains invalid data: " + e);
+        }
+    }
+
+    /**
+     * This class models the server thread.
+     */
+    protected class ServerThread extends Thread {
+
+        @Override
+        public void run() {
+            try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+                serverChannel.bind(
+                        new InetSocketAddress(InetAddress.getByName(address), port)
+                );
+
+                while (!stop) {
+                    Socket client = serverChannel.accept().socket();
+                    ClientWorker cw = new ClientWorker(client);
+                    threadPool.submit(cw);
+                }
+
+            } catch (IOException e) {
+                if (!stop) {
+                    System.out.println("IOException when opening the server socket!");
+                }
+            }
+        }
     }
 
-    /**
-     * This class models the server thread.
-     */
-    protected class ServerThread extends Thread {
+    /**
+     * This class models the server thread of the NIO front end. It accepts and reads
+     * from all connections using a single {@link Selector}, hands every complete
+     * request to a {@link ClientWorker} in the thread pool and writes the responses
+     * back once they are ready.
+     */
+    protected class NioServerThread extends Thread {
+
+        /**
+         * The selector of this thread.
+         */
+        private Selector selector;
+
+        /**
+         * Connections whose state was changed by a worker and need their interest set
+         * updated.
+         */
+        private Queue<NioConnection> updatedConnections = new ConcurrentLinkedQueue<>();
+
+        /**
+         * The time in milliseconds when idle connections were last closed.
+         */
+        private long lastIdleCheck;
+
+        /**
+         * The time in milliseconds until which no connections are accepted, after
+         * accepting one has failed.
+         */
+        private long acceptPausedUntil;
+
+        @Override
+        public void run() {
+            try (Selector selector = Selector.open();
+                 ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+
+                this.selector = selector;
+
+                serverChannel.bind(
+                        new InetSocketAddress(InetAddress.getByName(address), port)
+                );
+                serverChannel.configureBlocking(false);
+                SelectionKey acceptKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+                while (!stop) {
+                    selector.select(SELECT_TIMEOUT);
+
+                    NioConnection updated;
+                    while ((updated = updatedConnections.poll()) != null) {
+                        updated.update();
+                    }
+
+                    long now = System.currentTimeMillis();
+                    if (now - lastIdleCheck >= SELECT_TIMEOUT) {
+                        lastIdleCheck = now;
+                        closeIdleConnections(now);
+                    }
+                    if (acceptKey.interestOps() == 0 && now >= acceptPausedUntil) {
+                        acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+                    }
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+
+                        if (!key.isValid()) {
+                            continue;
+                        }
+
+                        if (key.isAcceptable()) {
+                            try {
+                                accept(serverChannel);
+                            } catch (IOException e) {
+                                // most likely out of file descriptors, so accepting is
+                                // paused until some connections are closed
+                                System.out.println("IOException when accepting a connection: "
+                                        + e.getMessage());
+                                key.interestOps(0);
+                                acceptPausedUntil = now + SELECT_TIMEOUT;
+                            }
+                            continue;
+                        }
+
+                        NioConnection connection = (NioConnection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.write();
+                            }
+                        } catch (IOException e) {
+                            connection.close();
+                        }
+                    }
+                }
+
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() != null) {
+                        ((NioConnection) key.attachment()).close();
+                    }
+                }
+
+            } catch (IOException e) {
+                System.out.println("IOException when opening the server socket!");
+            }
+        }
+
+        /**
+         * Accepts a pending connection and registers it with the selector.
+         *
+         * @param serverChannel the channel to accept the connection from
+         * @throws IOException if the connection cannot be accepted
+         */
+        private void accept(ServerSocketChannel serverChannel) throws IOException {
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new NioConnection(channel, key));
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Closes the connections which have been idle for longer than the
+         * {@link #keepAliveTimeout}, unless there is no timeout.
+         *
+         * @param now the current time in milliseconds
+         */
+        private void closeIdleConnections(long now) {
+            if (keepAliveTimeout <= 0) {
+                return;
+            }
+
+            for (SelectionKey key : selector.keys()) {
+                NioConnection connection = (NioConnection) key.attachment();
+                if (connection != null && connection.isIdle(now, keepAliveTimeout * 1000L)) {
+                    connection.close();
+                }
+            }
+        }
+
+        /**
+         * This class models a persistent client connection of the NIO front end.
+         *
+         * Requests are processed one at a time in the order they were received, so
+         * pipelined requests are answered in order.
+         */
+        private class NioConnection {
+
+            /**
+             * The channel of this connection.
+             */
+            private SocketChannel channel;
+
+            /**
+             * The selection key of this connection.
+             */
+            private SelectionKey key;
+
+            /**
+             * The received bytes which have not been parsed yet.
+             */
+            private ByteBuffer readBuffer = ByteBuffer.allocate(NIO_BUFFER_SIZE);
+
+            /**
+             * The parser of the current request.
+             */
+            private HttpRequestParser parser = new HttpRequestParser(MAX_REQUEST_SIZE, maxRequestBodySize);
+
+            /**
+             * Responses waiting to be written to the channel.
+             */
+            private Queue<NioResponse> responses = new ArrayDeque<>();
+
+            /**
+             * {@code true} if the current request is complete and being processed.
+             */
+            private boolean processing;
+
+            /**
+             * {@code true} if this connection should be closed once all the queued
+             * requests are answered.
+             */
+            private boolean closing;
+
+            /**
+             * The time in milliseconds when the client last sent or received data, or
+             * when the last response became ready.
+             */
+            private long lastActivity = System.currentTimeMillis();
+
+            /**
+             * Constructs a {@link NioConnection} for the given channel.
+             *
+             * @param channel the channel of the connection
+             * @param key the selection key of the connection
+             */
+            NioConnection(SocketChannel channel, SelectionKey key) {
+                this.channel = channel;
+                this.key = key;
+            }
+
+            /**
+             * Returns the address of the client, or {@code null} if it is not known.
+             *
+             * @return the address of the client or {@code null}
+             */
+            InetAddress getRemoteAddress() {
+                try {
+                    SocketAddress address = channel.getRemoteAddress();
+                    if (address instanceof InetSocketAddress) {
+                        return ((InetSocketAddress) address).getAddress();
+                    }
+                } catch (IOException ignorable) {}
+
+                return null;
+            }
+
+            /**
+             * Reads the available bytes from the channel.
+             *
+             * @throws IOException if there was an issue with reading
+             */
+            synchronized void read() throws IOException {
+                int read = channel.read(readBuffer);
+                if (read == -1) {
+                    closing = true;
+                } else if (read > 0) {
+                    lastActivity = System.currentTimeMillis();
+                }
+
+                update();
+            }
+
+            /**
+             * Parses the received bytes unless a request is being processed, and hands
+             * the request to a worker once it is complete. Bytes of pipelined requests
+             * stay in the read buffer until the current request is answered.
+             */
+            private void parseReceived() {
+                if (processing) {
+                    return;
+                }
+
+                readBuffer.flip();
+                try {
+                    if (parser.parse(readBuffer)) {
+                        processing = true;
+                        threadPool.submit(new ClientWorker(parser, this));
+                    }
+                } catch (HttpParseException e) {
+                    responses.add(new NioResponse(
+                            errorResponse(e.getStatusCode(), e.getStatusText(), false), null, 0, 0
+                    ));
+                    readBuffer.clear();
+                    closing = true;
+                    return;
+                }
+                readBuffer.compact();
+            }
+
+            /**
+             * Writes as much of the pending responses to the channel as possible.
+             *
+             * @throws IOException if there was an issue with writing
+             */
+            synchronized void write() throws IOException {
+                lastActivity = System.currentTimeMillis();
+                while (!responses.isEmpty()) {
+                    NioResponse response = responses.peek();
+
+                    if (!response.write(channel)) {
+                        return;
+                    }
+                    responses.poll().close();
+                }
+
+                update();
+            }
+
+            /**
+             * Called by a worker once the response to the current request is ready.
+             *
+             * @param response the bytes of the response
+             * @param file the file whose region follows the bytes of the response, or
+             *             {@code null} if there is no such file
+             * @param position the position of the file region
+             * @param count the size of the file region
+             * @param keepAlive {@code true} if the connection should be kept open
+             */
+            synchronized void completed(byte[] response, FileChannel file, long position,
+                                        long count, boolean keepAlive) {
+                NioResponse nioResponse = new NioResponse(response, file, position, count);
+                if (!channel.isOpen()) {
+                    nioResponse.close();
+                    return;
+                }
+
+                responses.add(nioResponse);
+                processing = false;
+                parser.reset();
+                lastActivity = System.currentTimeMillis();
+
+                if (!keepAlive) {
+                    closing = true;
+                    readBuffer.clear();
+                }
+
+                updatedConnections.add(this);
+                selector.wakeup();
+            }
+
+            /**
+             * Starts processing the next request if possible, updates the interest set
+             * of this connection, and closes it once it is done.
+             */
+            synchronized void update() {
+                if (!channel.isOpen()) {
+                    return;
+                }
+
+                parseReceived();
+
+                if (closing && !processing && responses.isEmpty()) {
+                    close();
+                    return;
+                }
+
+                int interestOps = closing || !readBuffer.hasRemaining() ? 0 : SelectionKey.OP_READ;
+                if (!responses.isEmpty()) {
+                    interestOps |= SelectionKey.OP_WRITE;
+                }
+                key.interestOps(interestOps);
+            }
+
+            /**
+             * Returns {@code true} if no request of this connection is being processed
+             * and nothing has been sent or received for longer than the given time.
+             * This includes clients which stopped in the middle of a request or stopped
+             * reading their responses.
+             *
+             * @param now the current time in milliseconds
+             * @param timeout the longest allowed idle time in milliseconds
+             * @return {@code true} if this connection is idle
+             */
+            synchronized boolean isIdle(long now, long timeout) {
+                return !processing && now - lastActivity > timeout;
+            }
+
+            /**
+             * Closes this connection.
+             */
+            synchronized void close() {
+                key.cancel();
+                try {
+                    channel.close();
+                } catch (IOException ignorable) {}
+
+                responses.forEach(NioResponse::close);
+                responses.clear();
+            }
+        }
+
+        /**
+         * This class models a response of the NIO front end, which consists of bytes
+         * and an optional file region. The file region is transferred directly from
+         * the file channel to the socket channel.
+         */
+        private class NioResponse {
+
+            /**
+             * The bytes of the response.
+             */
+            private ByteBuffer bytes;
+
+            /**
+             * The file whose region follows the bytes, or {@code null}.
+             */
+            private FileChannel file;
+
+            /**
+             * The position of the next byte of the file region.
+             */
+            private long position;
+
+            /**
+             * The number of bytes of the file region which are left to write.
+             */
+            private long remaining;
+
+            /**
+             * Constructs a new {@link NioResponse}.
+             *
+             * @param bytes the bytes of the response
+             * @param file the file whose region follows the bytes, or {@code null}
+             * @param position the position of the file region
+             * @param count the size of the file region
+             */
+            NioResponse(byte[] bytes, FileChannel file, long position, long count) {
+                this.bytes = ByteBuffer.wrap(bytes);
+                this.file = file;
+                this.position = position;
+                this.remaining = (file == null) ? 0 : count;
+            }
+
+            /**
+             * Writes as much of this response to the given channel as possible.
+             *
+             * @param channel the channel to write to
+             * @return {@code true} if the whole response was written
+             * @throws IOException if there was an issue with writing
+             */
+            boolean write(SocketChannel channel) throws IOException {
+                if (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                    if (bytes.hasRemaining()) {
+                        return false;
+                    }
+                }
 
-        @Override
-        public void run() {
-            try {
-                ServerSocket serverSocket = new ServerSocket();
-                serverSocket.bind(
-                        new InetSocketAddress(InetAddress.getByName(address), port)
-                );
+                while (remaining > 0) {
+                    long transferred = file.transferTo(position, remaining, channel);
+                    if (transferred <= 0) {
+                        if (position >= file.size()) {
+                            throw new IOException("The file was truncated while being sent!");
+                        }
+                        return false;
+                    }
 
-                while (!stop) {
-                    Socket client = serverSocket.accept();
-                    ClientWorker cw = new ClientWorker(client);
-                    threadPool.submit(cw);
+                    position += transferred;
+                    remaining -= transferred;
                 }
 
-            } catch (IOException e) {
-                System.out.println("IOException when opening the server socket!");
+                return true;
+            }
+
+            /**
+             * Closes the file of this response.
+             */
+            void close() {
+                if (file != null) {
+                    try {
+                        file.close();
+                    } catch (IOException ignorable) {}
+                }
             }
         }
     }
@@ -227,14 +983,43 @@ public class SmartHttpServer {
     private class ClientWorker implements Runnable, IDispatcher {
 
         /**
-         * The socket of the client's request.
+         * The socket of the client's request, or {@code null} if the request was
+         * received by the NIO front end.
          */
         private Socket csocket;
 
         /**
-         * The input stream for reading from the client.
+         * The NIO connection the request was received on, or {@code null} if the
+         * request was received through {@link #csocket}.
+         */
+        private NioServerThread.NioConnection connection;
+
+        /**
+         * {@code true} if the connection should be kept open after the response.
+         */
+        private boolean keepAlive;
+
+        /**
+         * The parser holding the request.
+         */
+        private HttpRequestParser request;
+
+        /**
+         * The file whose region should be sent after the response bytes by the NIO
+         * front end, or {@code null}.
+         */
+        private FileChannel responseFile;
+
+        /**
+         * The position of the file region of the response.
          */
-        private PushbackInputStream istream;
+        private long responseFilePosition;
+
+        /**
+         * The size of the file region of the response.
+         */
+        private long responseFileCount;
+
         /**
          * The output stream for writing to the client.
          */
@@ -281,6 +1066,34 @@ public class SmartHttpServer {
          */
         private String SID;
 
+        /**
+         * The route of the request for the metrics, or {@code null} if the request was
+         * not dispatched.
+         */
+        private String route;
+
+        /**
+         * The status code of a response written without the {@link #context}, or 0.
+         */
+        private int status;
+
+        /**
+         * The value of {@link System#nanoTime()} when processing of the request started.
+         */
+        private long startTime;
+
+        /**
+         * The stream counting the bytes written to the socket, including the ones
+         * still buffered, or {@code null} if the request was received by the NIO front
+         * end.
+         */
+        private CountingOutputStream socketStream;
+
+        /**
+         * The number of bytes transferred directly from a file to the socket.
+         */
+        private long transferred;
+
         /**
          * Constructs a {@link ClientWorker} for the given socket.
          *
@@ -289,6 +1102,23 @@ public class SmartHttpServer {
         public ClientWorker(Socket csocket) {
             super();
             this.csocket = csocket;
+            this.request = new HttpRequestParser(MAX_REQUEST_SIZE, maxRequestBodySize);
+            metrics.requestQueued();
+        }
+
+        /**
+         * Constructs a {@link ClientWorker} for a request received by the NIO front
+         * end. The response is collected in memory and handed back to the connection.
+         *
+         * @param request the parser holding the complete request
+         * @param connection the connection the request was received on
+         */
+        ClientWorker(HttpRequestParser request, NioServerThread.NioConnection connection) {
+            super();
+            this.connection = connection;
+            this.request = request;
+            this.ostream = new ByteArrayOutputStream();
+            metrics.requestQueued();
         }
 
         /**
@@ -304,20 +1134,27 @@ public class SmartHttpServer {
             if (context == null) {
                 context = new RequestContext(ostream, params, permPrams,
                         outputCookies, tempParams, this, SID);
+                context.setKeepAlive(keepAlive);
+                context.setKeepAliveTimeout(keepAliveTimeout);
+                context.setBufferSize(responseBufferSize);
+                context.setContentEncoding(negotiateEncoding());
             }
 
             // check /ext/ convention
             if (urlPath.startsWith("/ext/")) {
-                String[] parts = urlPath.split("/");
-                String className = "hr.fer.zemris.java.webserver.workers." + parts[2];
+                int nameEnd = urlPath.indexOf('/', 5);
+                IWebWorker iww = workerRoutes.getExtWorker(
+                        urlPath.substring(5, nameEnd < 0 ? urlPath.length() : nameEnd)
+                );
+                if (iww == null) {
+                    sendError(404, "Worker Not Found");
+                    return;
+                }
 
-                Class<?> referenceToClass = this.getClass().getClassLoader().loadClass(className);
-                Object newObject = referenceToClass.newInstance();
-                IWebWorker iww = (IWebWorker) newObject;
+                setRoute(urlPath.substring(0, nameEnd < 0 ? urlPath.length() : nameEnd));
                 iww.processRequest(context);
 
-                ostream.flush();
-                csocket.close();
+                context.finish();
                 return;
             }
 
@@ -325,16 +1162,30 @@ public class SmartHttpServer {
             if ((urlPath.equals("/private") || urlPath.startsWith("/private/"))
                     && directCall) {
                 sendError(404, "Invalid URL");
-                csocket.close();
+                return;
+            }
+
+            // check if urlPath is the metrics path and the client is local
+            if (urlPath.equals(metricsPath) && directCall) {
+                if (!isLocalClient()) {
+                    sendError(404, "File Not Found");
+                    return;
+                }
+
+                setRoute(urlPath);
+                metricsWorker.processRequest(context);
+
+                context.finish();
                 return;
             }
 
             // check if urlPath is mapped to an IWebWorker
-            if (workersMap.containsKey(urlPath)) {
-                workersMap.get(urlPath).processRequest(context);
+            IWebWorker worker = workerRoutes.get(urlPath);
+            if (worker != null) {
+                setRoute(urlPath);
+                worker.processRequest(context);
 
-                ostream.flush();
-                csocket.close();
+                context.finish();
                 return;
             }
 
@@ -344,41 +1195,37 @@ public class SmartHttpServer {
 
             if (!requestedFile.toAbsolutePath().startsWith(documentRoot.toAbsolutePath())) {
                 sendError(403, "Forbidden");
-                csocket.close();
                 return;
             }
             if (!Files.exists(requestedFile) || !Files.isRegularFile(requestedFile)
                     || !Files.isReadable(requestedFile)) {
                 sendError(404, "File Not Found");
-                csocket.close();
                 return;
             }
 
             String extension = getExtension(requestedFile);
 
-            // if it's a smart script, parse it and create engine
+            // if it's a smart script, get its parsed tree and create engine
             if (extension.equalsIgnoreCase("smscr")) {
-                String documentBody = Files.readString(requestedFile);
-
-                new SmartScriptEngine(
-                        new SmartScriptParser(documentBody).getDocumentNode(),
-                        context
-                ).execute();
+                setRoute(scriptRoute(requestedFile));
+                if (compileScripts) {
+                    scriptCache.getCompiled(requestedFile).execute(context);
+                } else {
+                    new SmartScriptEngine(scriptCache.get(requestedFile), context).execute();
+                }
 
-                ostream.flush();
-                csocket.close();
+                context.finish();
                 return;
             }
 
             String mimeType = mimeTypes.getOrDefault(extension, DEFAULT_MIME);
+            setRoute(ServerMetrics.STATIC_ROUTE);
 
             context.setMimeType(mimeType);
             context.setStatusCode(200);
 
             long length = sendFileToClient(requestedFile, mimeType);
             context.setContentLength(length);
-
-            csocket.close();
         }
 
         @Override
@@ -386,144 +1233,211 @@ public class SmartHttpServer {
             internalDispatchRequest(urlPath, false);
         }
 
-        @Override
-        public void run() {
-            try {
-                istream = new PushbackInputStream(new BufferedInputStream(
-                        csocket.getInputStream()));
-                ostream = new BufferedOutputStream(csocket.getOutputStream());
+        /**
+         * Sets the route of the request for the metrics, unless it was already set by
+         * the path the client requested.
+         *
+         * @param route the route of the request
+         */
+        private void setRoute(String route) {
+            if (this.route == null) {
+                this.route = route;
+            }
+        }
 
-                List<String> request = readRequest();
-                if (request == null || request.size() < 1) {
-                    sendError(400, "Bad request");
-                    return;
-                }
+        /**
+         * Returns the route of the given smart script for the metrics, which is its
+         * path relative to the document root. Different request paths of the same
+         * script, such as "/scripts/./a.smscr", share the route, so the number of
+         * routes is bounded by the number of scripts.
+         *
+         * @param script the path of the smart script
+         * @return the route of the smart script
+         */
+        private String scriptRoute(Path script) {
+            Path relative = documentRoot.toAbsolutePath().normalize()
+                    .relativize(script.toAbsolutePath().normalize());
 
-                String firstLine = request.get(0);
+            StringBuilder route = new StringBuilder();
+            for (Path part : relative) {
+                route.append('/').append(part);
+            }
 
-                String[] extracted = firstLine.split(" ");
-                if (extracted.length != 3) {
-                    sendError(400, "Bad request");
-                    csocket.close();
-                    return;
+            return route.toString();
+        }
+
+        /**
+         * Returns {@code true} if the client is connected from the local machine.
+         *
+         * @return {@code true} if the client is connected from the local machine
+         */
+        private boolean isLocalClient() {
+            InetAddress address = connection != null ?
+                    connection.getRemoteAddress() : csocket.getInetAddress();
+
+            return address != null && address.isLoopbackAddress();
+        }
+
+        @Override
+        public void run() {
+            boolean admitted = false;
+            metrics.requestStarted();
+            startTime = System.nanoTime();
+
+            try {
+                if (csocket != null) {
+                    socketStream = new CountingOutputStream(
+                            new BufferedOutputStream(csocket.getOutputStream())
+                    );
+                    ostream = socketStream;
+
+                    try {
+                        if (!readRequest(csocket.getInputStream())) {
+                            sendError(400, "Bad request");
+                            return;
+                        }
+                    } catch (HttpParseException e) {
+                        sendError(e.getStatusCode(), e.getStatusText());
+                        return;
+                    }
+                    startTime = System.nanoTime();
                 }
 
-                method = extracted[0].toUpperCase();
-                if(!method.equalsIgnoreCase("GET")) {
+                method = request.getMethod().toUpperCase();
+                if (!method.equals("GET") && !method.equals("POST")) {
                     sendError(405, "Method Not Allowed");
-                    csocket.close();
                     return;
                 }
-                version = extracted[2].toUpperCase();
+                version = request.getVersion().toUpperCase();
                 if(!version.equals("HTTP/1.1")) {
                     sendError(505, "HTTP Version Not Supported");
-                    csocket.close();
                     return;
                 }
 
-                for (String header : request) {
-                    if (header.startsWith("Host: ")) {
-                        host = header.split(":")[1].trim();
-                        break;
-                    }
-                }
+                keepAlive = connection != null
+                        && !"close".equalsIgnoreCase(request.getHeader("Connection"));
 
-                checkSession(request);
+                host = request.getHeader("Host");
+                if (host == null || host.isEmpty()) {
+                    host = domainName;
+                } else if (host.indexOf(':') != -1) {
+                    host = host.substring(0, host.indexOf(':'));
+                }
 
-                String requestedPath = extracted[1];
-                String[] parts = requestedPath.split("\\?");
-                String path = parts[0];
-                if (parts.length == 2) {
-                    String paramString = parts[1];
-                    parseParameters(paramString);
+                if (admission != null) {
+                    admission.acquire();
+                    admitted = true;
                 }
 
+                checkSession();
+
+                request.forEachParameter(params::put);
+                String path = request.getPath();
+
                 internalDispatchRequest(path, true);
 
             } catch (IOException e) {
                 System.out.println("IOException in ClientWorker!");
+                failed();
             } catch (Exception e) {
                 System.out.println("Exception in ClientWorker!");
+                failed();
+            } finally {
+                if (admitted) {
+                    admission.release();
+                }
+                long bytesSent = closeConnection();
+
+                if (status == 0) {
+                    status = context != null ? context.getStatusCode() : 500;
+                }
+                metrics.requestCompleted(route != null ? route : ServerMetrics.OTHER_ROUTE,
+                        status, bytesSent, System.nanoTime() - startTime);
+            }
+        }
+
+        /**
+         * Handles a failure of processing the request, which is recorded with the
+         * status code 500 in the metrics. The connection is closed after the response,
+         * since a partially written response can't be completed, and a 500 response is
+         * sent if nothing has been written yet.
+         */
+        private void failed() {
+            status = 500;
+            keepAlive = false;
+            if (ostream == null || responseStarted()) {
+                return;
             }
+
+            try {
+                sendError(500, "Internal Server Error");
+            } catch (IOException ignorable) {}
         }
 
         /**
-         * Reads the client's request and returns a list of its headers.
+         * Returns {@code true} if any part of the response has been written.
          *
-         * @return a list of lines representing the headers of a client's request
-         * @throws IOException if there was an issue with reading the request
+         * @return {@code true} if any part of the response has been written
          */
-        private List<String> readRequest() throws IOException {
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            int state = 0;
+        private boolean responseStarted() {
+            if (connection != null) {
+                return ((ByteArrayOutputStream) ostream).size() > 0 || responseFile != null;
+            }
 
-            l:
-            while(true) {
-                int b = istream.read();
-                if (b == -1) return null;
-                if (b != 13) {
-                    bos.write(b);
-                }
+            return socketStream.getCount() > 0 || transferred > 0;
+        }
 
-                switch(state) {
-                    case 0:
-                        if (b == 13) { state = 1; } else if (b == 10) state = 4;
-                        break;
-                    case 1:
-                        if (b == 10) { state = 2; } else state = 0;
-                        break;
-                    case 2:
-                        if (b == 13) { state = 3; } else state = 0;
-                        break;
-                    case 3:
-                        if (b == 10) { break l; } else state = 0;
-                        break;
-                    case 4:
-                        if (b == 10) { break l; } else state = 0;
-                        break;
+        /**
+         * Closes the client's socket, or hands the collected response back to the NIO
+         * connection the request was received on.
+         *
+         * @return the number of bytes of the response
+         */
+        private long closeConnection() {
+            try {
+                if (ostream != null) {
+                    ostream.flush();
                 }
+            } catch (IOException ignorable) {}
+
+            if (connection != null) {
+                byte[] response = ((ByteArrayOutputStream) ostream).toByteArray();
+                connection.completed(response,
+                        responseFile, responseFilePosition, responseFileCount, keepAlive);
+                return response.length + (responseFile != null ? responseFileCount : 0);
             }
 
-            String requestStr = new String(
-                    bos.toByteArray(),
-                    StandardCharsets.US_ASCII
-            );
+            try {
+                csocket.close();
+            } catch (IOException ignorable) {}
 
-            return extractHeaders(requestStr);
+            return (socketStream != null ? socketStream.getCount() : 0) + transferred;
         }
 
         /**
-         * Extracts the headers from a request and returns them in a list.
+         * Reads the client's request from the given stream into {@link #request}.
          *
-         * @param requestStr the request containing the headers
-         * @return a list of headers extracted from the given request string
+         * @param is the stream to read from
+         * @return {@code true} if the request is complete, {@code false} if the stream
+         *         ended before that
+         * @throws IOException if there was an issue with reading the request
+         * @throws HttpParseException if the request is invalid
          */
-        private List<String> extractHeaders(String requestStr) {
-            List<String> headers = new ArrayList<>();
-            StringBuilder currentLine = null;
+        private boolean readRequest(InputStream is) throws IOException {
+            ByteBuffer buffer = READ_BUFFER.get();
 
-            for (String s : requestStr.split("\n")) {
-                if (s.isEmpty()) {
-                    break;
+            while (true) {
+                int read = is.read(buffer.array());
+                if (read == -1) {
+                    return false;
                 }
 
-                char c = s.charAt(0);
-
-                if (c == 9 || c == 32) {
-                    currentLine.append(s);
-                } else {
-                    if (currentLine != null) {
-                        headers.add(currentLine.toString());
-                    }
-                    currentLine = new StringBuilder(s);
+                buffer.clear();
+                buffer.limit(read);
+                if (request.parse(buffer)) {
+                    return true;
                 }
             }
-
-            if (currentLine.length() > 0) {
-                headers.add(currentLine.toString());
-            }
-
-            return headers;
         }
 
         /**
@@ -534,34 +1448,11 @@ public class SmartHttpServer {
          * @throws IOException if there was an issue with writing to the {@link #ostream}
          */
         private void sendError(int statusCode, String statusText) throws IOException {
-            ostream.write(
-                    ("HTTP/1.1 " + statusCode + " " +statusText + "\r\n" +
-                            "Server: SmartHttpServer\r\n" +
-                            "Content-Type: text/plain;charset=UTF-8\r\n" +
-                            "Content-Length: 0\r\n" +
-                            "Connection: close\r\n" +
-                            "\r\n").getBytes(StandardCharsets.US_ASCII)
-            );
+            status = statusCode;
+            ostream.write(errorResponse(statusCode, statusText, keepAlive));
             ostream.flush();
         }
 
-        /**
-         * Fills the {@link #params} map with data parsed from a given parameter string.
-         *
-         * @param parameterString the parameter string to parse
-         */
-        private void parseParameters(String parameterString) {
-            String[] parameterArray = parameterString.split("&");
-
-            for (String parameter : parameterArray) {
-                String[] parts = parameter.split("=");
-
-                if (parts.length == 2) {
-                    params.put(parts[0], parts[1]);
-                }
-            }
-        }
-
         /**
          * Returns the extension of a given path.
          *
@@ -576,148 +1467,332 @@ public class SmartHttpServer {
         }
 
         /**
-         * Sends the specified file to the client and returns its length.
+         * Sends the specified file to the client and returns the number of sent content
+         * bytes.
+         *
+         * A 304 response is sent if the request's "If-None-Match" or "If-Modified-Since"
+         * header shows that the client's copy is up to date, and a 206 response is sent
+         * for a satisfiable single "Range" header. Small files are sent from the
+         * {@link #fileCache}, and larger ones are transferred directly from the file
+         * channel to the socket. If a small file changes after its attributes are read,
+         * a 500 response is sent and the connection is closed.
          *
          * @param file the path of the file to send
          * @param mimeType the mime type for the file
-         * @return the length of the sent file
+         * @return the number of sent content bytes
          * @throws IOException if the was an issue with the sending
          */
         private long sendFileToClient(Path file, String mimeType) throws IOException {
-            long length = Files.size(file);
-
-            try (InputStream fis = new BufferedInputStream(Files.newInputStream(file))) {
-                ostream.write(("HTTP/1.1 200 OK \r\n" +
-                        "Server: simple java server\r\n" +
-                        "Content-Type: " + mimeType + "\r\n" +
-                        "Content-Length: " + length + "\r\n" +
-                        "Connection: close\r\n" +
-                        "\r\n").getBytes(StandardCharsets.US_ASCII)
-                );
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            long length = attributes.size();
+            long lastModified = attributes.lastModifiedTime().toMillis();
+
+            byte[] compressedContent = null;
+            if (RequestContext.isCompressible(mimeType) && "gzip".equals(negotiateEncoding())
+                    && request.getHeader("Range") == null) {
+                compressedContent = fileCache.getCompressed(file, length, lastModified);
+            }
+            boolean compressed = compressedContent != null;
+
+            String etag = "\"" + Long.toHexString(length) + "-"
+                    + Long.toHexString(lastModified) + (compressed ? "-gz" : "") + "\"";
+            String lastModifiedDate = HTTP_DATE.format(Instant.ofEpochMilli(lastModified));
+
+            StringBuilder header = new StringBuilder();
+            header.append("Server: simple java server\r\n")
+                    .append("ETag: ").append(etag).append("\r\n")
+                    .append("Last-Modified: ").append(lastModifiedDate).append("\r\n")
+                    .append("Accept-Ranges: bytes\r\n")
+                    .append(compression && RequestContext.isCompressible(mimeType) ?
+                            "Vary: Accept-Encoding\r\n" : "")
+                    .append("Connection: ").append(keepAlive ? "keep-alive" : "close")
+                    .append("\r\n")
+                    .append(keepAliveHeader(keepAlive));
+
+            if (isNotModified(etag, lastModified)) {
+                writeFileHeader(304, "Not Modified", header);
                 ostream.flush();
+                return 0;
+            }
 
-                byte[] buffer = new byte[1024];
-                int bytesRead;
-                while ((bytesRead = fis.read(buffer)) > 0) {
-                    ostream.write(buffer, 0, bytesRead);
-                }
+            long start = 0;
+            long end = length - 1;
+            long[] range = getRange(etag, lastModifiedDate, length);
+
+            if (range != null && range.length == 0) {
+                header.append("Content-Range: bytes */").append(length).append("\r\n")
+                        .append("Content-Length: 0\r\n");
+                writeFileHeader(416, "Range Not Satisfiable", header);
+                ostream.flush();
+                return 0;
+            }
+
+            header.append("Content-Type: ").append(mimeType).append("\r\n");
+
+            if (compressed) {
+                header.append("Content-Encoding: gzip\r\n")
+                        .append("Content-Length: ").append(compressedContent.length).append("\r\n");
+                writeFileHeader(200, "OK", header);
+                ostream.write(compressedContent);
+                ostream.flush();
+                return compressedContent.length;
+            }
+
+            if (range != null) {
+                start = range[0];
+                end = range[1];
+                header.append("Content-Range: bytes ").append(start).append("-").append(end)
+                        .append("/").append(length).append("\r\n");
+            }
+
+            byte[] content = fileCache.get(file, length, lastModified);
+            if (content != null && content.length != length) {
+                // the file was changed after its attributes were read
+                keepAlive = false;
+                sendError(500, "Internal Server Error");
+                return 0;
+            }
+
+            long count = end - start + 1;
+            header.append("Content-Length: ").append(count).append("\r\n");
+            writeFileHeader(range != null ? 206 : 200,
+                    range != null ? "Partial Content" : "OK", header);
+
+            if (content != null) {
+                ostream.write(content, (int) start, (int) count);
                 ostream.flush();
+                return count;
+            }
+
+            FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ);
+            if (connection != null) {
+                responseFile = fileChannel;
+                responseFilePosition = start;
+                responseFileCount = count;
+                return count;
+            }
+
+            ostream.flush();
+            try (fileChannel) {
+                WritableByteChannel target = csocket.getChannel() != null ?
+                        csocket.getChannel() : Channels.newChannel(ostream);
+
+                long position = start;
+                long remaining = count;
+                while (remaining > 0) {
+                    long transferred = fileChannel.transferTo(position, remaining, target);
+                    if (transferred <= 0) {
+                        break;
+                    }
+
+                    position += transferred;
+                    remaining -= transferred;
+                    this.transferred += transferred;
+                }
             }
 
-            return length;
+            return count;
         }
 
         /**
-         * Checks the currently stored sessions and cookies, and adds new ones if needed.
+         * Returns the content coding which should be used for compressing the response,
+         * based on the request's "Accept-Encoding" header. Gzip is preferred over
+         * deflate if the client accepts both equally.
          *
-         * @param headers a list of header lines
+         * @return "gzip", "deflate" or {@code null} if the response should not be
+         *         compressed
          */
-        private synchronized void checkSession(List<String> headers) {
-            String sidCandidate = null;
+        private String negotiateEncoding() {
+            String acceptEncoding = request.getHeader("Accept-Encoding");
+            if (!compression || acceptEncoding == null) {
+                return null;
+            }
 
-            for (String line : headers) {
-                if (!line.startsWith("Cookie:")) {
-                    continue;
+            double gzip = 0;
+            double deflate = 0;
+            for (String coding : acceptEncoding.split(",")) {
+                String[] parts = coding.split(";");
+                String name = parts[0].trim().toLowerCase();
+
+                double quality = 1;
+                for (int i = 1; i < parts.length; i++) {
+                    String parameter = parts[i].trim();
+                    if (parameter.startsWith("q=")) {
+                        try {
+                            quality = Double.parseDouble(parameter.substring(2));
+                        } catch (NumberFormatException e) {
+                            quality = 0;
+                        }
+                    }
                 }
 
-                String[] cookies = line.substring(8).split(";");
-                for (String cookie : cookies) {
-                    if (cookie.startsWith("sid=")) {
-                        sidCandidate = cookie.substring(5, cookie.length() - 1);
-                    }
+                if (name.equals("gzip") || name.equals("x-gzip")) {
+                    gzip = quality;
+                } else if (name.equals("deflate")) {
+                    deflate = quality;
                 }
             }
 
-            if (sidCandidate == null) {
-                sidCandidate = SID = generateSid();
-
+            if (gzip > 0 && gzip >= deflate) {
+                return "gzip";
+            } else if (deflate > 0) {
+                return "deflate";
             } else {
-                SessionMapEntry entry = sessions.get(SID = sidCandidate);
+                return null;
+            }
+        }
+
+        /**
+         * Writes the status line and the given header lines of a file response.
+         *
+         * @param statusCode the status code of the response
+         * @param statusText the status text of the response
+         * @param header the header lines of the response
+         * @throws IOException if there was an issue with writing the header
+         */
+        private void writeFileHeader(int statusCode, String statusText, StringBuilder header)
+                throws IOException {
 
-                if (entry != null && entry.host.equals(host)) {
-                    if (entry.validUntil < System.currentTimeMillis() / 1000) {
-                        sessions.remove(sidCandidate);
+            status = statusCode;
+            ostream.write(("HTTP/1.1 " + statusCode + " " + statusText + "\r\n" + header + "\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+        }
 
-                    } else {
-                        entry.validUntil = System.currentTimeMillis() / 1000 + sessionTimeout;
-                        permPrams = entry.map;
-                        return;
+        /**
+         * Returns {@code true} if the request's conditional headers show that the
+         * client's copy of a file with the given validators is up to date.
+         *
+         * @param etag the entity tag of the file
+         * @param lastModified the modification time of the file in milliseconds
+         * @return {@code true} if the client's copy is up to date
+         */
+        private boolean isNotModified(String etag, long lastModified) {
+            String ifNoneMatch = request.getHeader("If-None-Match");
+            if (ifNoneMatch != null) {
+                for (String tag : ifNoneMatch.split(",")) {
+                    tag = tag.trim();
+                    if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                        return true;
                     }
                 }
+
+                return false;
             }
 
-            SessionMapEntry entry = new SessionMapEntry(
-                    sidCandidate, host,
-                    System.currentTimeMillis() / 1000 + sessionTimeout,
-                    new ConcurrentHashMap<>()
-            );
-            sessions.put(sidCandidate, entry);
-            permPrams = entry.map;
+            String ifModifiedSince = request.getHeader("If-Modified-Since");
+            if (ifModifiedSince == null) {
+                return false;
+            }
+
+            try {
+                long since = ZonedDateTime.parse(
+                        ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME
+                ).toEpochSecond();
+
+                return lastModified / 1000 <= since;
 
-            outputCookies.add(new RequestContext.RCCookie(
-                    "sid", sidCandidate, null, host, "/", true
-            ));
+            } catch (DateTimeParseException e) {
+                return false;
+            }
         }
 
         /**
-         * Generates a session id consisting of 20 random uppercase letters.
+         * Returns the requested byte range of a file of the given length as an array of
+         * the first and the last byte position, an empty array if the range cannot be
+         * satisfied, or {@code null} if the whole file should be sent.
+         *
+         * Only a single range is supported, and the range is ignored if it is invalid
+         * or if the request's "If-Range" header does not match the file.
          *
-         * @return a session id consisting of 20 random uppercase letters
+         * @param etag the entity tag of the file
+         * @param lastModifiedDate the formatted modification time of the file
+         * @param length the length of the file
+         * @return the requested byte range, an empty array or {@code null}
          */
-        private String generateSid() {
-            char[] letters = "ABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
-            char[] sidChars = new char[20];
+        private long[] getRange(String etag, String lastModifiedDate, long length) {
+            String range = request.getHeader("Range");
+            if (range == null || !range.startsWith("bytes=") || range.indexOf(',') != -1) {
+                return null;
+            }
 
-            for (int i = 0; i < 20; i++) {
-                sidChars[i] = letters[sessionRandom.nextInt(20)];
+            String ifRange = request.getHeader("If-Range");
+            if (ifRange != null && !ifRange.equals(etag) && !ifRange.equals(lastModifiedDate)) {
+                return null;
             }
 
-            return new String(sidChars);
-        }
-    }
+            String spec = range.substring(6).trim();
+            int dash = spec.indexOf('-');
+            if (dash == -1) {
+                return null;
+            }
 
-    /**
-     * This class represents an entry in the {@link #sessions} map.
-     */
-    private static class SessionMapEntry {
+            long start;
+            long end;
+            try {
+                if (dash == 0) {
+                    long suffix = Long.parseLong(spec.substring(1));
+                    start = Math.max(length - suffix, 0);
+                    end = length - 1;
+                } else {
+                    start = Long.parseLong(spec.substring(0, dash));
+                    end = (dash == spec.length() - 1) ?
+                            length - 1 : Long.parseLong(spec.substring(dash + 1));
 
-        /**
-         * A large random identifier of this session.
-         */
-        String sid;
+                    // a last byte position before the first one makes the header invalid
+                    if (start < 0 || dash != spec.length() - 1 && end < start) {
+                        return null;
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
 
-        /**
-         * The host of this session.
-         */
-        String host;
+            if (start >= length) {
+                return new long[0];
+            }
+            end = Math.min(end, length - 1);
 
-        /**
-         * The time until this object is valid.
-         */
-        long validUntil;
+            return new long[] {start, end};
+        }
 
         /**
-         * A map for storing the client's data.
+         * Checks the currently stored sessions and cookies, and adds new ones if needed.
          */
-        Map<String, String> map;
+        private void checkSession() {
+            String sidCandidate = null;
 
-        /**
-         * Constructs a new {@link SessionMapEntry} of the given parameters.
-         *
-         * @param sid the identifier of this session
-         * @param host the host of this session
-         * @param validUntil the time until this object is valid
-         * @param map a map for storing the client's data
-         */
-        SessionMapEntry(String sid, String host, long validUntil, Map<String, String> map) {
-            this.sid = sid;
-            this.host = host;
-            this.validUntil = validUntil;
-            this.map = map;
+            for (int i = 0, n = request.getHeaderCount(); i < n; i++) {
+                if (!request.isHeader(i, "Cookie")) {
+                    continue;
+                }
+
+                String[] cookies = request.getHeaderValue(i).split(";");
+                for (String cookie : cookies) {
+                    cookie = cookie.trim();
+                    if (cookie.startsWith("sid=\"") && cookie.endsWith("\"") && cookie.length() > 5) {
+                        sidCandidate = cookie.substring(5, cookie.length() - 1);
+                    }
+                }
+            }
+
+            SessionMapEntry entry = null;
+            if (sidCandidate != null) {
+                entry = sessions.get(sidCandidate, host);
+            }
+
+            if (entry == null) {
+                entry = sessions.create(host);
+
+                outputCookies.add(new RequestContext.RCCookie(
+                        "sid", entry.sid, null, host, "/", true
+                ));
+            }
+
+            SID = entry.sid;
+            permPrams = entry.map;
         }
     }
 
-
     /**
      * The main method. Creates and starts the {@link SmartHttpServer}.
      *
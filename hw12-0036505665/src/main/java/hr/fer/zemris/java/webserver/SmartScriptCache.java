@@ -0,0 +1,208 @@
+package hr.fer.zemris.java.webserver;
+
+import hr.fer.zemris.java.custom.scripting.exec.CompiledScript;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe cache of parsed smart script documents. Documents are keyed by their
+ * path and are parsed again if the file was modified since it was cached. Once the
+ * cache is full, the least recently used document is evicted.
+ *
+ * Besides the parsed tree, the cache also holds the {@link CompiledScript} of each
+ * document, which is compiled the first time it is requested.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class SmartScriptCache {
+
+    /**
+     * The maximum number of cached documents.
+     */
+    private int capacity;
+
+    /**
+     * The cached documents in access order.
+     */
+    private Map<Path, CacheEntry> entries;
+
+    /**
+     * The number of requests answered from the cache.
+     */
+    private AtomicLong hits = new AtomicLong();
+
+    /**
+     * The number of requests which required parsing.
+     */
+    private AtomicLong misses = new AtomicLong();
+
+    /**
+     * Constructs a {@link SmartScriptCache} which holds at most the given number of
+     * documents.
+     *
+     * @param capacity the maximum number of cached documents
+     * @throws IllegalArgumentException if the given capacity is not positive
+     */
+    public SmartScriptCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Cache capacity must be positive!");
+        }
+
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, CacheEntry> eldest) {
+                return size() > SmartScriptCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the parsed document of the script at the given path. The script is read
+     * and parsed only if it is not cached or was modified since it was cached.
+     *
+     * @param script the path of the script
+     * @return the parsed document of the script
+     * @throws IOException if the script cannot be read
+     */
+    public DocumentNode get(Path script) throws IOException {
+        return entry(script).document;
+    }
+
+    /**
+     * Returns the compiled document of the script at the given path. The script is
+     * read, parsed and compiled only if it is not cached or was modified since it
+     * was cached.
+     *
+     * @param script the path of the script
+     * @return the compiled document of the script
+     * @throws IOException if the script cannot be read
+     */
+    public CompiledScript getCompiled(Path script) throws IOException {
+        CacheEntry entry = entry(script);
+
+        CompiledScript compiled = entry.compiled;
+        if (compiled == null) {
+            entry.compiled = compiled = CompiledScript.compile(entry.document);
+        }
+
+        return compiled;
+    }
+
+    /**
+     * Returns an up to date cache entry of the script at the given path.
+     *
+     * @param script the path of the script
+     * @return the cache entry of the script
+     * @throws IOException if the script cannot be read
+     */
+    private CacheEntry entry(Path script) throws IOException {
+        Path key = script.toAbsolutePath().normalize();
+        long lastModified = Files.getLastModifiedTime(key).toMillis();
+
+        CacheEntry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+
+        if (entry != null && entry.lastModified == lastModified) {
+            hits.incrementAndGet();
+            return entry;
+        }
+
+        misses.incrementAndGet();
+        entry = new CacheEntry(
+                new SmartScriptParser(Files.readString(key)).getDocumentNode(), lastModified
+        );
+
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+
+        return entry;
+    }
+
+    /**
+     * Removes all the cached documents.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Returns the number of currently cached documents.
+     *
+     * @return the number of currently cached documents
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the number of requests answered from the cache.
+     *
+     * @return the number of requests answered from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of requests which required parsing.
+     *
+     * @return the number of requests which required parsing
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SmartScriptCache[size=" + size() + ", capacity=" + capacity
+                + ", hits=" + getHits() + ", misses=" + getMisses() + "]";
+    }
+
+    /**
+     * This class represents a cached document.
+     */
+    private static class CacheEntry {
+
+        /**
+         * The parsed document.
+         */
+        DocumentNode document;
+
+        /**
+         * The modification time of the script when it was parsed.
+         */
+        long lastModified;
+
+        /**
+         * The compiled document, or {@code null} if it was not compiled yet.
+         */
+        volatile CompiledScript compiled;
+
+        /**
+         * Constructs a new {@link CacheEntry} of the given parameters.
+         *
+         * @param document the parsed document
+         * @param lastModified the modification time of the script when it was parsed
+         */
+        CacheEntry(DocumentNode document, long lastModified) {
+            this.document = document;
+            this.lastModified = lastModified;
+        }
+    }
+}
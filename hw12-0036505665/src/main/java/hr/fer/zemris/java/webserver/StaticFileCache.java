@@ -0,0 +1,306 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A thread-safe in-memory cache of the contents of small static files. Files are
+ * keyed by their path and are read again if their size or modification time has
+ * changed. The total size of the cached contents is bounded, and the least recently
+ * used files are evicted first.
+ *
+ * Besides the contents of small files, the cache also holds gzip-compressed variants
+ * of larger files, so they do not have to be compressed on every request. Only files
+ * no larger than the capacity of the cache get a compressed variant, since one which
+ * could not be cached would have to be compressed again on every request.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class StaticFileCache {
+
+    /**
+     * The maximum total size of the cached contents in bytes.
+     */
+    private long capacity;
+
+    /**
+     * The maximum size of a single cached file in bytes.
+     */
+    private long maxFileSize;
+
+    /**
+     * The maximum size in bytes of a single file whose compressed variant is cached.
+     */
+    private long maxCompressedFileSize;
+
+    /**
+     * The current total size of the cached contents in bytes.
+     */
+    private long size;
+
+    /**
+     * The cached files in access order.
+     */
+    private Map<CacheKey, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The number of requests answered from the cache.
+     */
+    private AtomicLong hits = new AtomicLong();
+
+    /**
+     * The number of requests for cacheable files which required reading the file.
+     */
+    private AtomicLong misses = new AtomicLong();
+
+    /**
+     * Constructs a {@link StaticFileCache} of the given capacity.
+     *
+     * @param capacity the maximum total size of the cached contents in bytes
+     * @param maxFileSize the maximum size of a single cached file in bytes
+     * @param maxCompressedFileSize the maximum size in bytes of a single file whose
+     *                              compressed variant is cached, limited to the capacity
+     * @throws IllegalArgumentException if the given sizes are negative
+     */
+    public StaticFileCache(long capacity, long maxFileSize, long maxCompressedFileSize) {
+        if (capacity < 0 || maxFileSize < 0 || maxCompressedFileSize < 0) {
+            throw new IllegalArgumentException("Cache sizes must not be negative!");
+        }
+
+        this.capacity = capacity;
+        this.maxFileSize = Math.min(maxFileSize, capacity);
+        this.maxCompressedFileSize = Math.min(maxCompressedFileSize, capacity);
+    }
+
+    /**
+     * Returns {@code true} if a file of the given size can be cached.
+     *
+     * @param fileSize the size of the file in bytes
+     * @return {@code true} if a file of the given size can be cached
+     */
+    public boolean isCacheable(long fileSize) {
+        return fileSize <= maxFileSize;
+    }
+
+    /**
+     * Returns the contents of the file at the given path, or {@code null} if the file
+     * is too large to be cached. The file is read only if it is not cached or if its
+     * size or modification time differ from the given ones.
+     *
+     * @param file the path of the file
+     * @param fileSize the current size of the file
+     * @param lastModified the current modification time of the file in milliseconds
+     * @return the contents of the file or {@code null}
+     * @throws IOException if the file cannot be read
+     */
+    public byte[] get(Path file, long fileSize, long lastModified) throws IOException {
+        if (!isCacheable(fileSize)) {
+            return null;
+        }
+
+        return get(new CacheKey(file, false), fileSize, lastModified);
+    }
+
+    /**
+     * Returns the gzip-compressed contents of the file at the given path, or
+     * {@code null} if the file or its compressed variant is too large to be cached.
+     * The file is read and compressed only if its compressed variant is not cached
+     * or if its size or modification time differ from the given ones.
+     *
+     * @param file the path of the file
+     * @param fileSize the current size of the file
+     * @param lastModified the current modification time of the file in milliseconds
+     * @return the gzip-compressed contents of the file or {@code null}
+     * @throws IOException if the file cannot be read
+     */
+    public byte[] getCompressed(Path file, long fileSize, long lastModified) throws IOException {
+        if (fileSize > maxCompressedFileSize) {
+            return null;
+        }
+
+        return get(new CacheKey(file, true), fileSize, lastModified);
+    }
+
+    /**
+     * Returns an up to date variant of a file specified by the given key.
+     *
+     * @param key the key of the file variant
+     * @param fileSize the current size of the file
+     * @param lastModified the current modification time of the file in milliseconds
+     * @return the contents of the file variant
+     * @throws IOException if the file cannot be read
+     */
+    private byte[] get(CacheKey key, long fileSize, long lastModified) throws IOException {
+        CacheEntry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+
+        if (entry != null && entry.fileSize == fileSize && entry.lastModified == lastModified) {
+            hits.incrementAndGet();
+            return entry.content;
+        }
+
+        misses.incrementAndGet();
+        byte[] content = Files.readAllBytes(key.path);
+        if (content.length != fileSize) {
+            return key.compressed ? null : content;
+        }
+        if (key.compressed) {
+            content = compress(content);
+        }
+        if (content.length > capacity) {
+            return key.compressed ? null : content;
+        }
+
+        synchronized (this) {
+            CacheEntry old = entries.put(key, new CacheEntry(content, fileSize, lastModified));
+            if (old != null) {
+                size -= old.content.length;
+            }
+            size += content.length;
+
+            Iterator<CacheEntry> it = entries.values().iterator();
+            while (size > capacity && it.hasNext()) {
+                size -= it.next().content.length;
+                it.remove();
+            }
+        }
+
+        return content;
+    }
+
+    /**
+     * Compresses the given data using gzip.
+     *
+     * @param data the data to compress
+     * @return the compressed data
+     * @throws IOException if there was an issue with compressing
+     */
+    private static byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length / 4 + 64);
+
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bos)) {
+            gzip.write(data);
+        }
+
+        return bos.toByteArray();
+    }
+
+    /**
+     * Returns the number of requests answered from the cache.
+     *
+     * @return the number of requests answered from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of requests for cacheable files which required reading the
+     * file.
+     *
+     * @return the number of requests which required reading the file
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the current total size of the cached contents in bytes.
+     *
+     * @return the current total size of the cached contents in bytes
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "StaticFileCache[size=" + size() + ", capacity=" + capacity
+                + ", hits=" + getHits() + ", misses=" + getMisses() + "]";
+    }
+
+    /**
+     * This class represents the key of a cached file variant.
+     */
+    private static class CacheKey {
+
+        /**
+         * The normalized absolute path of the file.
+         */
+        Path path;
+
+        /**
+         * {@code true} if this is the key of the compressed variant.
+         */
+        boolean compressed;
+
+        /**
+         * Constructs a new {@link CacheKey} of the given parameters.
+         *
+         * @param path the path of the file
+         * @param compressed {@code true} if this is the key of the compressed variant
+         */
+        CacheKey(Path path, boolean compressed) {
+            this.path = path.toAbsolutePath().normalize();
+            this.compressed = compressed;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CacheKey cacheKey = (CacheKey) o;
+            return compressed == cacheKey.compressed && path.equals(cacheKey.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, compressed);
+        }
+    }
+
+    /**
+     * This class represents a cached file variant.
+     */
+    private static class CacheEntry {
+
+        /**
+         * The contents of the file variant.
+         */
+        byte[] content;
+
+        /**
+         * The size of the file when it was read.
+         */
+        long fileSize;
+
+        /**
+         * The modification time of the file when it was read.
+         */
+        long lastModified;
+
+        /**
+         * Constructs a new {@link CacheEntry} of the given parameters.
+         *
+         * @param content the contents of the file variant
+         * @param fileSize the size of the file when it was read
+         * @param lastModified the modification time of the file when it was read
+         */
+        CacheEntry(byte[] content, long fileSize, long lastModified) {
+            this.content = content;
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The table of web workers used by {@link SmartHttpServer}. It maps the paths from the
+ * workers config file to their workers, and the names used with the "/ext/" convention
+ * to workers from the {@value #EXT_PACKAGE} package.
+ *
+ * Each worker class is instantiated only once and the instance serves all requests,
+ * so workers must be thread-safe. The configured routes are held in an immutable map
+ * which {@link #reload()} replaces when the config file changes, keeping the existing
+ * instances of workers whose classes did not change.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+class WorkerRoutes {
+
+    /**
+     * The package of the workers used with the "/ext/" convention.
+     */
+    static final String EXT_PACKAGE = "hr.fer.zemris.java.webserver.workers";
+
+    /**
+     * The path of the workers config file.
+     */
+    private Path config;
+
+    /**
+     * The class loader used for loading workers.
+     */
+    private ClassLoader classLoader;
+
+    /**
+     * The modification time of the config file when it was last loaded.
+     */
+    private FileTime lastModified;
+
+    /**
+     * The configured workers mapped by their paths.
+     */
+    private volatile Map<String, IWebWorker> routes = Collections.emptyMap();
+
+    /**
+     * The workers used with the "/ext/" convention mapped by their class names.
+     */
+    private ConcurrentHashMap<String, IWebWorker> extWorkers = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a {@link WorkerRoutes} for the given config file. The config file is
+     * not read until {@link #reload()} is called.
+     *
+     * @param config the path of the workers config file
+     * @param classLoader the class loader used for loading workers
+     */
+    WorkerRoutes(Path config, ClassLoader classLoader) {
+        this.config = config;
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * Returns the worker mapped to the given path, or {@code null} if there is none.
+     *
+     * @param path the url path
+     * @return the worker mapped to the given path or {@code null}
+     */
+    IWebWorker get(String path) {
+        return routes.get(path);
+    }
+
+    /**
+     * Returns the worker of the given simple class name from the {@value #EXT_PACKAGE}
+     * package, creating it on the first request. Returns {@code null} if there is no
+     * such worker.
+     *
+     * @param name the simple class name of the worker
+     * @return the worker or {@code null}
+     */
+    IWebWorker getExtWorker(String name) {
+        IWebWorker worker = extWorkers.get(name);
+        if (worker != null) {
+            return worker;
+        }
+
+        if (!isClassName(name)) {
+            return null;
+        }
+
+        try {
+            worker = createWorker(EXT_PACKAGE + "." + name);
+        } catch (ReflectiveOperationException | ClassCastException | LinkageError e) {
+            return null;
+        }
+
+        IWebWorker previous = extWorkers.putIfAbsent(name, worker);
+        return previous == null ? worker : previous;
+    }
+
+    /**
+     * Reads the config file if it has changed since it was last read, and replaces the
+     * configured routes. If reading fails, the current routes are kept until the config
+     * file changes again.
+     *
+     * @return {@code true} if the routes were replaced
+     * @throws IOException if the config file cannot be read
+     * @throws ReflectiveOperationException if a worker cannot be created
+     * @throws IllegalArgumentException if the config file contains invalid data
+     */
+    synchronized boolean reload() throws IOException, ReflectiveOperationException {
+        FileTime modified = Files.getLastModifiedTime(config);
+        if (modified.equals(lastModified)) {
+            return false;
+        }
+
+        lastModified = modified;
+
+        Map<String, IWebWorker> current = routes;
+        Map<String, IWebWorker> newRoutes = new HashMap<>();
+
+        List<String> lines = Files.readAllLines(config);
+        for (String line : lines) {
+            if (!line.isBlank() && !line.startsWith("#")) {
+                String[] parts = line.split("\\s+=\\s+");
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("Invalid line: " + line);
+                }
+
+                String path = parts[0];
+                String fqcn = parts[1].trim();
+
+                if (newRoutes.containsKey(path)) {
+                    throw new IllegalArgumentException("Multiple lines have the same path!");
+                }
+
+                IWebWorker worker = current.get(path);
+                if (worker == null || !worker.getClass().getName().equals(fqcn)) {
+                    worker = createWorker(fqcn);
+                }
+                newRoutes.put(path, worker);
+            }
+        }
+
+        routes = Collections.unmodifiableMap(newRoutes);
+
+        return true;
+    }
+
+    /**
+     * Creates a new instance of the worker of the given fully qualified class name.
+     *
+     * @param fqcn the fully qualified class name of the worker
+     * @return the created worker
+     * @throws ReflectiveOperationException if the worker cannot be created
+     * @throws ClassCastException if the class is not a worker
+     */
+    private IWebWorker createWorker(String fqcn) throws ReflectiveOperationException {
+        Class<?> referenceToClass = classLoader.loadClass(fqcn);
+        Object newObject = referenceToClass.getDeclaredConstructor().newInstance();
+
+        return (IWebWorker) newObject;
+    }
+
+    /**
+     * Returns {@code true} if the given string can be a simple class name.
+     *
+     * @param name the string to check
+     * @return {@code true} if the given string can be a simple class name
+     */
+    private static boolean isClassName(String name) {
+        if (name.isEmpty() || !Character.isJavaIdentifierStart(name.charAt(0))) {
+            return false;
+        }
+
+        for (int i = 1; i < name.length(); i++) {
+            if (!Character.isJavaIdentifierPart(name.charAt(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
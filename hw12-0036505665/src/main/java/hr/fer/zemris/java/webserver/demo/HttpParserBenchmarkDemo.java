@@ -0,0 +1,174 @@
+package hr.fer.zemris.java.webserver.demo;
+
+import hr.fer.zemris.java.webserver.HttpRequestParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures the request parsing throughput of {@link HttpRequestParser} and compares it
+ * with the previous approach of the server, which read the request byte by byte into
+ * a string and split it into header lines and parameters.
+ *
+ * For each approach, the request is parsed, the "Host" and "Cookie" headers are looked
+ * up and the parameters are collected into a map, which is the work the server does
+ * for every request.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class HttpParserBenchmarkDemo {
+
+    /**
+     * A typical browser request.
+     */
+    private static final byte[] REQUEST = (
+            "GET /ext/EchoParams?name=Bruna&color=7F7F7F&page=3 HTTP/1.1\r\n" +
+            "Host: www.localhost.com:5721\r\n" +
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:66.0) Gecko/20100101 Firefox/66.0\r\n" +
+            "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n" +
+            "Accept-Language: hr,en-US;q=0.7,en;q=0.3\r\n" +
+            "Accept-Encoding: gzip, deflate\r\n" +
+            "Connection: keep-alive\r\n" +
+            "Cookie: sid=\"ABCDEFGHIJKLMNOPQRST\"\r\n" +
+            "Upgrade-Insecure-Requests: 1\r\n" +
+            "Cache-Control: max-age=0\r\n" +
+            "\r\n"
+    ).getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The number of requests parsed in each measured round.
+     */
+    private static final int ITERATIONS = 500_000;
+
+    /**
+     * The number of measured rounds.
+     */
+    private static final int ROUNDS = 5;
+
+    /**
+     * The main method. Parses the request repeatedly with both approaches and prints
+     * the throughput of each round.
+     *
+     * @param args the command-line arguments, not used
+     * @throws IOException if there was an issue with reading the request
+     */
+    public static void main(String[] args) throws IOException {
+        HttpRequestParser parser = new HttpRequestParser();
+        ByteBuffer buffer = ByteBuffer.wrap(REQUEST);
+        long checksum = 0;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                checksum += parseLegacy(new PushbackInputStream(new ByteArrayInputStream(REQUEST)));
+            }
+            long legacyTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                buffer.clear();
+                parser.reset();
+                parser.parse(buffer);
+                checksum += parse(parser);
+            }
+            long parserTime = System.nanoTime() - start;
+
+            System.out.printf("round %d  legacy: %10.0f requests/s  parser: %10.0f requests/s%n",
+                    round + 1, ITERATIONS / (legacyTime / 1e9), ITERATIONS / (parserTime / 1e9)
+            );
+        }
+
+        System.out.println("checksum " + checksum);
+    }
+
+    /**
+     * Extracts the values the server uses from a parsed request.
+     *
+     * @param parser the parser holding the request
+     * @return a value depending on the extracted values
+     */
+    private static int parse(HttpRequestParser parser) {
+        Map<String, String> params = new HashMap<>();
+        parser.forEachParameter(params::put);
+
+        return params.size() + parser.getHeader("Host").length()
+                + parser.getHeader("Cookie").length() + parser.getPath().length();
+    }
+
+    /**
+     * Parses a request the way the server did before {@link HttpRequestParser}.
+     *
+     * @param istream the stream to read the request from
+     * @return a value depending on the extracted values
+     * @throws IOException if there was an issue with reading the request
+     */
+    private static int parseLegacy(InputStream istream) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        int state = 0;
+
+        l:
+        while (true) {
+            int b = istream.read();
+            if (b == -1) return 0;
+            if (b != 13) {
+                bos.write(b);
+            }
+
+            switch (state) {
+                case 0:
+                    if (b == 13) { state = 1; } else if (b == 10) state = 4;
+                    break;
+                case 1:
+                    if (b == 10) { state = 2; } else state = 0;
+                    break;
+                case 2:
+                    if (b == 13) { state = 3; } else state = 0;
+                    break;
+                case 3:
+                case 4:
+                    if (b == 10) { break l; } else state = 0;
+                    break;
+            }
+        }
+
+        List<String> headers = new ArrayList<>();
+        for (String s : new String(bos.toByteArray(), StandardCharsets.US_ASCII).split("\n")) {
+            if (s.isEmpty()) {
+                break;
+            }
+            headers.add(s);
+        }
+
+        String[] extracted = headers.get(0).split(" ");
+        String[] parts = extracted[1].split("\\?");
+        Map<String, String> params = new HashMap<>();
+        for (String parameter : parts[1].split("&")) {
+            String[] pair = parameter.split("=");
+            if (pair.length == 2) {
+                params.put(pair[0], pair[1]);
+            }
+        }
+
+        String host = null;
+        String cookie = null;
+        for (String header : headers) {
+            if (header.startsWith("Host: ")) {
+                host = header.split(":")[1].trim();
+            } else if (header.startsWith("Cookie:")) {
+                cookie = header.substring(8);
+            }
+        }
+
+        return params.size() + host.length() + cookie.length() + parts[0].length();
+    }
+}
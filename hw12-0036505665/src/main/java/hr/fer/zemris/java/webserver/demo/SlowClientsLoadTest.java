@@ -0,0 +1,193 @@
+package hr.fer.zemris.java.webserver.demo;
+
+import hr.fer.zemris.java.webserver.SmartHttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A load test which compares the "pool" and "virtual" execution modes of
+ * {@link SmartHttpServer} under many slow connections. It must be started from the
+ * project directory, so the paths in "config/server.properties" are valid.
+ *
+ * For each mode, the test starts a server with the blocking front end and opens a
+ * number of slow connections which send the end of their request headers only after
+ * a delay. While they are pending, it sends a number of ordinary requests and prints
+ * their latencies. In the "pool" mode, the slow connections occupy all pool threads,
+ * so the ordinary requests have to wait for them.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class SlowClientsLoadTest {
+
+    /**
+     * The number of slow connections.
+     */
+    private static final int SLOW_CLIENTS = 50;
+
+    /**
+     * The delay of the slow connections in milliseconds.
+     */
+    private static final long SLOW_DELAY = 1000;
+
+    /**
+     * The number of ordinary requests sent while the slow connections are pending.
+     */
+    private static final int FAST_REQUESTS = 20;
+
+    /**
+     * The first port used by the tested servers.
+     */
+    private static final int PORT = 5801;
+
+    /**
+     * The main method. Runs the test for both execution modes.
+     *
+     * @param args the command-line arguments, not used
+     * @throws Exception if the test fails
+     */
+    public static void main(String[] args) throws Exception {
+        String[] modes = {"pool", "virtual"};
+
+        for (int i = 0; i < modes.length; i++) {
+            run(modes[i], PORT + i);
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * Runs the test for the given execution mode.
+     *
+     * @param mode the execution mode
+     * @param port the port of the server
+     * @throws Exception if the test fails
+     */
+    private static void run(String mode, int port) throws Exception {
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(Paths.get("config/server.properties"))) {
+            properties.load(is);
+        }
+        properties.setProperty("server.port", Integer.toString(port));
+        properties.setProperty("server.nio", "false");
+        properties.setProperty("server.executionMode", mode);
+
+        Path config = Files.createTempFile("server", ".properties");
+        try (Writer writer = Files.newBufferedWriter(config)) {
+            properties.store(writer, null);
+        }
+
+        TestServer server = new TestServer(config.toString());
+        server.startServer();
+        Thread.sleep(500);
+
+        ExecutorService clients = Executors.newFixedThreadPool(SLOW_CLIENTS + FAST_REQUESTS);
+        List<Future<Long>> slow = new ArrayList<>();
+        List<Future<Long>> fast = new ArrayList<>();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < SLOW_CLIENTS; i++) {
+            slow.add(clients.submit(() -> request(port, SLOW_DELAY)));
+        }
+        Thread.sleep(200);
+        for (int i = 0; i < FAST_REQUESTS; i++) {
+            fast.add(clients.submit(() -> request(port, 0)));
+        }
+
+        List<Long> latencies = new ArrayList<>();
+        for (Future<Long> future : fast) {
+            latencies.add(future.get());
+        }
+        for (Future<Long> future : slow) {
+            future.get();
+        }
+        long total = System.nanoTime() - start;
+        Collections.sort(latencies);
+
+        System.out.printf("%-8s fast requests: median %6d ms, max %6d ms; all requests done in %6d ms%n",
+                mode, latencies.get(latencies.size() / 2), latencies.get(latencies.size() - 1),
+                total / 1_000_000
+        );
+
+        clients.shutdown();
+        new Thread(server::stopServer).start();
+        Files.delete(config);
+    }
+
+    /**
+     * Sends a request for "/index.html" and reads the whole response.
+     *
+     * @param port the port of the server
+     * @param delay the delay in milliseconds before the end of the request headers
+     * @return the time in milliseconds until the response was read
+     * @throws IOException if there was an issue with the connection
+     * @throws InterruptedException if the delay was interrupted
+     */
+    private static long request(int port, long delay) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            OutputStream os = socket.getOutputStream();
+            os.write("GET /index.html HTTP/1.1\r\n".getBytes(StandardCharsets.US_ASCII));
+            os.flush();
+
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+            os.write("Host: 127.0.0.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            os.flush();
+
+            InputStream is = socket.getInputStream();
+            byte[] buffer = new byte[8192];
+            while (is.read(buffer) != -1) {
+                // discard the response
+            }
+        }
+
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    /**
+     * A {@link SmartHttpServer} which can be started and stopped by the test.
+     */
+    private static class TestServer extends SmartHttpServer {
+
+        /**
+         * Constructs a {@link TestServer} based on the given config file.
+         *
+         * @param configFileName the path string of the config file
+         */
+        TestServer(String configFileName) {
+            super(configFileName);
+        }
+
+        /**
+         * Starts the server.
+         */
+        void startServer() {
+            start();
+        }
+
+        /**
+         * Stops the server.
+         */
+        void stopServer() {
+            stop();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package hr.fer.zemris.java.webserver.workers;
+
+import hr.fer.zemris.java.webserver.IWebWorker;
+import hr.fer.zemris.java.webserver.RequestContext;
+import hr.fer.zemris.java.webserver.SmartHttpServer;
+
+import java.io.IOException;
+
+/**
+ * A web worker for displaying the metrics of a {@link SmartHttpServer} in the
+ * Prometheus plain-text format. The server serves it to local clients at the path
+ * given by "server.metricsPath".
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class MetricsWorker implements IWebWorker {
+
+    /**
+     * The server whose metrics are displayed.
+     */
+    private SmartHttpServer server;
+
+    /**
+     * Constructs a {@link MetricsWorker} for the given server.
+     *
+     * @param server the server whose metrics are displayed
+     */
+    public MetricsWorker(SmartHttpServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public void processRequest(RequestContext context) throws IOException {
+        StringBuilder sb = new StringBuilder(4096);
+        server.writeMetrics(sb);
+
+        context.setMimeType("text/plain");
+        context.write(sb.toString());
+    }
+}
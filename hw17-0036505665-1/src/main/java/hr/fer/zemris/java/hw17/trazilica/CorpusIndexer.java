@@ -0,0 +1,350 @@
+package hr.fer.zemris.java.hw17.trazilica;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Keeps an index file of all documents of a directory tree up to date. If the index
+ * file was written for the same tree and no file was added, removed or modified since,
+ * as told by the files' modification times and sizes, it is used as it is. Otherwise,
+ * only the new and modified files are read, the tf values of the other documents are
+ * taken from the previous index file, and a new index file is written. Since any
+ * change can change the idf values and therefore all the weights, the whole index
+ * file is written again, however few files have changed.
+ *
+ * The files are read and tokenized concurrently by fork-join tasks, each of which
+ * counts the word frequencies of its documents. The counts of the tasks are merged as
+ * they are joined, and the idf values are computed once all documents have been read.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+class CorpusIndexer {
+
+    /**
+     * The largest number of documents read by a single task without splitting it.
+     */
+    private static final int THRESHOLD = 8;
+
+    /**
+     * A listener which is notified of the indexing progress.
+     */
+    interface ProgressListener {
+
+        /**
+         * Called after a document has been read. The calls come from multiple threads,
+         * but never at the same time, and the number of read documents increases
+         * with each call.
+         *
+         * @param indexed the number of documents read so far
+         * @param total the total number of documents to read
+         */
+        void progress(int indexed, int total);
+    }
+
+    /**
+     * The words which are not included in the vocabulary.
+     */
+    private TermDictionary stopwords;
+
+    /**
+     * The listener notified of the progress, or {@code null}.
+     */
+    private ProgressListener listener;
+
+    /**
+     * The number of documents read so far.
+     */
+    private int indexed;
+
+    /**
+     * The total number of documents to read.
+     */
+    private int total;
+
+    /**
+     * Constructs a {@link CorpusIndexer} which includes all words except the given
+     * stopwords in the vocabulary.
+     *
+     * @param stopwords the words which are not included in the vocabulary
+     * @param listener the listener notified of the progress, or {@code null}
+     */
+    CorpusIndexer(TermDictionary stopwords, ProgressListener listener) {
+        this.stopwords = stopwords;
+        this.listener = listener;
+    }
+
+    /**
+     * Returns an up-to-date index of the given directory tree, stored in the given
+     * index file. An invalid index file is rebuilt from scratch.
+     *
+     * @param root the root of the directory tree
+     * @param indexFile the index file
+     * @return the index of the directory tree
+     * @throws IOException if a file can't be read or the index file can't be written
+     */
+    InvertedIndex index(Path root, Path indexFile) throws IOException {
+        InvertedIndex previous = null;
+
+        if (Files.exists(indexFile)) {
+            try {
+                previous = InvertedIndex.open(indexFile, root);
+            } catch (IOException e) {
+                previous = null;
+            }
+        }
+
+        return update(root, indexFile, previous);
+    }
+
+    /**
+     * Returns an up-to-date index of the given directory tree, based on its previous
+     * index. If nothing has changed, the previous index is returned. Otherwise, a new
+     * index is written to the given index file.
+     *
+     * @param root the root of the directory tree
+     * @param indexFile the index file
+     * @param previous the previous index of the tree, or {@code null}
+     * @return the index of the directory tree
+     * @throws IOException if a file can't be read or the index file can't be written
+     */
+    InvertedIndex update(Path root, Path indexFile, InvertedIndex previous) throws IOException {
+        List<Document> files = listFiles(root, indexFile);
+
+        boolean sameRoot = previous != null
+                && previous.getIndexedRoot().equals(root.toAbsolutePath().normalize().toString());
+
+        Map<String, Integer> previousIds = new HashMap<>();
+        if (sameRoot) {
+            for (int i = 0, count = previous.getDocumentCount(); i < count; i++) {
+                previousIds.put(previous.getRelativePath(i), i);
+            }
+        }
+
+        // find the documents which have to be read and the ones which can be reused
+        List<Document> changed = new ArrayList<>();
+        int[] reused = new int[files.size()];
+        for (int i = 0; i < reused.length; i++) {
+            Document file = files.get(i);
+            Integer id = previousIds.get(root.relativize(file.getPath()).toString());
+
+            if (id != null && previous.getLastModified(id) == file.getLastModified()
+                    && previous.getSize(id) == file.getSize()) {
+                reused[i] = id;
+            } else {
+                reused[i] = -1;
+                changed.add(file);
+            }
+        }
+
+        if (sameRoot && changed.isEmpty() && previousIds.size() == files.size()) {
+            return previous;
+        }
+
+        indexed = 0;
+        total = changed.size();
+        Partial result;
+        try {
+            result = ForkJoinPool.commonPool().invoke(new ReadTask(changed, 0, changed.size()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        List<Document> documents = new ArrayList<>(files.size());
+        Map<String, Integer> frequencies = result.frequencies;
+        Iterator<Document> read = result.documents.iterator();
+        for (int id : reused) {
+            if (id < 0) {
+                documents.add(read.next());
+            } else {
+                Document document = previous.readDocument(id);
+                document.getTfs().forEach((word, tf) -> frequencies.merge(word, tf, Integer::sum));
+                documents.add(document);
+            }
+        }
+
+        IndexWriter.write(indexFile, root, documents, frequencies);
+
+        return InvertedIndex.open(indexFile, root);
+    }
+
+    /**
+     * Lists the regular files of the given directory tree, except the index file, as
+     * empty documents.
+     *
+     * @param root the root of the directory tree
+     * @param indexFile the index file
+     * @return the documents of the files, in the order they were found
+     * @throws IOException if the directory tree can't be read
+     */
+    private static List<Document> listFiles(Path root, Path indexFile) throws IOException {
+        Path excluded = indexFile.toAbsolutePath().normalize();
+        List<Document> files = new ArrayList<>();
+
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && !file.toAbsolutePath().normalize().equals(excluded)) {
+                    files.add(new Document(file, attrs.lastModifiedTime().toMillis(), attrs.size()));
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                // the file was removed while the tree was being walked
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return files;
+    }
+
+    /**
+     * The documents read by a task and the frequencies of their words.
+     */
+    private static class Partial {
+
+        /**
+         * The read documents.
+         */
+        List<Document> documents;
+
+        /**
+         * The number of occurrences of each word in the read documents.
+         */
+        Map<String, Integer> frequencies;
+
+        /**
+         * Constructs a {@link Partial} result.
+         *
+         * @param documents the read documents
+         * @param frequencies the number of occurrences of each word
+         */
+        Partial(List<Document> documents, Map<String, Integer> frequencies) {
+            this.documents = documents;
+            this.frequencies = frequencies;
+        }
+    }
+
+    /**
+     * A task which reads a range of documents, splitting it in halves while it is
+     * larger than {@link #THRESHOLD}.
+     */
+    private class ReadTask extends RecursiveTask<Partial> {
+
+        /**
+         * The version number of this serializable class.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The documents to read.
+         */
+        private List<Document> documents;
+
+        /**
+         * The index of the first document of the range.
+         */
+        private int from;
+
+        /**
+         * The index after the last document of the range.
+         */
+        private int to;
+
+        /**
+         * Constructs a {@link ReadTask} for the given range of documents.
+         *
+         * @param documents the documents to read
+         * @param from the index of the first document of the range
+         * @param to the index after the last document of the range
+         */
+        ReadTask(List<Document> documents, int from, int to) {
+            this.documents = documents;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (to - from <= THRESHOLD) {
+                return read();
+            }
+
+            int middle = (from + to) >>> 1;
+            ReadTask right = new ReadTask(documents, middle, to);
+            right.fork();
+            Partial left = new ReadTask(documents, from, middle).compute();
+
+            return merge(left, right.join());
+        }
+
+        /**
+         * Reads the documents of the range.
+         *
+         * @return the read documents and the frequencies of their words
+         */
+        private Partial read() {
+            List<Document> read = new ArrayList<>(to - from);
+            Map<String, Integer> frequencies = new HashMap<>();
+
+            for (int i = from; i < to; i++) {
+                Document document = documents.get(i);
+                try {
+                    document.fromFile(stopwords);
+                } catch (NoSuchFileException e) {
+                    // the file was removed after it was listed, so it's indexed as empty
+                    // until the index is updated again
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                document.getTfs().forEach((word, tf) -> frequencies.merge(word, tf, Integer::sum));
+                read.add(document);
+
+                if (listener != null) {
+                    synchronized (CorpusIndexer.this) {
+                        listener.progress(++indexed, total);
+                    }
+                }
+            }
+
+            return new Partial(read, frequencies);
+        }
+
+        /**
+         * Merges the results of two adjacent ranges, keeping the documents in order.
+         * The smaller map of frequencies is added to the larger one.
+         *
+         * @param left the result of the first range
+         * @param right the result of the second range
+         * @return the merged result
+         */
+        private Partial merge(Partial left, Partial right) {
+            left.documents.addAll(right.documents);
+
+            Map<String, Integer> larger = left.frequencies;
+            Map<String, Integer> smaller = right.frequencies;
+            if (larger.size() < smaller.size()) {
+                larger = right.frequencies;
+                smaller = left.frequencies;
+            }
+
+            Map<String, Integer> frequencies = larger;
+            smaller.forEach((word, frequency) -> frequencies.merge(word, frequency, Integer::sum));
+
+            return new Partial(left.documents, frequencies);
+        }
+    }
+}
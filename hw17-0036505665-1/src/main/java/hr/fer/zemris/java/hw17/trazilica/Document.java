@@ -1,12 +1,12 @@
 package hr.fer.zemris.java.hw17.trazilica;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.ToIntFunction;
 
 /**
  * Models a document.
@@ -17,19 +17,19 @@ import java.util.regex.Pattern;
 class Document {
 
     /**
-     * A regex for matching words.
+     * The path to the document.
      */
-    private static final String WORD_REGEX = "[a-zA-Z_šđčćžŠĐČĆŽ]+";
+    private Path path;
 
     /**
-     * The {@link Pattern} for matching words.
+     * The time the document's file was last modified, in milliseconds.
      */
-    private static final Pattern PATTERN = Pattern.compile(WORD_REGEX);
+    private long lastModified;
 
     /**
-     * The path to the document.
+     * The size of the document's file in bytes.
      */
-    private Path path;
+    private long size;
 
     /**
      * The tf values of the document.
@@ -41,11 +41,6 @@ class Document {
      */
     private Vector tfidf;
 
-    /**
-     * The similarity between this document an another document.
-     */
-    private double similarity;
-
     /**
      * Constructs an empty {@link Document}.
      */
@@ -60,51 +55,120 @@ class Document {
         this.path = path;
     }
 
+    /**
+     * Constructs a {@link Document} of the given path, whose file has the given
+     * modification time and size.
+     *
+     * @param path the path to the document
+     * @param lastModified the time the file was last modified, in milliseconds
+     * @param size the size of the file in bytes
+     */
+    Document(Path path, long lastModified, long size) {
+        this.path = path;
+        this.lastModified = lastModified;
+        this.size = size;
+    }
+
     /**
      * Constructs a document from its file.
      *
-     * @param vocabulary the vocabulary
+     * @param stopwords the words which are not counted
      * @throws IOException if there's an issue with the file
      */
-    void fromFile(Set<String> vocabulary) throws IOException {
-        try (BufferedReader br = Files.newBufferedReader(path)) {
-            String line;
+    void fromFile(TermDictionary stopwords) throws IOException {
+        TermDictionary words = new TermDictionary();
 
-            while ((line = br.readLine()) != null) {
-                fromWords(line, vocabulary);
-            }
+        try (Reader reader = Files.newBufferedReader(path)) {
+            new Tokenizer(counter(words, stopwords)).tokenize(reader);
         }
+
+        addWords(words);
     }
 
     /**
      * Constructs a document from a string of words.
      *
-     * @param words the string of words
-     * @param vocabulary the vocabulary
+     * @param text the string of words
+     * @param stopwords the words which are not counted
      */
-    void fromWords(String words, Set<String> vocabulary) {
-        Matcher matcher = PATTERN.matcher(words);
+    void fromWords(String text, TermDictionary stopwords) {
+        TermDictionary words = new TermDictionary();
+        new Tokenizer(counter(words, stopwords)).tokenize(text);
 
-        while (matcher.find()) {
-            String word = matcher.group().toLowerCase();
+        addWords(words);
+    }
 
-            if (vocabulary.contains(word)) {
-                tfs.merge(word, 1, Integer::sum);
+    /**
+     * Returns a consumer which adds the words which are not stopwords to the given
+     * dictionary.
+     *
+     * @param words the dictionary counting the words
+     * @param stopwords the words which are not counted
+     * @return the consumer of the words
+     */
+    private static Tokenizer.WordConsumer counter(TermDictionary words, TermDictionary stopwords) {
+        return (word, length) -> {
+            if (stopwords.find(word, length) < 0) {
+                words.add(word, length);
             }
+        };
+    }
+
+    /**
+     * Adds the counted words to the tf values.
+     *
+     * @param words the dictionary counting the words
+     */
+    private void addWords(TermDictionary words) {
+        for (int id = 0, size = words.size(); id < size; id++) {
+            tfs.merge(words.getWord(id), words.getCount(id), Integer::sum);
         }
     }
 
     /**
-     * Calculates the tfidf vector.
+     * Adds a given number of occurrences of a word to the tf values.
+     *
+     * @param word the word
+     * @param tf the number of occurrences
+     */
+    void addWord(String word, int tf) {
+        tfs.merge(word, tf, Integer::sum);
+    }
+
+    /**
+     * Calculates the sparse tfidf vector, whose indices are the IDs of the words. The
+     * tf values are no longer needed afterwards, so they are released.
      *
-     * @param idfs a map of idf values
+     * @param wordIds a function which returns the ID of a word, or -1 if the word is
+     *                not in the vocabulary
+     * @param idfs a function which returns the idf value of a word ID
      */
-    void createTfidf(Map<String, Double> idfs) {
-        List<Double> tfidfList = new ArrayList<>();
+    void createTfidf(ToIntFunction<String> wordIds, IntToDoubleFunction idfs) {
+        int[] ids = new int[tfs.size()];
+        double[] weights = new double[tfs.size()];
+        int size = 0;
 
-        idfs.forEach((word, idf) -> tfidfList.add(tfs.getOrDefault(word, 0) * idf));
+        for (Map.Entry<String, Integer> entry : tfs.entrySet()) {
+            int id = wordIds.applyAsInt(entry.getKey());
+
+            if (id >= 0) {
+                ids[size] = id;
+                weights[size++] = entry.getValue() * idfs.applyAsDouble(id);
+            }
+        }
+
+        tfidf = new Vector(ids, weights, size);
+        tfs = new HashMap<>();
+    }
 
-        tfidf = new Vector(tfidfList);
+    /**
+     * Returns the tf values of the document, which are released once the tfidf vector
+     * is calculated.
+     *
+     * @return the tf values of the document
+     */
+    Map<String, Integer> getTfs() {
+        return tfs;
     }
 
     /**
@@ -117,29 +181,29 @@ class Document {
     }
 
     /**
-     * Returns the similarity between this document an another document.
+     * Returns the path to the document.
      *
-     * @return the similarity between this document an another document
+     * @return the path to the document
      */
-    double getSimilarity() {
-        return similarity;
+    Path getPath() {
+        return path;
     }
 
     /**
-     * Sets the similarity between this document an another document.
+     * Returns the time the document's file was last modified, in milliseconds.
      *
-     * @param similarity the new similarity
+     * @return the time the file was last modified
      */
-    void setSimilarity(double similarity) {
-        this.similarity = similarity;
+    long getLastModified() {
+        return lastModified;
     }
 
     /**
-     * Returns the path to the document.
+     * Returns the size of the document's file in bytes.
      *
-     * @return the path to the document
+     * @return the size of the file
      */
-    Path getPath() {
-        return path;
+    long getSize() {
+        return size;
     }
 }
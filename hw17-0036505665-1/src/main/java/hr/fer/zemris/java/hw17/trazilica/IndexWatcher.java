@@ -0,0 +1,196 @@
+package hr.fer.zemris.java.hw17.trazilica;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches a directory tree for created, modified and deleted files and runs an
+ * action after each batch of changes. Subdirectories created after the watching has
+ * started are watched as well.
+ *
+ * Changes are batched, so a file being written or many files being copied cause a
+ * single run of the action. The action runs once no change has been seen for
+ * {@link #QUIET_PERIOD} milliseconds, or at the latest {@link #MAX_DELAY}
+ * milliseconds after the first change of the batch. However, the action doesn't run
+ * again until at least as much time has passed since its previous run finished as
+ * that run took, so a tree which changes all the time keeps the action busy for at
+ * most half of the time.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+class IndexWatcher implements Closeable {
+
+    /**
+     * The time in milliseconds without changes after which a batch is complete.
+     */
+    private static final long QUIET_PERIOD = 250;
+
+    /**
+     * The longest time in milliseconds a change waits for its batch to complete.
+     */
+    private static final long MAX_DELAY = 2000;
+
+    /**
+     * The service notified of the changes.
+     */
+    private WatchService watchService;
+
+    /**
+     * The watched directories by their keys.
+     */
+    private Map<WatchKey, Path> directories = new HashMap<>();
+
+    /**
+     * The files whose changes are ignored.
+     */
+    private Set<Path> ignored;
+
+    /**
+     * The action run after each batch of changes.
+     */
+    private Runnable action;
+
+    /**
+     * The thread waiting for changes.
+     */
+    private Thread thread;
+
+    /**
+     * The earliest time in milliseconds at which the action may run again.
+     */
+    private long earliestRun;
+
+    /**
+     * Constructs an {@link IndexWatcher} of the given directory tree and starts
+     * watching it.
+     *
+     * @param root the root of the directory tree
+     * @param ignored the files whose changes are ignored, such as the index file
+     * @param action the action run after each batch of changes
+     * @throws IOException if the directory tree can't be watched
+     */
+    IndexWatcher(Path root, Set<Path> ignored, Runnable action) throws IOException {
+        this.ignored = ignored;
+        this.action = action;
+
+        watchService = root.getFileSystem().newWatchService();
+        register(root);
+
+        thread = new Thread(this::run, "index-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Registers the given directory and all its subdirectories with the
+     * {@link #watchService}.
+     *
+     * @param directory the directory to register
+     * @throws IOException if a directory can't be registered
+     */
+    private void register(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                    throws IOException {
+
+                directories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Waits for batches of changes and runs the action after each one, until the
+     * watcher is closed.
+     */
+    private void run() {
+        try {
+            while (true) {
+                boolean changed = handle(watchService.take());
+                long start = System.currentTimeMillis();
+
+                while (true) {
+                    long now = System.currentTimeMillis();
+                    long timeout = Math.min(QUIET_PERIOD, MAX_DELAY - (now - start));
+                    timeout = Math.max(timeout, earliestRun - now);
+                    if (timeout <= 0) {
+                        break;
+                    }
+
+                    WatchKey key = watchService.poll(timeout, TimeUnit.MILLISECONDS);
+                    if (key == null) {
+                        break;
+                    }
+                    changed |= handle(key);
+                }
+
+                if (changed) {
+                    long actionStart = System.currentTimeMillis();
+                    action.run();
+
+                    long actionEnd = System.currentTimeMillis();
+                    earliestRun = actionEnd + (actionEnd - actionStart);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // the watcher was closed
+        }
+    }
+
+    /**
+     * Handles the events of the given key, registering created directories.
+     *
+     * @param key the key whose events are handled
+     * @return {@code true} if an event concerns a file which isn't ignored
+     */
+    private boolean handle(WatchKey key) {
+        Path directory = directories.get(key);
+        boolean changed = false;
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || directory == null) {
+                changed = true;
+                continue;
+            }
+
+            Path file = directory.resolve((Path) event.context());
+            if (ignored.contains(file.toAbsolutePath().normalize())) {
+                continue;
+            }
+            changed = true;
+
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)) {
+                try {
+                    register(file);
+                } catch (IOException ignorable) {
+                    // the directory was removed in the meantime
+                }
+            }
+        }
+
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+
+        return changed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,186 @@
+package hr.fer.zemris.java.hw17.trazilica;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static hr.fer.zemris.java.hw17.trazilica.InvertedIndex.*;
+
+/**
+ * Writes documents and their tf values to an index file in the format read by
+ * {@link InvertedIndex}. The file is written through a memory mapping to a
+ * temporary file next to it, which then replaces the index file atomically, so
+ * readers of the previous index file are not disturbed.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+class IndexWriter {
+
+    /**
+     * Writes an index of the given documents of a directory tree to a file.
+     *
+     * @param file the index file
+     * @param root the root of the directory tree
+     * @param documents the documents, whose tf values are released
+     * @param frequencies the number of occurrences of each word in the documents
+     * @throws IOException if the file can't be written or the index is too large
+     */
+    static void write(Path file, Path root, List<Document> documents,
+                      Map<String, Integer> frequencies) throws IOException {
+
+        // the words are sorted by their UTF-8 bytes, so they can be binary searched
+        byte[][] words = new byte[frequencies.size()][];
+        int wordCount = 0;
+        for (String word : frequencies.keySet()) {
+            words[wordCount++] = word.getBytes(StandardCharsets.UTF_8);
+        }
+        Arrays.sort(words, Arrays::compareUnsigned);
+
+        Map<String, Integer> wordIds = new HashMap<>();
+        double[] idfs = new double[wordCount];
+        int documentCount = documents.size();
+        for (int i = 0; i < wordCount; i++) {
+            String word = new String(words[i], StandardCharsets.UTF_8);
+            wordIds.put(word, i);
+            idfs[i] = Math.log((double) documentCount / frequencies.get(word));
+        }
+
+        byte[] rootBytes = root.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8);
+        byte[][] paths = new byte[documentCount][];
+        int[] postingCounts = new int[wordCount];
+        long stringsSize = rootBytes.length;
+        long forwardSize = 0;
+        for (int i = 0; i < documentCount; i++) {
+            Document document = documents.get(i);
+            paths[i] = root.relativize(document.getPath()).toString().getBytes(StandardCharsets.UTF_8);
+            stringsSize += paths[i].length;
+            forwardSize += (long) document.getTfs().size() * FORWARD_ENTRY;
+
+            for (String word : document.getTfs().keySet()) {
+                int id = wordIds.get(word);
+                if (idfs[id] != 0) {
+                    postingCounts[id]++;
+                }
+            }
+        }
+
+        long postingsSize = 0;
+        for (int i = 0; i < wordCount; i++) {
+            stringsSize += words[i].length;
+            postingsSize += (long) postingCounts[i] * POSTING_ENTRY;
+        }
+
+        long documentsOffset = HEADER_SIZE;
+        long wordsOffset = documentsOffset + (long) documentCount * DOCUMENT_RECORD;
+        long postingsOffset = wordsOffset + (long) wordCount * WORD_RECORD;
+        long forwardOffset = postingsOffset + postingsSize;
+        long stringsOffset = forwardOffset + forwardSize;
+        long hashOffset = (stringsOffset + stringsSize + HASH_ENTRY - 1) / HASH_ENTRY * HASH_ENTRY;
+        int hashCapacity = hashCapacity(wordCount);
+        long fileSize = hashOffset + (long) hashCapacity * HASH_ENTRY;
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IOException("The index is larger than 2 GB!");
+        }
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+
+                buffer.putInt(MAGIC).putInt(VERSION).putInt(documentCount).putInt(wordCount)
+                        .putInt((int) documentsOffset).putInt((int) wordsOffset)
+                        .putInt((int) postingsOffset).putInt((int) forwardOffset)
+                        .putInt((int) stringsOffset).putInt(0).putInt(rootBytes.length)
+                        .putInt((int) hashOffset);
+
+                buffer.position((int) stringsOffset);
+                buffer.put(rootBytes);
+
+                // the word records and the postings
+                int[] postingStarts = new int[wordCount];
+                int position = (int) postingsOffset;
+                for (int i = 0; i < wordCount; i++) {
+                    postingStarts[i] = position;
+                    position += postingCounts[i] * POSTING_ENTRY;
+
+                    int record = (int) wordsOffset + i * WORD_RECORD;
+                    buffer.putInt(record, buffer.position() - (int) stringsOffset);
+                    buffer.putInt(record + 4, words[i].length);
+                    buffer.putDouble(record + 8, idfs[i]);
+                    buffer.putInt(record + 24, postingStarts[i]);
+                    buffer.putInt(record + 28, postingCounts[i]);
+                    buffer.put(words[i]);
+
+                    char[] word = new String(words[i], StandardCharsets.UTF_8).toCharArray();
+                    int slot = TermDictionary.hash(word, word.length) & (hashCapacity - 1);
+                    while (buffer.getInt((int) hashOffset + slot * HASH_ENTRY) != 0) {
+                        slot = (slot + 1) & (hashCapacity - 1);
+                    }
+                    buffer.putInt((int) hashOffset + slot * HASH_ENTRY, i + 1);
+                }
+
+                double[] maxWeights = new double[wordCount];
+                int[] cursors = new int[wordCount];
+                int forward = (int) forwardOffset;
+                for (int doc = 0; doc < documentCount; doc++) {
+                    Document document = documents.get(doc);
+                    Map<String, Integer> tfs = document.getTfs();
+
+                    int record = (int) documentsOffset + doc * DOCUMENT_RECORD;
+                    buffer.putLong(record, document.getLastModified());
+                    buffer.putLong(record + 8, document.getSize());
+                    buffer.putInt(record + 16, buffer.position() - (int) stringsOffset);
+                    buffer.putInt(record + 20, paths[doc].length);
+                    buffer.putInt(record + 24, forward);
+                    buffer.putInt(record + 28, tfs.size());
+                    buffer.put(paths[doc]);
+
+                    for (Map.Entry<String, Integer> entry : tfs.entrySet()) {
+                        buffer.putInt(forward, wordIds.get(entry.getKey()));
+                        buffer.putInt(forward + 4, entry.getValue());
+                        forward += FORWARD_ENTRY;
+                    }
+
+                    document.createTfidf(wordIds::get, id -> idfs[id]);
+                    Vector tfidf = document.getTfidf();
+                    int[] ids = tfidf.getIndices();
+                    double[] values = tfidf.getValues();
+
+                    for (int i = 0; i < ids.length; i++) {
+                        int id = ids[i];
+                        double weight = Math.abs(values[i]) / tfidf.norm();
+
+                        int count = postingCounts[id];
+                        buffer.putInt(postingStarts[id] + cursors[id] * 4, doc);
+                        buffer.putDouble(postingStarts[id] + count * 4 + cursors[id] * 8, weight);
+                        cursors[id]++;
+                        maxWeights[id] = Math.max(maxWeights[id], weight);
+                    }
+                }
+
+                for (int i = 0; i < wordCount; i++) {
+                    buffer.putDouble((int) wordsOffset + i * WORD_RECORD + 16, maxWeights[i]);
+                }
+
+                buffer.force();
+            }
+
+            Files.move(temporary, file,
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,570 @@
+package hr.fer.zemris.java.hw17.trazilica;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * An inverted index of documents, which maps each word to a posting list of the
+ * documents containing it and the word's tfidf weights in them. The weights are
+ * divided by the norms of the documents' tfidf vectors, so the cosine similarity
+ * between a query and a document is the sum of the query's weights multiplied by the
+ * weights in the document's postings, divided by the norm of the query.
+ *
+ * Queries are evaluated document-at-a-time with MaxScore early termination. The best
+ * results are kept in a bounded heap, and posting lists whose largest possible
+ * contribution can no longer get a document into the heap are only searched for the
+ * documents found in the other lists. Only documents which share words with the
+ * query are scored.
+ *
+ * The index is read from a memory-mapped file written by {@link IndexWriter}, so
+ * opening it takes little time and heap. The file consists of:
+ * <ul>
+ *     <li>a header with the number of documents and words, the offsets of the
+ *     other sections and the root of the indexed directory tree,</li>
+ *     <li>a record for each document, with its modification time, size, path
+ *     relative to the root and the position of its tf values,</li>
+ *     <li>a record for each word, sorted by the word's UTF-8 bytes, with its idf
+ *     value, largest normalized weight and the position of its posting list,</li>
+ *     <li>the posting lists, each being the IDs of its documents followed by the
+ *     normalized absolute weights of the word in them,</li>
+ *     <li>the tf values of each document as pairs of word IDs and counts, so
+ *     unchanged documents don't have to be read again when the index is rebuilt,</li>
+ *     <li>the strings referred to by the records,</li>
+ *     <li>a hash table of the word IDs, so words are found without decoding the
+ *     words they are compared with.</li>
+ * </ul>
+ * Since the word's weights in a query and in a document have the same sign as its
+ * idf value, their product does not change if both are made positive.
+ *
+ * The index is immutable and can be queried by multiple threads.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+class InvertedIndex {
+
+    /**
+     * The first bytes of an index file.
+     */
+    static final int MAGIC = 0x54525A49;
+
+    /**
+     * The version of the index file format.
+     */
+    static final int VERSION = 2;
+
+    /**
+     * The size of the header in bytes.
+     */
+    static final int HEADER_SIZE = 48;
+
+    /**
+     * The size of a document record in bytes.
+     */
+    static final int DOCUMENT_RECORD = 32;
+
+    /**
+     * The size of a word record in bytes.
+     */
+    static final int WORD_RECORD = 32;
+
+    /**
+     * The size of a posting in bytes.
+     */
+    static final int POSTING_ENTRY = 12;
+
+    /**
+     * The size of a tf value of a document in bytes.
+     */
+    static final int FORWARD_ENTRY = 8;
+
+    /**
+     * The size of a slot of the hash table of the words in bytes.
+     */
+    static final int HASH_ENTRY = 4;
+
+    /**
+     * The mapped index file.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * The number of indexed documents.
+     */
+    private int documentCount;
+
+    /**
+     * The number of words.
+     */
+    private int wordCount;
+
+    /**
+     * The position of the document records.
+     */
+    private int documentsOffset;
+
+    /**
+     * The position of the word records.
+     */
+    private int wordsOffset;
+
+    /**
+     * The position of the strings.
+     */
+    private int stringsOffset;
+
+    /**
+     * The position of the hash table of the words.
+     */
+    private int hashOffset;
+
+    /**
+     * The number of slots of the hash table of the words, less one.
+     */
+    private int hashMask;
+
+    /**
+     * The root of the indexed directory tree.
+     */
+    private Path root;
+
+    /**
+     * Constructs an {@link InvertedIndex} from the given mapped index file.
+     *
+     * @param buffer the mapped index file
+     * @param root the root of the indexed directory tree, to which the document paths
+     *             are resolved
+     * @throws IOException if the file is not a valid index file
+     */
+    private InvertedIndex(ByteBuffer buffer, Path root) throws IOException {
+        this.buffer = buffer;
+        this.root = root;
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not an index file!");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported index version: " + buffer.getInt(4));
+        }
+
+        documentCount = buffer.getInt(8);
+        wordCount = buffer.getInt(12);
+        documentsOffset = buffer.getInt(16);
+        wordsOffset = buffer.getInt(20);
+        stringsOffset = buffer.getInt(32);
+        hashOffset = buffer.getInt(44);
+        hashMask = hashCapacity(wordCount) - 1;
+    }
+
+    /**
+     * Returns the number of slots of the hash table of the given number of words,
+     * which is the smallest power of two larger than twice the number of words.
+     *
+     * @param wordCount the number of words
+     * @return the number of slots of the hash table
+     */
+    static int hashCapacity(int wordCount) {
+        return Integer.highestOneBit(2 * wordCount + 1) << 1;
+    }
+
+    /**
+     * Opens the given index file.
+     *
+     * @param file the index file
+     * @param root the root of the indexed directory tree, to which the document paths
+     *             are resolved
+     * @return the opened index
+     * @throws IOException if the file can't be read or is not a valid index file
+     */
+    static InvertedIndex open(Path file, Path root) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new InvertedIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), root);
+        }
+    }
+
+    /**
+     * Returns the absolute path string of the root of the directory tree the index was
+     * written for.
+     *
+     * @return the path string of the indexed root
+     */
+    String getIndexedRoot() {
+        return getString(buffer.getInt(36), buffer.getInt(40));
+    }
+
+    /**
+     * Returns the number of indexed documents.
+     *
+     * @return the number of indexed documents
+     */
+    int getDocumentCount() {
+        return documentCount;
+    }
+
+    /**
+     * Returns the number of words in the vocabulary.
+     *
+     * @return the number of words
+     */
+    int getWordCount() {
+        return wordCount;
+    }
+
+    /**
+     * Returns the path of a document relative to the root of the directory tree.
+     *
+     * @param document the ID of the document
+     * @return the relative path of the document
+     */
+    String getRelativePath(int document) {
+        int record = documentsOffset + document * DOCUMENT_RECORD;
+
+        return getString(buffer.getInt(record + 16), buffer.getInt(record + 20));
+    }
+
+    /**
+     * Returns the time the file of a document was last modified when it was indexed.
+     *
+     * @param document the ID of the document
+     * @return the time the file was last modified, in milliseconds
+     */
+    long getLastModified(int document) {
+        return buffer.getLong(documentsOffset + document * DOCUMENT_RECORD);
+    }
+
+    /**
+     * Returns the size of the file of a document when it was indexed.
+     *
+     * @param document the ID of the document
+     * @return the size of the file in bytes
+     */
+    long getSize(int document) {
+        return buffer.getLong(documentsOffset + document * DOCUMENT_RECORD + 8);
+    }
+
+    /**
+     * Reads a document with its tf values, as they were when it was indexed.
+     *
+     * @param document the ID of the document
+     * @return the document with its tf values
+     */
+    Document readDocument(int document) {
+        int record = documentsOffset + document * DOCUMENT_RECORD;
+        Document result = new Document(root.resolve(getRelativePath(document)),
+                getLastModified(document), getSize(document));
+
+        int position = buffer.getInt(record + 24);
+        for (int i = 0, count = buffer.getInt(record + 28); i < count; i++) {
+            result.addWord(getWord(buffer.getInt(position)), buffer.getInt(position + 4));
+            position += FORWARD_ENTRY;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the word of the given ID.
+     *
+     * @param word the ID of the word
+     * @return the word
+     */
+    String getWord(int word) {
+        int record = wordsOffset + word * WORD_RECORD;
+
+        return getString(buffer.getInt(record), buffer.getInt(record + 4));
+    }
+
+    /**
+     * Returns the ID of the given word, or -1 if it is not in the vocabulary.
+     *
+     * @param word the word
+     * @return the ID of the word or -1
+     */
+    int findWord(String word) {
+        return findWord(word.toCharArray(), word.length());
+    }
+
+    /**
+     * Returns the ID of the given word, or -1 if it is not in the vocabulary.
+     *
+     * @param word the buffer containing the word
+     * @param length the length of the word
+     * @return the ID of the word or -1
+     */
+    int findWord(char[] word, int length) {
+        for (int slot = TermDictionary.hash(word, length) & hashMask; ; slot = (slot + 1) & hashMask) {
+            int id = buffer.getInt(hashOffset + slot * HASH_ENTRY) - 1;
+
+            if (id < 0 || wordEquals(id, word, length)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Checks whether the word of the given ID consists of the given characters, by
+     * comparing its UTF-8 bytes with the encoding of the characters.
+     *
+     * @param id the ID of the word
+     * @param word the buffer containing the characters
+     * @param length the number of characters
+     * @return {@code true} if the word consists of the characters
+     */
+    private boolean wordEquals(int id, char[] word, int length) {
+        int record = wordsOffset + id * WORD_RECORD;
+        int position = stringsOffset + buffer.getInt(record);
+        int end = position + buffer.getInt(record + 4);
+
+        for (int i = 0; i < length; i++) {
+            char c = word[i];
+
+            if (c < 0x80) {
+                if (position == end || buffer.get(position++) != c) {
+                    return false;
+                }
+            } else if (c < 0x800) {
+                if (end - position < 2 || buffer.get(position++) != (byte) (0xC0 | c >> 6)
+                        || buffer.get(position++) != (byte) (0x80 | c & 0x3F)) {
+                    return false;
+                }
+            } else {
+                // words consist of letters encoded in at most two bytes
+                return false;
+            }
+        }
+
+        return position == end;
+    }
+
+    /**
+     * Returns the idf value of the word of the given ID.
+     *
+     * @param word the ID of the word
+     * @return the idf value of the word
+     */
+    double getIdf(int word) {
+        return buffer.getDouble(wordsOffset + word * WORD_RECORD + 8);
+    }
+
+    /**
+     * Returns at most {@code k} documents most similar to the query of the given tfidf
+     * vector, sorted by descending similarity. Documents which share no words with
+     * the query are not returned.
+     *
+     * @param query the tfidf vector of the query, whose indices are word IDs
+     * @param k the largest number of returned documents
+     * @return the documents most similar to the query
+     */
+    List<SearchResult> search(Vector query, int k) {
+        int[] words = query.getIndices();
+        double[] queryWeights = new double[words.length];
+        for (int i = 0; i < words.length; i++) {
+            queryWeights[i] = Math.abs(query.getValues()[i]);
+        }
+
+        if (words.length == 0 || k <= 0) {
+            return new ArrayList<>();
+        }
+
+        return collect(evaluate(words, queryWeights, k), query.norm());
+    }
+
+    /**
+     * Scores the documents containing the given words with MaxScore early termination
+     * and returns a heap of the best ones.
+     *
+     * @param words the IDs of the query words
+     * @param queryWeights the weights of the query words
+     * @param k the size of the heap
+     * @return a heap of the best documents
+     */
+    private PriorityQueue<Hit> evaluate(int[] words, double[] queryWeights, int k) {
+        int wordCount = words.length;
+
+        // order the words by the largest contribution they can make to a score
+        Integer[] order = new Integer[wordCount];
+        double[] bounds = new double[wordCount];
+        for (int i = 0; i < wordCount; i++) {
+            order[i] = i;
+            bounds[i] = queryWeights[i]
+                    * buffer.getDouble(wordsOffset + words[i] * WORD_RECORD + 16);
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> bounds[i]));
+
+        // the positions of the document IDs and of the weights of each posting list
+        int[] docs = new int[wordCount];
+        int[] weights = new int[wordCount];
+        int[] lengths = new int[wordCount];
+        double[] factors = new double[wordCount];
+        double[] boundSums = new double[wordCount];
+        for (int i = 0; i < wordCount; i++) {
+            int record = wordsOffset + words[order[i]] * WORD_RECORD;
+            docs[i] = buffer.getInt(record + 24);
+            lengths[i] = buffer.getInt(record + 28);
+            weights[i] = docs[i] + lengths[i] * 4;
+            factors[i] = queryWeights[order[i]];
+            boundSums[i] = bounds[order[i]] + (i > 0 ? boundSums[i - 1] : 0);
+        }
+
+        int[] positions = new int[wordCount];
+        PriorityQueue<Hit> heap = new PriorityQueue<>(k + 1);
+        double threshold = 0.0;
+        // the lists before this one can't get a document into the heap on their own
+        int firstEssential = 0;
+
+        while (true) {
+            int document = Integer.MAX_VALUE;
+            for (int i = firstEssential; i < wordCount; i++) {
+                if (positions[i] < lengths[i]) {
+                    document = Math.min(document, buffer.getInt(docs[i] + positions[i] * 4));
+                }
+            }
+            if (document == Integer.MAX_VALUE) {
+                break;
+            }
+
+            double score = 0.0;
+            for (int i = firstEssential; i < wordCount; i++) {
+                int position = positions[i];
+                if (position < lengths[i] && buffer.getInt(docs[i] + position * 4) == document) {
+                    score += factors[i] * buffer.getDouble(weights[i] + position * 8);
+                    positions[i]++;
+                }
+            }
+
+            for (int i = firstEssential - 1; i >= 0; i--) {
+                if (score + boundSums[i] <= threshold) {
+                    break;
+                }
+
+                int position = advance(docs[i], positions[i], lengths[i], document);
+                positions[i] = position;
+                if (position < lengths[i] && buffer.getInt(docs[i] + position * 4) == document) {
+                    score += factors[i] * buffer.getDouble(weights[i] + position * 8);
+                }
+            }
+
+            if (heap.size() < k) {
+                heap.add(new Hit(document, score));
+            } else if (score > threshold) {
+                heap.poll();
+                heap.add(new Hit(document, score));
+            } else {
+                continue;
+            }
+
+            if (heap.size() == k) {
+                threshold = heap.peek().score;
+                while (firstEssential < wordCount && boundSums[firstEssential] <= threshold) {
+                    firstEssential++;
+                }
+            }
+        }
+
+        return heap;
+    }
+
+    /**
+     * Returns the position of the first document in the given posting list, starting
+     * from a given position, whose ID is not smaller than the given ID.
+     *
+     * @param docs the position of the document IDs of the posting list
+     * @param from the position in the list to start from
+     * @param length the length of the list
+     * @param document the ID of the document
+     * @return the position of the first document not smaller than the given one
+     */
+    private int advance(int docs, int from, int length, int document) {
+        int low = from;
+        int high = length;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (buffer.getInt(docs + middle * 4) < document) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Converts a heap of the best documents to a list of results sorted by descending
+     * similarity.
+     *
+     * @param heap the heap of the best documents
+     * @param queryNorm the norm of the query's tfidf vector
+     * @return the sorted list of results
+     */
+    private List<SearchResult> collect(PriorityQueue<Hit> heap, double queryNorm) {
+        SearchResult[] results = new SearchResult[heap.size()];
+
+        for (int i = results.length - 1; i >= 0; i--) {
+            Hit hit = heap.poll();
+            Document document = new Document(root.resolve(getRelativePath(hit.document)));
+            results[i] = new SearchResult(document, hit.score / queryNorm);
+        }
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Decodes a UTF-8 string of the strings section.
+     *
+     * @param offset the offset of the string in the strings section
+     * @param length the length of the string in bytes
+     * @return the decoded string
+     */
+    private String getString(int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(stringsOffset + offset);
+        view.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A scored document in the heap of the best documents. The head of the heap is the
+     * worst document: the one with the lowest score and, among equal scores, the one
+     * indexed last.
+     */
+    private static class Hit implements Comparable<Hit> {
+
+        /**
+         * The ID of the document.
+         */
+        int document;
+
+        /**
+         * The score of the document.
+         */
+        double score;
+
+        /**
+         * Constructs a {@link Hit} for the given document.
+         *
+         * @param document the ID of the document
+         * @param score the score of the document
+         */
+        Hit(int document, double score) {
+            this.document = document;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(Hit other) {
+            int comparison = Double.compare(score, other.score);
+
+            return comparison != 0 ? comparison : Integer.compare(other.document, document);
+        }
+    }
+}
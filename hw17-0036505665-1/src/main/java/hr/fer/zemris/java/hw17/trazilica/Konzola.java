@@ -14,32 +14,47 @@ import java.util.*;
  */
 public class Konzola {
 
+    /**
+     * The index file used if none is given. It is kept up to date with the documents
+     * directory, so it's only rebuilt if the documents change.
+     */
+    static final String DEFAULT_INDEX_FILE = "trazilica.idx";
+
     /**
      * The engine used for document searching.
      */
     private static SearchEngine engine;
 
     /**
-     * The top ten search results.
+     * The top ten search results, or {@code null} if no query was made.
      */
-    private static List<Document> top10 = new ArrayList<>();
+    private static List<SearchResult> top10;
 
     /**
      * Main method. Starts the command line app.
      *
-     * @param args the command-line arguments - 1 expected (a path to the documents directory)
+     * @param args the command-line arguments - 1 or 2 expected (a path to the documents
+     *             directory and optionally a path to the index file)
      */
     public static void main(String[] args) {
-        if (args.length != 1) {
+        if (args.length != 1 && args.length != 2) {
             System.out.println("Document root directory not given!");
             System.exit(1);
         }
 
         Path root = Paths.get(args[0]);
-        engine = new SearchEngine(root);
+        Path indexFile = Paths.get(args.length == 2 ? args[1] : DEFAULT_INDEX_FILE);
+        engine = new SearchEngine(root, indexFile, Konzola::displayProgress);
+        System.out.println();
 
         System.out.println("Veličina riječnika je " + engine.getVocabularySize() + " riječi.");
 
+        try {
+            engine.watch();
+        } catch (IOException e) {
+            System.out.println("Ne mogu pratiti promjene dokumenata.");
+        }
+
         boolean stop = false;
 
         try (Scanner sc = new Scanner(System.in)) {
@@ -86,6 +101,24 @@ public class Konzola {
                 }
             }
         }
+
+        try {
+            engine.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Displays the indexing progress on a single line, at most once for each percent
+     * of the documents.
+     *
+     * @param indexed the number of indexed documents
+     * @param total the total number of documents
+     */
+    private static void displayProgress(int indexed, int total) {
+        if (indexed == total || indexed % Math.max(1, total / 100) == 0) {
+            System.out.print("\rIndeksirano " + indexed + "/" + total + " dokumenata.");
+        }
     }
 
     /**
@@ -94,19 +127,7 @@ public class Konzola {
      * @param arguments the query command arguments
      */
     private static void queryCommand(String arguments) {
-        Document document = new Document();
-        document.fromWords(arguments, engine.getVocabulary());
-        document.createTfidf(engine.getIdfs());
-
-        Vector tfidf = document.getTfidf();
-        List<Document> documents = engine.getDocuments();
-
-        documents.forEach(d -> {
-            double similarity = tfidf.similarity(d.getTfidf());
-            d.setSimilarity(similarity);
-        });
-        documents.sort(Comparator.comparingDouble(Document::getSimilarity).reversed());
-        top10 = documents.subList(0, 10);
+        top10 = engine.query(arguments, 10);
 
         displayWords(arguments);
         displayResults();
@@ -118,14 +139,14 @@ public class Konzola {
      * @param arguments the type command arguments
      */
     private static void typeCommand(String arguments) {
-        if (top10.isEmpty()) {
+        if (top10 == null) {
             System.out.println("Nikad nije zadana query naredba!");
             return;
         }
 
         try {
             int index = Integer.parseInt(arguments);
-            Document documentToType = top10.get(index);
+            Document documentToType = top10.get(index).getDocument();
 
             System.out.println("----------------------------------------------------------------");
             System.out.println("Dokument: " + documentToType.getPath().toString());
@@ -143,18 +164,18 @@ public class Konzola {
      * Displays the search results.
      */
     private static void displayResults() {
-        if (top10.isEmpty()) {
+        if (top10 == null) {
             System.out.println("Nikad nije zadana query naredba!");
             return;
         }
 
         System.out.println("Najboljih 10 rezultata:");
-        for (int i = 0; i < 10; i++) {
-            Document result = top10.get(i);
+        for (int i = 0; i < top10.size(); i++) {
+            SearchResult result = top10.get(i);
 
             if (result.getSimilarity() > 0) {
                 System.out.format("[%2d] (%.4f) %s%n",
-                        i, result.getSimilarity(), result.getPath());
+                        i, result.getSimilarity(), result.getDocument().getPath());
             }
         }
     }
@@ -169,7 +190,7 @@ public class Konzola {
 
         StringBuilder sb = new StringBuilder("Query is: [");
         for (String word : splitWords) {
-            if (engine.getVocabulary().contains(word)) {
+            if (engine.containsWord(word)) {
                 sb.append(word).append(", ");
             }
         }
@@ -1,36 +1,45 @@
 package hr.fer.zemris.java.hw17.trazilica;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 
-class SearchEngine {
+class SearchEngine implements Closeable {
 
     private static final String STOPWORDS = "hrvatski_stoprijeci.txt";
 
-    private List<String> stopwords;
+    private TermDictionary stopwords = new TermDictionary();
 
-    private Set<String> vocabulary;
+    private volatile InvertedIndex index;
 
-    private Map<String, Double> idfs = new HashMap<>();
-
-    private List<Document> documents = new ArrayList<>();
+    private volatile int indexVersion;
 
     private Path root;
 
-    SearchEngine(Path root) {
+    private Path indexFile;
+
+    private IndexWatcher watcher;
+
+    SearchEngine(Path root, Path indexFile) {
+        this(root, indexFile, null);
+    }
+
+    SearchEngine(Path root, Path indexFile, CorpusIndexer.ProgressListener listener) {
         this.root = root;
+        this.indexFile = indexFile;
 
         loadStopwords();
-        initVocabulary();
-        createVectors();
+        openIndex(listener);
     }
 
     private void loadStopwords() {
         try {
-            stopwords = Files.readAllLines(Paths.get(STOPWORDS));
+            for (String stopword : Files.readAllLines(Paths.get(STOPWORDS))) {
+                stopwords.add(stopword);
+            }
 
         } catch (IOException e) {
             System.out.println("Invalid stopwords document!");
@@ -38,46 +47,89 @@ class SearchEngine {
         }
     }
 
-    private void initVocabulary() {
+    private void openIndex(CorpusIndexer.ProgressListener listener) {
         try {
-            VocabularyBuilder builder = new VocabularyBuilder(stopwords);
-            Files.walkFileTree(root, builder);
-
-            vocabulary = builder.getVocabulary();
-            idfs = builder.getIdfs();
+            CorpusIndexer indexer = new CorpusIndexer(stopwords, listener);
+            index = indexer.index(root, indexFile);
 
         } catch (IOException e) {
-            System.out.println("Invalid documents - can't build vocabulary!");
+            System.out.println("Invalid documents - can't build the index!");
             System.exit(1);
         }
     }
 
-    private void createVectors() {
-        try {
-            VectorBuilder builder = new VectorBuilder(vocabulary, idfs);
-            Files.walkFileTree(root, builder);
+    /**
+     * Starts watching the documents directory. After each batch of added, modified
+     * or deleted documents, the index is updated in the background and replaces the
+     * current one. Queries started before the replacement finish on the old index.
+     *
+     * Only the changed documents are read again, but each update recomputes all idf
+     * values and rewrites the whole index file, so its cost grows with the size of the
+     * corpus rather than with the size of the change. The {@link IndexWatcher} spaces
+     * the updates so they take at most half of the time while the documents keep
+     * changing.
+     *
+     * @throws IOException if the documents directory can't be watched
+     */
+    void watch() throws IOException {
+        if (watcher != null) {
+            return;
+        }
 
-            documents = builder.getDocuments();
+        Path ignored = indexFile.toAbsolutePath().normalize();
+        Set<Path> ignoredFiles = Set.of(ignored, ignored.resolveSibling(ignored.getFileName() + ".tmp"));
+        CorpusIndexer indexer = new CorpusIndexer(stopwords, null);
+
+        watcher = new IndexWatcher(root, ignoredFiles, () -> {
+            try {
+                InvertedIndex updated = indexer.update(root, indexFile, index);
+                if (updated != index) {
+                    index = updated;
+                    indexVersion++;
+                }
+            } catch (IOException e) {
+                System.out.println("Can't update the index: " + e.getMessage());
+            }
+        });
+    }
 
-        } catch (IOException e) {
-            System.out.println("Invalid documents - can't create vectors!");
-            System.exit(1);
+    @Override
+    public void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
         }
     }
 
-    List<Document> getDocuments() {
-        return documents;
+    List<SearchResult> query(String words, int k) {
+        InvertedIndex index = this.index;
+
+        Document query = new Document();
+        query.fromWords(words, stopwords);
+        query.createTfidf(index::findWord, index::getIdf);
+
+        return index.search(query.getTfidf(), k);
+    }
+
+    /**
+     * Returns the version of the index, which is increased after each update of the
+     * index. Results of queries made after the version was read are at least as
+     * recent as that version.
+     *
+     * @return the version of the index
+     */
+    int getIndexVersion() {
+        return indexVersion;
     }
 
-    Map<String, Double> getIdfs() {
-        return idfs;
+    boolean containsWord(String word) {
+        return index.findWord(word) >= 0;
     }
 
-    Set<String> getVocabulary() {
-        return vocabulary;
+    int getDocumentCount() {
+        return index.getDocumentCount();
     }
 
     int getVocabularySize() {
-        return vocabulary.size();
+        return index.getWordCount();
     }
 }
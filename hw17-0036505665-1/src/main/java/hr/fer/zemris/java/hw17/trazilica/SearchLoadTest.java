@@ -0,0 +1,195 @@
+package hr.fer.zemris.java.hw17.trazilica;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A load test of the {@link SearchServer}. It must be started from the project
+ * directory, so the stopwords file is found.
+ *
+ * The test indexes the given documents and starts a server on a free port, first
+ * without a cache of query results and then with one. For each server, a number of
+ * clients concurrently send search requests, whose queries are chosen from a fixed
+ * set with a skewed distribution, so some queries are much more popular than the
+ * others, like in real search logs. The throughput, the latency percentiles and the
+ * cache statistics are printed.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class SearchLoadTest {
+
+    /**
+     * The number of concurrent clients.
+     */
+    private static final int CLIENTS = 16;
+
+    /**
+     * The number of requests sent by each client.
+     */
+    private static final int REQUESTS_PER_CLIENT = 500;
+
+    /**
+     * The number of distinct queries.
+     */
+    private static final int QUERIES = 200;
+
+    /**
+     * The words the queries are made of.
+     */
+    private static final String[] WORDS = {
+            "nogomet", "utakmica", "prvenstvo", "trener", "Hajduk", "Dinamo", "film",
+            "redatelj", "festival", "nagrada", "kazalište", "glumac", "predstava",
+            "vlada", "ministar", "sabor", "izbori", "stranka", "predsjednik", "banka",
+            "kuna", "cijena", "tržište", "policija", "sud", "zakon", "škola", "bolnica",
+            "glazba", "koncert", "knjiga", "izložba", "rat", "mir", "more", "turizam"
+    };
+
+    /**
+     * The main method. Runs the test without and with a cache.
+     *
+     * @param args the command-line arguments - 1 or 2 expected (a path to the documents
+     *             directory and optionally a path to the index file)
+     * @throws Exception if the test fails
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1 && args.length != 2) {
+            System.out.println("Document root directory not given!");
+            System.exit(1);
+        }
+
+        Path root = Paths.get(args[0]);
+        Path indexFile = Paths.get(args.length == 2 ? args[1] : Konzola.DEFAULT_INDEX_FILE);
+        SearchEngine engine = new SearchEngine(root, indexFile);
+
+        List<String> queries = createQueries(new Random(42));
+        run("no cache", new SearchService(engine, 0), queries);
+        run("cache", new SearchService(engine), queries);
+
+        System.exit(0);
+    }
+
+    /**
+     * Creates the queries of the test, each made of one to four words.
+     *
+     * @param random the random number generator
+     * @return the queries
+     */
+    private static List<String> createQueries(Random random) {
+        List<String> queries = new ArrayList<>();
+
+        for (int i = 0; i < QUERIES; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0, n = 1 + random.nextInt(4); j < n; j++) {
+                sb.append(j > 0 ? " " : "").append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            queries.add(sb.toString());
+        }
+
+        return queries;
+    }
+
+    /**
+     * Runs the test against a server of the given service.
+     *
+     * @param name the name of the test run
+     * @param service the service used by the server
+     * @param queries the queries to choose from
+     * @throws Exception if the test fails
+     */
+    private static void run(String name, SearchService service, List<String> queries) throws Exception {
+        SearchServer server = new SearchServer(service, 0, CLIENTS);
+        server.start();
+        int port = server.getPort();
+
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        List<Future<long[]>> futures = new ArrayList<>();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < CLIENTS; i++) {
+            Random random = new Random(i);
+            futures.add(clients.submit(() -> {
+                long[] latencies = new long[REQUESTS_PER_CLIENT];
+
+                for (int j = 0; j < REQUESTS_PER_CLIENT; j++) {
+                    // the square skews the choice towards the first queries
+                    double x = random.nextDouble();
+                    String query = queries.get((int) (x * x * queries.size()));
+
+                    long requestStart = System.nanoTime();
+                    request(port, query);
+                    latencies[j] = System.nanoTime() - requestStart;
+                }
+
+                return latencies;
+            }));
+        }
+
+        long[] latencies = new long[CLIENTS * REQUESTS_PER_CLIENT];
+        for (int i = 0; i < CLIENTS; i++) {
+            System.arraycopy(futures.get(i).get(), 0, latencies, i * REQUESTS_PER_CLIENT, REQUESTS_PER_CLIENT);
+        }
+        long total = System.nanoTime() - start;
+        Arrays.sort(latencies);
+
+        System.out.printf("%-8s %6.0f requests/s, latency p50 %6.2f ms, p99 %6.2f ms, max %6.2f ms;"
+                        + " cache hits %d, misses %d%n",
+                name, latencies.length / (total / 1e9),
+                percentile(latencies, 50), percentile(latencies, 99),
+                latencies[latencies.length - 1] / 1e6,
+                service.getHits(), service.getMisses()
+        );
+
+        clients.shutdown();
+        server.stop();
+    }
+
+    /**
+     * Returns a percentile of the given sorted latencies in milliseconds.
+     *
+     * @param latencies the sorted latencies in nanoseconds
+     * @param percentile the percentile
+     * @return the percentile in milliseconds
+     */
+    private static double percentile(long[] latencies, double percentile) {
+        int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+
+        return latencies[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * Sends a search request with the given query and reads the whole response.
+     *
+     * @param port the port of the server
+     * @param query the query
+     * @throws IOException if there was an issue with the connection or the response
+     *                     is not successful
+     */
+    private static void request(int port, String query) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            OutputStream os = socket.getOutputStream();
+            os.write(("GET /search?q=" + URLEncoder.encode(query, StandardCharsets.UTF_8)
+                    + " HTTP/1.1\r\nHost: 127.0.0.1\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            os.flush();
+
+            InputStream is = socket.getInputStream();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            is.transferTo(response);
+
+            if (!response.toString(StandardCharsets.ISO_8859_1).startsWith("HTTP/1.1 200")) {
+                throw new IOException("Unsuccessful response to query: " + query);
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package hr.fer.zemris.java.hw17.trazilica;
+
+/**
+ * A document found by a query, together with its similarity to the query.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+class SearchResult {
+
+    /**
+     * The found document.
+     */
+    private Document document;
+
+    /**
+     * The similarity between the document and the query.
+     */
+    private double similarity;
+
+    /**
+     * Constructs a {@link SearchResult} for the given document.
+     *
+     * @param document the found document
+     * @param similarity the similarity between the document and the query
+     */
+    SearchResult(Document document, double similarity) {
+        this.document = document;
+        this.similarity = similarity;
+    }
+
+    /**
+     * Returns the found document.
+     *
+     * @return the found document
+     */
+    Document getDocument() {
+        return document;
+    }
+
+    /**
+     * Returns the similarity between the document and the query.
+     *
+     * @return the similarity between the document and the query
+     */
+    double getSimilarity() {
+        return similarity;
+    }
+}
@@ -0,0 +1,483 @@
+package hr.fer.zemris.java.hw17.trazilica;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A small HTTP server which serves document searching to local clients through a
+ * {@link SearchService}. A server thread accepts the connections and hands each one
+ * to a client worker in a thread pool, which reads the request and dispatches it to
+ * the worker of its path. The responses are JSON documents, and each connection is
+ * closed after its response. A client which stops sending its request for
+ * {@link #READ_TIMEOUT} milliseconds gets a 408 response.
+ *
+ * The supported requests are:
+ * <ul>
+ *     <li>{@code GET /search?q=<query>&k=<count>}, which returns the {@code k}
+ *     documents most similar to the query, 10 by default and at most 100,</li>
+ *     <li>{@code GET /stats}, which returns the sizes of the index and the cache
+ *     statistics.</li>
+ * </ul>
+ *
+ * @author Bruna Dujmović
+ *
+ */
+public class SearchServer {
+
+    /**
+     * The port used if none is given.
+     */
+    static final int DEFAULT_PORT = 5720;
+
+    /**
+     * The number of results returned if the request doesn't specify it.
+     */
+    private static final int DEFAULT_RESULTS = 10;
+
+    /**
+     * The largest number of results a request can ask for.
+     */
+    private static final int MAX_RESULTS = 100;
+
+    /**
+     * The largest size of a request line and its headers in characters.
+     */
+    private static final int MAX_REQUEST_SIZE = 8192;
+
+    /**
+     * The longest time in milliseconds a worker waits for the next bytes of a
+     * request, so clients which stop sending can't occupy the thread pool.
+     */
+    private static final int READ_TIMEOUT = 5000;
+
+    /**
+     * An object which creates the response to a request.
+     */
+    interface SearchWorker {
+
+        /**
+         * Creates the JSON content of the response to a request with the given
+         * parameters.
+         *
+         * @param params the parameters of the request
+         * @return the content of the response
+         * @throws IllegalArgumentException if the parameters are invalid
+         */
+        String processRequest(Map<String, String> params);
+    }
+
+    /**
+     * The service used for searching.
+     */
+    private SearchService service;
+
+    /**
+     * The port the server listens on, or 0 for any free port.
+     */
+    private int port;
+
+    /**
+     * The number of threads in the thread pool.
+     */
+    private int workerThreads;
+
+    /**
+     * The workers by the paths they are mapped to.
+     */
+    private Map<String, SearchWorker> workers = new HashMap<>();
+
+    /**
+     * The socket the server listens on.
+     */
+    private ServerSocket serverSocket;
+
+    /**
+     * The thread accepting the connections.
+     */
+    private Thread serverThread;
+
+    /**
+     * The thread pool processing the requests.
+     */
+    private ExecutorService threadPool;
+
+    /**
+     * Whether the server was stopped.
+     */
+    private volatile boolean stop;
+
+    /**
+     * Constructs a {@link SearchServer} which listens on the given port of the
+     * loopback address.
+     *
+     * @param service the service used for searching
+     * @param port the port, or 0 for any free port
+     * @param workerThreads the number of threads in the thread pool
+     */
+    SearchServer(SearchService service, int port, int workerThreads) {
+        this.service = Objects.requireNonNull(service);
+        this.port = port;
+        this.workerThreads = workerThreads;
+
+        workers.put("/search", this::search);
+        workers.put("/stats", this::stats);
+    }
+
+    /**
+     * Starts the server.
+     *
+     * @throws IOException if the server socket can't be opened
+     */
+    synchronized void start() throws IOException {
+        if (serverThread != null) {
+            return;
+        }
+
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        threadPool = Executors.newFixedThreadPool(workerThreads);
+
+        serverThread = new Thread(this::acceptClients, "search-server");
+        serverThread.start();
+    }
+
+    /**
+     * Stops the server, letting the requests being processed finish.
+     */
+    synchronized void stop() {
+        if (serverThread == null) {
+            return;
+        }
+
+        stop = true;
+        try {
+            serverSocket.close();
+            serverThread.join();
+        } catch (IOException | InterruptedException ignorable) {}
+
+        threadPool.shutdown();
+        serverThread = null;
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return the port of the server
+     */
+    synchronized int getPort() {
+        return serverSocket != null ? serverSocket.getLocalPort() : port;
+    }
+
+    /**
+     * Accepts the connections until the server is stopped.
+     */
+    private void acceptClients() {
+        while (!stop) {
+            try {
+                Socket client = serverSocket.accept();
+                threadPool.submit(new ClientWorker(client));
+
+            } catch (IOException e) {
+                if (!stop) {
+                    System.out.println("IOException when accepting a connection!");
+                }
+            }
+        }
+    }
+
+    /**
+     * Searches for the documents most similar to the query of the request.
+     *
+     * @param params the parameters of the request
+     * @return the results as a JSON document
+     * @throws IllegalArgumentException if the query is missing or the number of
+     *                                  results is invalid
+     */
+    private String search(Map<String, String> params) {
+        String query = params.get("q");
+        if (query == null) {
+            throw new IllegalArgumentException("Query not given!");
+        }
+
+        int k = DEFAULT_RESULTS;
+        if (params.containsKey("k")) {
+            k = Integer.parseInt(params.get("k"));
+            if (k < 1 || k > MAX_RESULTS) {
+                throw new IllegalArgumentException("Number of results must be between 1 and " + MAX_RESULTS + "!");
+            }
+        }
+
+        StringBuilder sb = new StringBuilder("{\"query\":");
+        appendString(sb, query).append(",\"results\":[");
+
+        List<SearchResult> results = service.search(query, k);
+        for (int i = 0; i < results.size(); i++) {
+            SearchResult result = results.get(i);
+
+            sb.append(i > 0 ? ",{\"path\":" : "{\"path\":");
+            appendString(sb, result.getDocument().getPath().toString());
+            sb.append(",\"similarity\":").append(result.getSimilarity()).append('}');
+        }
+
+        return sb.append("]}").toString();
+    }
+
+    /**
+     * Returns the sizes of the index and the cache statistics.
+     *
+     * @param params the parameters of the request, not used
+     * @return the statistics as a JSON document
+     */
+    private String stats(Map<String, String> params) {
+        SearchEngine engine = service.getEngine();
+
+        return "{\"documents\":" + engine.getDocumentCount()
+                + ",\"words\":" + engine.getVocabularySize()
+                + ",\"indexVersion\":" + engine.getIndexVersion()
+                + ",\"cacheHits\":" + service.getHits()
+                + ",\"cacheMisses\":" + service.getMisses()
+                + ",\"cachedQueries\":" + service.getCachedQueries() + "}";
+    }
+
+    /**
+     * Appends a given string to the given builder as a JSON string.
+     *
+     * @param sb the builder to append to
+     * @param value the string
+     * @return the builder
+     */
+    private static StringBuilder appendString(StringBuilder sb, String value) {
+        sb.append('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+
+        return sb.append('"');
+    }
+
+    /**
+     * This class models a worker in the server's thread pool, which processes the
+     * request of a single connection.
+     */
+    private class ClientWorker implements Runnable {
+
+        /**
+         * The client's socket.
+         */
+        private Socket csocket;
+
+        /**
+         * Constructs a {@link ClientWorker} for the given client's socket.
+         *
+         * @param csocket the client's socket
+         */
+        ClientWorker(Socket csocket) {
+            this.csocket = csocket;
+        }
+
+        @Override
+        public void run() {
+            try (Socket socket = csocket) {
+                socket.setSoTimeout(READ_TIMEOUT);
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1)
+                );
+                OutputStream os = socket.getOutputStream();
+
+                String requestLine;
+                try {
+                    requestLine = readHeaders(reader);
+                } catch (SocketTimeoutException e) {
+                    sendResponse(os, 408, "Request Timeout", "{\"error\":\"Request not received in time!\"}");
+                    return;
+                }
+                if (requestLine == null) {
+                    sendResponse(os, 400, "Bad Request", "{\"error\":\"Invalid request!\"}");
+                    return;
+                }
+
+                String[] parts = requestLine.split(" ");
+                if (parts.length != 3 || !parts[2].startsWith("HTTP/1.")) {
+                    sendResponse(os, 400, "Bad Request", "{\"error\":\"Invalid request line!\"}");
+                    return;
+                }
+                if (!parts[0].equals("GET")) {
+                    sendResponse(os, 405, "Method Not Allowed", "{\"error\":\"Only GET is supported!\"}");
+                    return;
+                }
+
+                String[] pathAndQuery = parts[1].split("\\?", 2);
+                SearchWorker worker = workers.get(pathAndQuery[0]);
+                if (worker == null) {
+                    sendResponse(os, 404, "Not Found", "{\"error\":\"Unknown path!\"}");
+                    return;
+                }
+
+                String body;
+                try {
+                    body = worker.processRequest(parseParameters(pathAndQuery.length > 1 ? pathAndQuery[1] : ""));
+                } catch (IllegalArgumentException e) {
+                    StringBuilder error = new StringBuilder("{\"error\":");
+                    appendString(error, String.valueOf(e.getMessage())).append('}');
+                    sendResponse(os, 400, "Bad Request", error.toString());
+                    return;
+                } catch (RuntimeException e) {
+                    sendResponse(os, 500, "Internal Server Error", "{\"error\":\"Search failed!\"}");
+                    return;
+                }
+
+                sendResponse(os, 200, "OK", body);
+
+            } catch (IOException e) {
+                System.out.println("IOException in ClientWorker!");
+            }
+        }
+
+        /**
+         * Reads the request line and the headers of the request, which are not used.
+         *
+         * @param reader the reader of the request
+         * @return the request line, or {@code null} if the request is incomplete or
+         *         too large
+         * @throws IOException if the request can't be read
+         */
+        private String readHeaders(BufferedReader reader) throws IOException {
+            String requestLine = reader.readLine();
+            if (requestLine == null) {
+                return null;
+            }
+
+            int size = requestLine.length();
+            String line;
+            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                size += line.length();
+                if (size > MAX_REQUEST_SIZE) {
+                    return null;
+                }
+            }
+
+            return line == null || size > MAX_REQUEST_SIZE ? null : requestLine;
+        }
+
+        /**
+         * Parses the parameters of a given URL query string.
+         *
+         * @param query the query string
+         * @return the parameters by their names
+         * @throws IllegalArgumentException if the query string is not properly encoded
+         */
+        private Map<String, String> parseParameters(String query) {
+            Map<String, String> params = new HashMap<>();
+
+            for (String param : query.split("&")) {
+                if (param.isEmpty()) {
+                    continue;
+                }
+
+                String[] nameAndValue = param.split("=", 2);
+                params.put(URLDecoder.decode(nameAndValue[0], StandardCharsets.UTF_8),
+                        nameAndValue.length > 1 ? URLDecoder.decode(nameAndValue[1], StandardCharsets.UTF_8) : "");
+            }
+
+            return params;
+        }
+
+        /**
+         * Sends a JSON response to the client.
+         *
+         * @param os the stream to write to
+         * @param statusCode the status code of the response
+         * @param statusText the status text of the response
+         * @param body the JSON content of the response
+         * @throws IOException if the response can't be written
+         */
+        private void sendResponse(OutputStream os, int statusCode, String statusText, String body)
+                throws IOException {
+
+            byte[] content = body.getBytes(StandardCharsets.UTF_8);
+            String header = "HTTP/1.1 " + statusCode + " " + statusText + "\r\n" +
+                    "Server: SearchServer\r\n" +
+                    "Content-Type: application/json;charset=UTF-8\r\n" +
+                    "Content-Length: " + content.length + "\r\n" +
+                    "Connection: close\r\n" +
+                    "\r\n";
+
+            os.write(header.getBytes(StandardCharsets.US_ASCII));
+            os.write(content);
+            os.flush();
+        }
+    }
+
+    /**
+     * Main method. Indexes the documents, starts watching them for changes and starts
+     * the server, which runs until "exit" is entered.
+     *
+     * @param args the command-line arguments - 1 to 3 expected (a path to the documents
+     *             directory, and optionally a path to the index file and a port)
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 3) {
+            System.out.println("Expected arguments: <documents directory> [index file] [port]");
+            System.exit(1);
+        }
+
+        Path root = Paths.get(args[0]);
+        Path indexFile = Paths.get(args.length >= 2 ? args[1] : Konzola.DEFAULT_INDEX_FILE);
+        int port = DEFAULT_PORT;
+        if (args.length == 3) {
+            try {
+                port = Integer.parseInt(args[2]);
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid port: " + args[2]);
+                System.exit(1);
+            }
+        }
+
+        SearchEngine engine = new SearchEngine(root, indexFile);
+        SearchServer server = new SearchServer(new SearchService(engine), port,
+                2 * Runtime.getRuntime().availableProcessors());
+
+        try {
+            engine.watch();
+            server.start();
+        } catch (IOException e) {
+            System.out.println("Can't start the server: " + e.getMessage());
+            System.exit(1);
+        }
+
+        System.out.println("Listening on http://127.0.0.1:" + server.getPort() + "/search?q=...");
+        System.out.println("Enter \"exit\" to stop the server.");
+
+        try (Scanner sc = new Scanner(System.in)) {
+            while (sc.hasNextLine() && !sc.nextLine().trim().equals("exit")) {
+                // wait for the exit command
+            }
+        }
+
+        server.stop();
+        try {
+            engine.close();
+        } catch (IOException ignorable) {}
+    }
+}
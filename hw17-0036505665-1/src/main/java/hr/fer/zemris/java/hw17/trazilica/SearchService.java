@@ -0,0 +1,170 @@
+package hr.fer.zemris.java.hw17.trazilica;
+
+import java.util.*;
+
+/**
+ * A thread-safe search API around a {@link SearchEngine}, which can be queried by
+ * multiple threads at once. Queries run concurrently on the engine's current index,
+ * and their results are kept in a cache of recently used queries.
+ *
+ * Queries are normalized before they are looked up in the cache: their words are
+ * lower-cased and sorted, and everything else is dropped, since neither the order of
+ * the words nor the other characters change the results. The cache is cleared when
+ * the engine's index changes, and results computed on an older index are not cached.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+class SearchService {
+
+    /**
+     * The default number of queries whose results are cached.
+     */
+    static final int DEFAULT_CACHE_SIZE = 1024;
+
+    /**
+     * The engine used for searching.
+     */
+    private SearchEngine engine;
+
+    /**
+     * The results of recently used queries, by the number of results and the
+     * normalized query, from the least to the most recently used.
+     */
+    private LinkedHashMap<String, List<SearchResult>> cache;
+
+    /**
+     * The version of the engine's index whose results are cached.
+     */
+    private int cachedVersion;
+
+    /**
+     * The number of queries answered from the cache.
+     */
+    private long hits;
+
+    /**
+     * The number of queries answered by the engine.
+     */
+    private long misses;
+
+    /**
+     * Constructs a {@link SearchService} with a cache of the default size.
+     *
+     * @param engine the engine used for searching
+     */
+    SearchService(SearchEngine engine) {
+        this(engine, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Constructs a {@link SearchService} which caches the results of at most the given
+     * number of queries.
+     *
+     * @param engine the engine used for searching
+     * @param cacheSize the number of queries whose results are cached
+     * @throws IllegalArgumentException if the cache size is negative
+     */
+    SearchService(SearchEngine engine, int cacheSize) {
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("Cache size can't be negative!");
+        }
+
+        this.engine = Objects.requireNonNull(engine);
+        this.cachedVersion = engine.getIndexVersion();
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<SearchResult>> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Returns at most {@code k} documents most similar to the given query, sorted by
+     * descending similarity.
+     *
+     * @param query the query
+     * @param k the largest number of returned documents
+     * @return an unmodifiable list of the documents most similar to the query
+     */
+    List<SearchResult> search(String query, int k) {
+        String words = normalize(query);
+        String key = k + " " + words;
+        int version = engine.getIndexVersion();
+
+        synchronized (this) {
+            if (version != cachedVersion) {
+                cache.clear();
+                cachedVersion = version;
+            }
+
+            List<SearchResult> results = cache.get(key);
+            if (results != null) {
+                hits++;
+                return results;
+            }
+            misses++;
+        }
+
+        List<SearchResult> results = Collections.unmodifiableList(engine.query(words, k));
+
+        synchronized (this) {
+            if (version == cachedVersion) {
+                cache.put(key, results);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Returns the number of queries answered from the cache.
+     *
+     * @return the number of cache hits
+     */
+    synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of queries answered by the engine.
+     *
+     * @return the number of cache misses
+     */
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of cached queries.
+     *
+     * @return the number of cached queries
+     */
+    synchronized int getCachedQueries() {
+        return cache.size();
+    }
+
+    /**
+     * Returns the engine used for searching.
+     *
+     * @return the engine
+     */
+    SearchEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Normalizes a query to its sorted lower-case words, separated by spaces.
+     *
+     * @param query the query
+     * @return the normalized query
+     */
+    static String normalize(String query) {
+        List<String> words = new ArrayList<>();
+        new Tokenizer((word, length) -> words.add(new String(word, 0, length))).tokenize(query);
+        Collections.sort(words);
+
+        return String.join(" ", words);
+    }
+}
@@ -0,0 +1,176 @@
+package hr.fer.zemris.java.hw17.trazilica;
+
+import java.util.Arrays;
+
+/**
+ * A dictionary which interns words, assigning them consecutive IDs in the order they
+ * were first added, and counts how many times each word was added. Words are looked
+ * up by their characters in a buffer, such as the one of a {@link Tokenizer}, so a
+ * word is copied only when it is added for the first time.
+ *
+ * The words are kept in an open-addressing hash table with linear probing. The
+ * dictionary is not thread-safe, but once filled, it can be looked up by multiple
+ * threads.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+class TermDictionary {
+
+    /**
+     * The largest ratio of the number of words and the capacity of the table.
+     */
+    private static final double LOAD_FACTOR = 0.5;
+
+    /**
+     * The words by their IDs.
+     */
+    private char[][] words = new char[16][];
+
+    /**
+     * The number of times each word was added, by the word IDs.
+     */
+    private int[] counts = new int[16];
+
+    /**
+     * The hash table, whose slots contain word IDs increased by one, or 0 if empty.
+     */
+    private int[] table = new int[32];
+
+    /**
+     * The number of words.
+     */
+    private int size;
+
+    /**
+     * Returns the ID of the given word, or -1 if it is not in the dictionary.
+     *
+     * @param word the buffer containing the word
+     * @param length the length of the word
+     * @return the ID of the word or -1
+     */
+    int find(char[] word, int length) {
+        int mask = table.length - 1;
+
+        for (int slot = hash(word, length) & mask; ; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+
+            if (id < 0 || Arrays.equals(words[id], 0, words[id].length, word, 0, length)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Adds an occurrence of the given word, interning the word if it is not in the
+     * dictionary yet.
+     *
+     * @param word the buffer containing the word
+     * @param length the length of the word
+     * @return the ID of the word
+     */
+    int add(char[] word, int length) {
+        int mask = table.length - 1;
+        int slot = hash(word, length) & mask;
+
+        while (table[slot] != 0) {
+            int id = table[slot] - 1;
+
+            if (Arrays.equals(words[id], 0, words[id].length, word, 0, length)) {
+                counts[id]++;
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == words.length) {
+            words = Arrays.copyOf(words, 2 * size);
+            counts = Arrays.copyOf(counts, 2 * size);
+        }
+
+        int id = size++;
+        words[id] = Arrays.copyOf(word, length);
+        counts[id] = 1;
+        table[slot] = id + 1;
+
+        if (size > table.length * LOAD_FACTOR) {
+            rehash();
+        }
+
+        return id;
+    }
+
+    /**
+     * Adds an occurrence of the given word.
+     *
+     * @param word the word
+     * @return the ID of the word
+     */
+    int add(String word) {
+        return add(word.toCharArray(), word.length());
+    }
+
+    /**
+     * Returns the word of the given ID.
+     *
+     * @param id the ID of the word
+     * @return the word
+     */
+    String getWord(int id) {
+        return new String(words[id]);
+    }
+
+    /**
+     * Returns the number of times the word of the given ID was added.
+     *
+     * @param id the ID of the word
+     * @return the number of occurrences of the word
+     */
+    int getCount(int id) {
+        return counts[id];
+    }
+
+    /**
+     * Returns the number of words in the dictionary.
+     *
+     * @return the number of words
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Doubles the capacity of the hash table.
+     */
+    private void rehash() {
+        table = new int[2 * table.length];
+        int mask = table.length - 1;
+
+        for (int id = 0; id < size; id++) {
+            int slot = hash(words[id], words[id].length) & mask;
+
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+    }
+
+    /**
+     * Returns the hash code of the given word, to be reduced to a slot of a hash table
+     * whose capacity is a power of two. The hash table of the index file uses the same
+     * hash code.
+     *
+     * @param word the buffer containing the word
+     * @param length the length of the word
+     * @return the hash code of the word
+     */
+    static int hash(char[] word, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + word[i];
+        }
+
+        return hash ^ (hash >>> 16);
+    }
+}
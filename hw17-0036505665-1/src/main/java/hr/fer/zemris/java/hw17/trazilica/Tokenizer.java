@@ -0,0 +1,161 @@
+package hr.fer.zemris.java.hw17.trazilica;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Splits text into words, which are sequences of the letters of the English and
+ * Croatian alphabets and underscores. Each word is passed to a consumer in lower
+ * case.
+ *
+ * The characters are classified and lowercased with a lookup table, and each word is
+ * written to a buffer reused for all words, so no objects are allocated per word.
+ * Text can be given in chunks, and a word split between two chunks is passed as a
+ * single word.
+ *
+ * @author Bruna Dujmović
+ *
+ */
+class Tokenizer {
+
+    /**
+     * The letters which words consist of, besides the English alphabet and
+     * underscores.
+     */
+    private static final String CROATIAN_LETTERS = "šđčćžŠĐČĆŽ";
+
+    /**
+     * The size of the chunks read from a {@link Reader}.
+     */
+    private static final int CHUNK_SIZE = 8192;
+
+    /**
+     * The lower case of each character which words consist of, or 0 for the other
+     * characters. Characters beyond the table are not in words.
+     */
+    private static final char[] LOWER_CASE = new char['ž' + 1];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            LOWER_CASE[c] = c;
+            LOWER_CASE[Character.toUpperCase(c)] = c;
+        }
+        LOWER_CASE['_'] = '_';
+
+        for (char c : CROATIAN_LETTERS.toCharArray()) {
+            LOWER_CASE[c] = Character.toLowerCase(c);
+        }
+    }
+
+    /**
+     * A consumer of words.
+     */
+    interface WordConsumer {
+
+        /**
+         * Called for each word. The buffer is reused for the next word, so it must
+         * not be kept.
+         *
+         * @param word the buffer containing the word in lower case
+         * @param length the length of the word
+         */
+        void accept(char[] word, int length);
+    }
+
+    /**
+     * The consumer of the words.
+     */
+    private WordConsumer consumer;
+
+    /**
+     * The buffer of the current word.
+     */
+    private char[] word = new char[32];
+
+    /**
+     * The length of the current word.
+     */
+    private int length;
+
+    /**
+     * Constructs a {@link Tokenizer} which passes words to the given consumer.
+     *
+     * @param consumer the consumer of the words
+     */
+    Tokenizer(WordConsumer consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * Splits all text of the given reader into words.
+     *
+     * @param reader the reader of the text
+     * @throws IOException if the text can't be read
+     */
+    void tokenize(Reader reader) throws IOException {
+        char[] chunk = new char[CHUNK_SIZE];
+        int read;
+
+        while ((read = reader.read(chunk)) >= 0) {
+            tokenize(chunk, read);
+        }
+        finish();
+    }
+
+    /**
+     * Splits the given text into words.
+     *
+     * @param text the text
+     */
+    void tokenize(String text) {
+        for (int i = 0, n = text.length(); i < n; i++) {
+            append(text.charAt(i));
+        }
+        finish();
+    }
+
+    /**
+     * Splits a chunk of text into words. The last word of the chunk is passed once
+     * it is known to have ended, by the next chunk or by {@link #finish()}.
+     *
+     * @param chunk the buffer containing the chunk
+     * @param count the length of the chunk
+     */
+    void tokenize(char[] chunk, int count) {
+        for (int i = 0; i < count; i++) {
+            append(chunk[i]);
+        }
+    }
+
+    /**
+     * Passes the last word of the text, if the text ends with one.
+     */
+    void finish() {
+        if (length > 0) {
+            consumer.accept(word, length);
+            length = 0;
+        }
+    }
+
+    /**
+     * Appends the given character to the current word, or passes the current word if
+     * the character is not in words.
+     *
+     * @param c the character
+     */
+    private void append(char c) {
+        char lower = c < LOWER_CASE.length ? LOWER_CASE[c] : 0;
+
+        if (lower != 0) {
+            if (length == word.length) {
+                word = Arrays.copyOf(word, 2 * length);
+            }
+            word[length++] = lower;
+
+        } else if (length > 0) {
+            consumer.accept(word, length);
+            length = 0;
+        }
+    }
+}
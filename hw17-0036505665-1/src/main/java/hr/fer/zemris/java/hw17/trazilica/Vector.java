@@ -1,11 +1,13 @@
 package hr.fer.zemris.java.hw17.trazilica;
 
-import java.util.List;
+import java.util.Arrays;
 
 /**
- * An n-dimensional vector whose values are represented in a list. To
- * be used for modelling tfidf word vectors and calculating document
- * similarity ({@link #similarity(Vector)}).
+ * A sparse n-dimensional vector which stores only its non-zero values, together
+ * with their indices in ascending order. To be used for modelling tfidf word vectors,
+ * whose indices are word IDs, and calculating document similarity
+ * ({@link #similarity(Vector)}). The norm of the vector is computed once, when it is
+ * constructed.
  *
  * @author Bruna Dujmović
  *
@@ -13,25 +15,91 @@ import java.util.List;
 class Vector {
 
     /**
-     * A list of values of this vector.
+     * The indices of the non-zero values, in ascending order.
      */
-    private List<Double> values;
+    private int[] indices;
 
     /**
-     * Constructs a vector from its values.
+     * The non-zero values of this vector.
+     */
+    private double[] values;
+
+    /**
+     * The absolute value of this vector.
+     */
+    private double norm;
+
+    /**
+     * Constructs a vector from the first {@code size} given indices and values. The
+     * indices don't have to be sorted, but must be distinct. Zero values are not
+     * stored. The given arrays are not modified.
      *
-     * @param values a list of vector values
+     * @param indices the indices of the values
+     * @param values the values at the given indices
+     * @param size the number of the given values
      */
-    Vector(List<Double> values) {
-        this.values = values;
+    Vector(int[] indices, double[] values, int size) {
+        int nonZero = 0;
+        boolean sorted = true;
+        for (int i = 0; i < size; i++) {
+            if (values[i] != 0) {
+                nonZero++;
+            }
+            if (i > 0 && indices[i - 1] > indices[i]) {
+                sorted = false;
+            }
+        }
+
+        this.indices = new int[nonZero];
+        this.values = new double[nonZero];
+
+        if (sorted) {
+            for (int i = 0, j = 0; i < size; i++) {
+                if (values[i] != 0) {
+                    this.indices[j] = indices[i];
+                    this.values[j++] = values[i];
+                }
+            }
+        } else {
+            // sort the indices together with the positions of their values
+            long[] keys = new long[nonZero];
+            for (int i = 0, j = 0; i < size; i++) {
+                if (values[i] != 0) {
+                    keys[j++] = (long) indices[i] << 32 | i;
+                }
+            }
+            Arrays.sort(keys);
+
+            for (int j = 0; j < nonZero; j++) {
+                this.indices[j] = (int) (keys[j] >>> 32);
+                this.values[j] = values[(int) keys[j]];
+            }
+        }
+
+        double squareSum = 0.0;
+        for (double value : this.values) {
+            squareSum += value * value;
+        }
+        norm = Math.sqrt(squareSum);
     }
 
     /**
-     * Returns a list of values of this vector.
+     * Returns the indices of the non-zero values of this vector, in ascending order.
+     * The returned array must not be modified.
      *
-     * @return a list of values of this vector
+     * @return the indices of the non-zero values
      */
-    List<Double> getValues() {
+    int[] getIndices() {
+        return indices;
+    }
+
+    /**
+     * Returns the non-zero values of this vector, in the order of their indices. The
+     * returned array must not be modified.
+     *
+     * @return the non-zero values of this vector
+     */
+    double[] getValues() {
         return values;
     }
 
@@ -40,35 +108,48 @@ class Vector {
      *
      * @return the absolute value of this vector
      */
-    private double norm() {
-        double squareSum = 0.0;
+    double norm() {
+        return norm;
+    }
 
-        for (Double value : values) {
-            squareSum += value * value;
+    /**
+     * Computes the dot product of two vectors by merging their indices.
+     *
+     * @param other the other vector
+     * @return the dot product of the vectors
+     */
+    double dot(Vector other) {
+        int[] otherIndices = other.indices;
+        double[] otherValues = other.values;
+
+        double dotProduct = 0.0;
+        int i = 0;
+        int j = 0;
+        while (i < indices.length && j < otherIndices.length) {
+            if (indices[i] < otherIndices[j]) {
+                i++;
+            } else if (indices[i] > otherIndices[j]) {
+                j++;
+            } else {
+                dotProduct += values[i++] * otherValues[j++];
+            }
         }
 
-        return Math.sqrt(squareSum);
+        return dotProduct;
     }
 
     /**
-     * Computes the similarity between two vectors.
+     * Computes the similarity between two vectors. The similarity of a zero vector is 0.
      *
      * @param other the other vector
      * @return the similarity between two vectors
      */
     double similarity(Vector other) {
-        List<Double> otherValues = other.getValues();
-
-        if (otherValues.size() != values.size()) {
+        if (norm == 0 || other.norm == 0) {
             return 0;
         }
 
-        double dotProduct = 0.0;
-        for (int i = 0, size = values.size(); i < size; i++) {
-            dotProduct += values.get(i) * otherValues.get(i);
-        }
-
-        return dotProduct / (this.norm() * other.norm());
+        return dot(other) / (norm * other.norm);
     }
 
 }